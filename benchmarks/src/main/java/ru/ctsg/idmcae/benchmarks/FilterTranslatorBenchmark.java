@@ -0,0 +1,83 @@
+package ru.ctsg.idmcae.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.ctsg.idmcae.query.SqlFilter;
+import ru.ctsg.idmcae.query.SqlFilterTranslator;
+import ru.ctsg.idmcae.query.TableMapping;
+
+/**
+ * Cost of translating the filters midPoint sends most often: a lookup by Uid or Name,
+ * a conjunction of attribute conditions, and the disjunction of names it builds when
+ * resolving a batch of references.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FilterTranslatorBenchmark {
+
+    private static final int NAMES = 20;
+
+    private SqlFilterTranslator translator;
+    private Filter byUid;
+    private Filter byName;
+    private Filter conjunction;
+    private Filter disjunction;
+
+    @Setup
+    public void setUp() {
+        translator = new SqlFilterTranslator(Fixtures.schema().table(TableMapping.ACCOUNT));
+
+        byUid = FilterBuilder.equalTo(new Uid("1048576"));
+        byName = FilterBuilder.equalTo(new Name("user42"));
+        conjunction = FilterBuilder.and(
+            FilterBuilder.startsWith(AttributeBuilder.build("email", "user1")),
+            FilterBuilder.equalTo(AttributeBuilder.build("is_active", true)));
+
+        Filter names = FilterBuilder.equalTo(new Name("user0"));
+        for (int i = 1; i < NAMES; i++) {
+            names = FilterBuilder.or(names, FilterBuilder.equalTo(new Name("user" + i)));
+        }
+        disjunction = names;
+    }
+
+    @Benchmark
+    public List<SqlFilter> byUid() {
+        return translator.translate(byUid);
+    }
+
+    @Benchmark
+    public List<SqlFilter> byName() {
+        return translator.translate(byName);
+    }
+
+    @Benchmark
+    public List<SqlFilter> conjunction() {
+        return translator.translate(conjunction);
+    }
+
+    @Benchmark
+    public List<SqlFilter> disjunction() {
+        return translator.translate(disjunction);
+    }
+}
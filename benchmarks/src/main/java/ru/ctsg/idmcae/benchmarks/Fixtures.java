@@ -0,0 +1,42 @@
+package ru.ctsg.idmcae.benchmarks;
+
+import java.sql.SQLException;
+
+import ru.ctsg.idmcae.builders.SchemaDefinition;
+import ru.ctsg.idmcae.builders.SchemaDefinitionBuilder;
+
+/**
+ * The tables the benchmarks run against, as information_schema describes them.
+ */
+final class Fixtures {
+
+    static final String[] COLUMN_HEADERS = {"table_schema", "table_name", "column_name", "udt_name"};
+
+    static final Object[][] COLUMNS = {
+        {"public", "accounts", "account_id", "int8"},
+        {"public", "accounts", "username", "varchar"},
+        {"public", "accounts", "full_name", "varchar"},
+        {"public", "accounts", "email", "varchar"},
+        {"public", "accounts", "is_active", "bool"},
+        {"public", "accounts", "created_at", "timestamptz"},
+        {"public", "accounts", "last_modified_at", "timestamptz"},
+        {"public", "permission", "permission_uid", "uuid"},
+        {"public", "permission", "code", "varchar"},
+        {"public", "permission", "display_name", "varchar"},
+        {"public", "permission", "category", "varchar"},
+        {"public", "permission", "created_at", "timestamptz"},
+        {"public", "permission", "last_modified_at", "timestamptz"},
+    };
+
+    private Fixtures() {
+    }
+
+    static SchemaDefinition schema() {
+        try {
+            return new SchemaDefinitionBuilder().buildSchema(
+                JdbcStandIn.connection(sql -> JdbcStandIn.resultSet(COLUMN_HEADERS, COLUMNS)), "fixture");
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package ru.ctsg.idmcae.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * In-memory JDBC objects answering only what the connector calls, so that benchmarks
+ * measure the connector rather than a driver or the network.
+ */
+final class JdbcStandIn {
+
+    private JdbcStandIn() {
+    }
+
+    /**
+     * A connection whose statements ignore their parameters and return
+     * {@code results.apply(sql)}.
+     */
+    static Connection connection(Function<String, ResultSet> results) {
+        boolean[] autoCommit = {true};
+        return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] {Connection.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "prepareStatement":
+                        return statement(results.apply((String) args[0]));
+                    case "createArrayOf":
+                        return Proxy.newProxyInstance(Array.class.getClassLoader(), new Class<?>[] {Array.class},
+                            (array, arrayMethod, arrayArgs) -> null);
+                    case "getAutoCommit":
+                        return autoCommit[0];
+                    case "setAutoCommit":
+                        autoCommit[0] = (Boolean) args[0];
+                        return null;
+                    case "isReadOnly":
+                    case "isClosed":
+                        return false;
+                    default:
+                        return null;
+                }
+            });
+    }
+
+    private static PreparedStatement statement(ResultSet resultSet) {
+        return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+            new Class<?>[] {PreparedStatement.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "executeQuery":
+                        return resultSet;
+                    case "executeUpdate":
+                        return 1;
+                    case "execute":
+                        return false;
+                    default:
+                        return null;
+                }
+            });
+    }
+
+    /**
+     * A forward-only ResultSet over {@code rows}, one value per column. The rows are
+     * read from the start each time the set is returned by a statement.
+     */
+    static ResultSet resultSet(String[] columns, Object[][] rows) {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int c = 0; c < columns.length; c++) {
+            positions.put(columns[c], c + 1);
+        }
+        int[] cursor = {-1};
+        Object[] last = new Object[1];
+
+        ResultSetMetaData metaData = (ResultSetMetaData) Proxy.newProxyInstance(
+            ResultSetMetaData.class.getClassLoader(), new Class<?>[] {ResultSetMetaData.class},
+            (proxy, method, args) -> "getColumnCount".equals(method.getName()) ? columns.length : "int8");
+
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+            (proxy, method, args) -> {
+                switch (method.getName()) {
+                    case "next":
+                        return ++cursor[0] < rows.length;
+                    case "close":
+                        cursor[0] = -1;
+                        return null;
+                    case "wasNull":
+                        return last[0] == null;
+                    case "getMetaData":
+                        return metaData;
+                    default:
+                        break;
+                }
+                int position = args[0] instanceof String ? positions.get((String) args[0]) : (Integer) args[0];
+                Object value = rows[cursor[0]][position - 1];
+                last[0] = value;
+                switch (method.getName()) {
+                    case "getString":
+                        return value == null ? null : value.toString();
+                    case "getBoolean":
+                        return value != null && (Boolean) value;
+                    case "getLong":
+                        return value == null ? 0L : ((Number) value).longValue();
+                    case "getObject":
+                    case "getBigDecimal":
+                    case "getTimestamp":
+                        return value;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
@@ -0,0 +1,159 @@
+package ru.ctsg.idmcae.benchmarks;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares a JMH run with a recorded baseline, both written with {@code -rf csv}, and
+ * exits with status 1 when a score got worse by more than the tolerance:
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar ru.ctsg.idmcae.benchmarks.RegressionGate \
+ *       benchmarks/baseline.csv target/current.csv 10
+ * </pre>
+ * Primary scores and {@code gc.alloc.rate.norm} (bytes per operation) are compared;
+ * other profiler output is ignored. Time per operation and bytes per operation must
+ * not grow, operations per time unit must not shrink. Allocation changes below
+ * {@value #ALLOCATION_NOISE} bytes are noise, so allocation-free paths do not flap.
+ * Benchmarks missing from either file are listed but do not fail the gate.
+ */
+public final class RegressionGate {
+
+    private static final double ALLOCATION_NOISE = 16;
+
+    private RegressionGate() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: RegressionGate <baseline.csv> <current.csv> [tolerance %, default 10]");
+            System.exit(2);
+        }
+        double tolerance = args.length > 2 ? Double.parseDouble(args[2]) / 100 : 0.10;
+
+        Map<String, Score> baseline = read(Path.of(args[0]));
+        Map<String, Score> current = read(Path.of(args[1]));
+
+        int regressions = compare(baseline, current, tolerance, System.out);
+        if (regressions > 0) {
+            System.out.printf("%d regression(s) beyond %.0f%%%n", regressions, tolerance * 100);
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Prints the comparison of every benchmark and returns the number of regressions.
+     */
+    static int compare(Map<String, Score> baseline, Map<String, Score> current, double tolerance, PrintStream out) {
+        int regressions = 0;
+        for (Map.Entry<String, Score> entry : baseline.entrySet()) {
+            Score before = entry.getValue();
+            Score after = current.get(entry.getKey());
+            if (after == null) {
+                out.printf("MISSING     %s%n", entry.getKey());
+                continue;
+            }
+            double change = before.value == 0 ? 0 : (after.value - before.value) / before.value;
+            boolean worse;
+            if (before.higherIsBetter()) {
+                worse = change < -tolerance;
+            } else if (before.unit.equals("B/op")) {
+                worse = after.value - before.value > Math.max(before.value * tolerance, ALLOCATION_NOISE);
+            } else {
+                worse = change > tolerance;
+            }
+            if (worse) {
+                regressions++;
+            }
+            out.printf("%-11s %s: %.3f -> %.3f %s (%+.1f%%)%n", worse ? "REGRESSION" : "ok",
+                entry.getKey(), before.value, after.value, after.unit, change * 100);
+        }
+        for (String key : current.keySet()) {
+            if (!baseline.containsKey(key)) {
+                out.printf("NEW         %s%n", key);
+            }
+        }
+        return regressions;
+    }
+
+    // keyed by benchmark, mode and parameters
+    static Map<String, Score> read(Path file) throws IOException {
+        List<String> lines = Files.readAllLines(file);
+        List<String> header = split(lines.get(0));
+        int benchmark = header.indexOf("Benchmark");
+        int mode = header.indexOf("Mode");
+        int score = header.indexOf("Score");
+        int unit = header.indexOf("Unit");
+
+        Map<String, Score> scores = new LinkedHashMap<>();
+        for (String line : lines.subList(1, lines.size())) {
+            if (line.isBlank()) {
+                continue;
+            }
+            List<String> fields = split(line);
+            String name = fields.get(benchmark);
+            if (name.indexOf(':') >= 0 && !name.endsWith("gc.alloc.rate.norm")) {
+                continue;
+            }
+            StringBuilder key = new StringBuilder(name).append(" [").append(fields.get(mode));
+            for (int i = unit + 1; i < fields.size(); i++) {
+                if (!fields.get(i).isEmpty()) {
+                    key.append(", ").append(header.get(i).replace("Param: ", "")).append('=').append(fields.get(i));
+                }
+            }
+            key.append(']');
+            // JMH formats scores in the default locale
+            double value = Double.parseDouble(fields.get(score).replace(',', '.'));
+            scores.put(key.toString(), new Score(value, fields.get(unit)));
+        }
+        return scores;
+    }
+
+    private static List<String> split(String line) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '"') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+
+    static final class Score {
+
+        private final double value;
+        private final String unit;
+
+        Score(double value, String unit) {
+            this.value = value;
+            this.unit = unit;
+        }
+
+        double getValue() {
+            return value;
+        }
+
+        String getUnit() {
+            return unit;
+        }
+
+        // ops/s and the like; ns/op, B/op and the like are better when lower
+        boolean higherIsBetter() {
+            return unit.startsWith("ops/");
+        }
+    }
+}
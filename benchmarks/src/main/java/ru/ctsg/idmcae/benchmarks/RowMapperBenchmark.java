@@ -0,0 +1,189 @@
+package ru.ctsg.idmcae.benchmarks;
+
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.AttributeInfoBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClassInfoBuilder;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ru.ctsg.idmcae.query.Projection;
+import ru.ctsg.idmcae.query.RowMapper;
+import ru.ctsg.idmcae.query.TableMapping;
+import ru.ctsg.idmcae.query.TableSchema;
+
+/**
+ * Cost of mapping one accounts row to a ConnectorObject, the per-row work of every
+ * search and LiveSync fetch. {@code legacy} reproduces the former by-name mapping
+ * through ConnectorObjectBuilder; {@code readOnly} reads the same values without
+ * mapping them and is the share of the in-memory ResultSet itself. Run with
+ * {@code -prof gc}; gc.alloc.rate.norm is bytes allocated per row.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RowMapperBenchmark {
+
+    private static final int ROWS = 1024;
+
+    private RowMapper mapper;
+    private String[] columns;
+    private ResultSet resultSet;
+    private int[] cursor;
+
+    @Setup
+    public void setUp() {
+        ObjectClassInfoBuilder builder = new ObjectClassInfoBuilder();
+        builder.setType(TableMapping.ACCOUNT.getObjectClassName());
+        builder.addAttributeInfo(AttributeInfoBuilder.build(Uid.NAME, String.class));
+        builder.addAttributeInfo(AttributeInfoBuilder.build(Name.NAME, String.class));
+        builder.addAttributeInfo(AttributeInfoBuilder.build("account_id", Long.class));
+        builder.addAttributeInfo(AttributeInfoBuilder.build("username", String.class));
+        builder.addAttributeInfo(AttributeInfoBuilder.build("full_name", String.class));
+        builder.addAttributeInfo(AttributeInfoBuilder.build("email", String.class));
+        builder.addAttributeInfo(AttributeInfoBuilder.build("is_active", Boolean.class));
+        builder.addAttributeInfo(AttributeInfoBuilder.build("created_at", ZonedDateTime.class));
+        builder.addAttributeInfo(AttributeInfoBuilder.build("last_modified_at", ZonedDateTime.class));
+
+        TableSchema schema = new TableSchema(TableMapping.ACCOUNT, builder.build(),
+            Set.of("account_id", "username", "full_name", "email", "is_active", "created_at", "last_modified_at"),
+            Set.of("username", "full_name", "email"));
+        Projection projection = Projection.of(schema, null);
+        mapper = projection.getMapper();
+        columns = projection.getSelectList().split(", ");
+
+        Object[][] rows = new Object[ROWS][];
+        OffsetDateTime created = OffsetDateTime.of(2024, 3, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+        for (int i = 0; i < ROWS; i++) {
+            Map<String, Object> values = new HashMap<>();
+            values.put("account_id", 1048576L + i);
+            values.put("username", "user" + i);
+            values.put("full_name", "User Number " + i);
+            // every fourth account has no e-mail
+            values.put("email", i % 4 == 0 ? null : "user" + i + "@example.org");
+            values.put("is_active", i % 10 != 0);
+            values.put("created_at", created.plusMinutes(i));
+            values.put("last_modified_at", created.plusHours(i));
+
+            rows[i] = new Object[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                rows[i][c] = values.get(columns[c]);
+            }
+        }
+        cursor = new int[1];
+        resultSet = rows(rows, columns, cursor);
+    }
+
+    @Benchmark
+    public ConnectorObject map() throws SQLException {
+        advance();
+        return mapper.map(resultSet);
+    }
+
+    @Benchmark
+    public ConnectorObject legacy() throws SQLException {
+        advance();
+        ConnectorObjectBuilder builder = new ConnectorObjectBuilder()
+            .setObjectClass(TableMapping.ACCOUNT.getObjectClass())
+            .setUid(resultSet.getString("account_id"))
+            .setName(resultSet.getString("username"));
+
+        long accountId = resultSet.getLong("account_id");
+        builder.addAttribute(AttributeBuilder.build("account_id", accountId));
+        builder.addAttribute(stringAttribute("username"));
+        builder.addAttribute(stringAttribute("full_name"));
+        builder.addAttribute(stringAttribute("email"));
+        boolean active = resultSet.getBoolean("is_active");
+        builder.addAttribute(resultSet.wasNull()
+            ? AttributeBuilder.build("is_active") : AttributeBuilder.build("is_active", active));
+        builder.addAttribute(timestampAttribute("created_at"));
+        builder.addAttribute(timestampAttribute("last_modified_at"));
+        return builder.build();
+    }
+
+    @Benchmark
+    public void readOnly(Blackhole blackhole) throws SQLException {
+        advance();
+        blackhole.consume(resultSet.getString(1));
+        blackhole.consume(resultSet.getString(2));
+        for (int c = 1; c <= columns.length; c++) {
+            blackhole.consume(resultSet.getObject(c));
+        }
+    }
+
+    private void advance() {
+        cursor[0] = (cursor[0] + 1) % ROWS;
+    }
+
+    private Attribute stringAttribute(String column) throws SQLException {
+        String value = resultSet.getString(column);
+        return value == null ? AttributeBuilder.build(column) : AttributeBuilder.build(column, value);
+    }
+
+    private Attribute timestampAttribute(String column) throws SQLException {
+        OffsetDateTime value = resultSet.getObject(column, OffsetDateTime.class);
+        return value == null ? AttributeBuilder.build(column) : AttributeBuilder.build(column, value.toZonedDateTime());
+    }
+
+    /**
+     * A ResultSet positioned on {@code rows[cursor[0]]}, answering only the getters
+     * the mappers call.
+     */
+    private static ResultSet rows(Object[][] rows, String[] columns, int[] cursor) {
+        Map<String, Integer> positions = new HashMap<>();
+        for (int c = 0; c < columns.length; c++) {
+            positions.put(columns[c], c + 1);
+        }
+        Object[] wasNull = new Object[1];
+
+        return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(), new Class<?>[] {ResultSet.class},
+            (proxy, method, args) -> {
+                if ("wasNull".equals(method.getName())) {
+                    return wasNull[0] == null;
+                }
+                int position = args[0] instanceof String ? positions.get((String) args[0]) : (Integer) args[0];
+                Object value = rows[cursor[0]][position - 1];
+                wasNull[0] = value;
+                switch (method.getName()) {
+                    case "getString":
+                        return value == null ? null : value.toString();
+                    case "getBoolean":
+                        return value != null && (Boolean) value;
+                    case "getLong":
+                        return value == null ? 0L : ((Number) value).longValue();
+                    case "getObject":
+                    case "getBigDecimal":
+                        return value;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            });
+    }
+}
@@ -0,0 +1,46 @@
+package ru.ctsg.idmcae.benchmarks;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.ctsg.idmcae.builders.SchemaDefinition;
+import ru.ctsg.idmcae.builders.SchemaDefinitionBuilder;
+
+/**
+ * Cost of building the ConnId schema from information_schema rows, paid whenever the
+ * schema cache finds the table definitions changed.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SchemaBuilderBenchmark {
+
+    private SchemaDefinitionBuilder builder;
+    private Connection connection;
+
+    @Setup
+    public void setUp() {
+        builder = new SchemaDefinitionBuilder();
+        connection = JdbcStandIn.connection(sql -> JdbcStandIn.resultSet(Fixtures.COLUMN_HEADERS, Fixtures.COLUMNS));
+    }
+
+    @Benchmark
+    public SchemaDefinition buildSchema() throws SQLException {
+        return builder.buildSchema(connection, "fixture");
+    }
+}
@@ -0,0 +1,88 @@
+package ru.ctsg.idmcae.benchmarks;
+
+import java.sql.Connection;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import ru.ctsg.idmcae.ADLKConfiguration;
+import ru.ctsg.idmcae.builders.SchemaDefinition;
+import ru.ctsg.idmcae.processing.AccountProcessing;
+import ru.ctsg.idmcae.query.Projection;
+import ru.ctsg.idmcae.query.TableMapping;
+
+/**
+ * One account search from SQL to the results handler: building and binding the
+ * statement, reading every row and mapping it. Divide by {@code rows} for the cost
+ * per object; run with {@code -prof gc} for the bytes allocated per search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+
+    @Param({"1", "100", "1000"})
+    private int rows;
+
+    private AccountProcessing processing;
+    private Projection projection;
+    private OperationOptions options;
+    private Connection connection;
+
+    @Setup
+    public void setUp() {
+        SchemaDefinition schema = Fixtures.schema();
+        processing = new AccountProcessing(new ADLKConfiguration(), schema);
+        options = new OperationOptionsBuilder().build();
+        projection = Projection.of(schema.table(TableMapping.ACCOUNT), options);
+
+        String[] columns = projection.getSelectList().split(", ");
+        Object[][] values = new Object[rows][];
+        OffsetDateTime created = OffsetDateTime.of(2024, 3, 1, 12, 0, 0, 0, ZoneOffset.UTC);
+        for (int i = 0; i < rows; i++) {
+            Map<String, Object> row = new HashMap<>();
+            row.put("account_id", 1048576L + i);
+            row.put("username", "user" + i);
+            row.put("full_name", "User Number " + i);
+            row.put("email", i % 4 == 0 ? null : "user" + i + "@example.org");
+            row.put("is_active", i % 10 != 0);
+            row.put("created_at", created.plusMinutes(i));
+            row.put("last_modified_at", created.plusHours(i));
+
+            values[i] = new Object[columns.length];
+            for (int c = 0; c < columns.length; c++) {
+                values[i][c] = row.get(columns[c]);
+            }
+        }
+        connection = JdbcStandIn.connection(sql -> JdbcStandIn.resultSet(columns, values));
+    }
+
+    @Benchmark
+    public SearchResult search(Blackhole blackhole) {
+        return processing.executeQuery(null, projection, connectorObject -> {
+            blackhole.consume(connectorObject);
+            return true;
+        }, options, connection);
+    }
+}
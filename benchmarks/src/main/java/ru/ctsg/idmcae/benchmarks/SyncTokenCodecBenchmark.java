@@ -0,0 +1,114 @@
+package ru.ctsg.idmcae.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ru.ctsg.idmcae.sync.ChangeStream;
+import ru.ctsg.idmcae.sync.SyncTokenCodec;
+import ru.ctsg.idmcae.sync.SyncWatermark;
+
+/**
+ * Cost of turning a LiveSync position into a token and back, once per delta, for an
+ * account sync and for one over all three change streams. The legacy pair reproduces
+ * the former ObjectOutputStream/Base64 tokens for comparison; run with {@code -prof gc}
+ * to see bytes allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SyncTokenCodecBenchmark {
+
+    private String consumer;
+    private SyncWatermark watermark;
+    private Map<ChangeStream, SyncWatermark> accounts;
+    private String token;
+    private String legacyToken;
+    private Map<ChangeStream, SyncWatermark> position;
+    private String positionToken;
+
+    @Setup
+    public void setUp() throws IOException {
+        consumer = SyncTokenCodec.newConsumer();
+        Timestamp timestamp = Timestamp.valueOf("2024-03-01 12:34:56.789012");
+        watermark = new SyncWatermark(timestamp, "1048576");
+        accounts = new EnumMap<>(ChangeStream.class);
+        accounts.put(ChangeStream.ACCOUNTS, watermark);
+        token = SyncTokenCodec.encode(consumer, 0, accounts);
+        legacyToken = encodeLegacy(timestamp);
+
+        position = new EnumMap<>(ChangeStream.class);
+        position.put(ChangeStream.ACCOUNTS, watermark);
+        position.put(ChangeStream.PERMISSIONS,
+            new SyncWatermark(timestamp, "9b2f6c1e-4d0a-4c55-8f7e-3a1d2b6c9e01"));
+        position.put(ChangeStream.MEMBERSHIPS, new SyncWatermark(timestamp, "1048575"));
+        positionToken = SyncTokenCodec.encode(consumer, 7, position);
+    }
+
+    @Benchmark
+    public String encode() {
+        return SyncTokenCodec.encode(consumer, 0, accounts);
+    }
+
+    @Benchmark
+    public Map<ChangeStream, SyncWatermark> decode() {
+        return SyncTokenCodec.decodePosition(token, ChangeStream.ACCOUNTS);
+    }
+
+    @Benchmark
+    public String encodePosition() {
+        return SyncTokenCodec.encode(consumer, 7, position);
+    }
+
+    @Benchmark
+    public Map<ChangeStream, SyncWatermark> decodePosition() {
+        return SyncTokenCodec.decodePosition(positionToken, ChangeStream.ACCOUNTS);
+    }
+
+    @Benchmark
+    public String encodeLegacy() throws IOException {
+        return encodeLegacy(watermark.getTimestamp());
+    }
+
+    @Benchmark
+    public Object decodeLegacy() throws IOException, ClassNotFoundException {
+        try (ObjectInputStream objectInputStream =
+                new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(legacyToken)))) {
+            return objectInputStream.readObject();
+        }
+    }
+
+    @Benchmark
+    public Map<ChangeStream, SyncWatermark> migrateLegacy() {
+        return SyncTokenCodec.decodePosition(legacyToken, ChangeStream.ACCOUNTS);
+    }
+
+    private static String encodeLegacy(Timestamp timestamp) throws IOException {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(baos)) {
+            objectOutputStream.writeObject(timestamp);
+        }
+        return Base64.getEncoder().encodeToString(baos.toByteArray());
+    }
+}
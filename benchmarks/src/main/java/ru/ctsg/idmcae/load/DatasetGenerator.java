@@ -0,0 +1,136 @@
+package ru.ctsg.idmcae.load;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Fills the ADLK tables with synthetic identities. Every value is a function of the
+ * row number and the seed, computed by the database itself, so the same arguments
+ * always produce the same dataset without shipping rows over the connection:
+ * account {@code n} is {@code user<n>}, permission {@code n} has the code
+ * {@code PERM-<n>} and the uid {@link #permissionUid}. Account keys are assumed to
+ * run from 1, which holds for tables created or emptied by the harness.
+ */
+final class DatasetGenerator {
+
+    // rows per INSERT, so that progress is visible and no transaction grows unbounded
+    private static final int CHUNK = 100_000;
+
+    private final Connection connection;
+    private final long seed;
+
+    DatasetGenerator(Connection connection, long seed) {
+        this.connection = connection;
+        this.seed = seed;
+    }
+
+    void createSchema() throws SQLException, IOException {
+        try (InputStream ddl = DatasetGenerator.class.getResourceAsStream("/ru/ctsg/idmcae/schema.sql");
+            Statement statement = connection.createStatement()) {
+
+            statement.execute(new String(ddl.readAllBytes(), StandardCharsets.UTF_8));
+        }
+    }
+
+    void reset() throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("TRUNCATE public.account_permissions, public.accounts, public.permission "
+                + "RESTART IDENTITY");
+        }
+    }
+
+    void generate(int permissions, int accounts, int membershipsPerAccount) throws SQLException {
+        long start = System.nanoTime();
+
+        insertChunked(permissions, """
+            INSERT INTO public.permission (permission_uid, code, display_name, category)
+            SELECT md5(? || ':perm:' || g)::uuid, 'PERM-' || g, 'Synthetic permission ' || g, 'category' || g % 20
+            FROM generate_series(?::bigint, ?::bigint) g
+            """, "permissions", true);
+
+        insertChunked(accounts, """
+            INSERT INTO public.accounts (username, full_name, email, is_active)
+            SELECT 'user' || g, 'User ' || g,
+                   CASE WHEN g % 4 = 0 THEN NULL ELSE 'user' || g || '@example.org' END,
+                   g % 10 <> 0
+            FROM generate_series(?::bigint, ?::bigint) g
+            """, "accounts", false);
+
+        // membership j of an account goes to a permission spread by a multiplicative hash;
+        // the rare collisions are dropped, so the row count is just below accounts * k
+        long step = Math.max(CHUNK / Math.max(membershipsPerAccount, 1), 1);
+        for (long from = 1; from <= accounts; from += step) {
+            long to = Math.min(from + step - 1, accounts);
+            try (PreparedStatement preparedStatement = connection.prepareStatement("""
+                INSERT INTO public.account_permissions (account_id, permission_uid)
+                SELECT a.account_id,
+                       md5(? || ':perm:' || (1 + (a.account_id * 2654435761 + j * 40503) % ?))::uuid
+                FROM public.accounts a, generate_series(1, ?) j
+                WHERE a.account_id BETWEEN ? AND ?
+                ON CONFLICT DO NOTHING
+                """)) {
+
+                preparedStatement.setString(1, Long.toString(seed));
+                preparedStatement.setLong(2, permissions);
+                preparedStatement.setInt(3, membershipsPerAccount);
+                preparedStatement.setLong(4, from);
+                preparedStatement.setLong(5, to);
+                preparedStatement.executeUpdate();
+            }
+            progress("memberships of accounts", to, accounts);
+        }
+
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("ANALYZE public.accounts, public.permission, public.account_permissions");
+        }
+        System.out.printf("Generated the dataset in %d s%n", (System.nanoTime() - start) / 1_000_000_000L);
+    }
+
+    private void insertChunked(long rows, String sql, String what, boolean seeded) throws SQLException {
+        for (long from = 1; from <= rows; from += CHUNK) {
+            long to = Math.min(from + CHUNK - 1, rows);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+                int index = 1;
+                if (seeded) {
+                    preparedStatement.setString(index++, Long.toString(seed));
+                }
+                preparedStatement.setLong(index++, from);
+                preparedStatement.setLong(index, to);
+                preparedStatement.executeUpdate();
+            }
+            progress(what, to, rows);
+        }
+    }
+
+    private static void progress(String what, long done, long total) {
+        System.out.printf("  %s: %d of %d%n", what, done, total);
+    }
+
+    /**
+     * The uid the generator gives permission {@code n}, as the database computes it.
+     */
+    static String permissionUid(long seed, long n) {
+        try {
+            byte[] digest = MessageDigest.getInstance("MD5")
+                .digest((seed + ":perm:" + n).getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(36);
+            for (int i = 0; i < digest.length; i++) {
+                if (i == 4 || i == 6 || i == 8 || i == 10) {
+                    hex.append('-');
+                }
+                hex.append(Character.forDigit((digest[i] >> 4) & 0xf, 16))
+                    .append(Character.forDigit(digest[i] & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package ru.ctsg.idmcae.load;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.identityconnectors.common.security.GuardedString;
+import org.identityconnectors.framework.api.APIConfiguration;
+import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.api.ConnectorFacadeFactory;
+import org.identityconnectors.test.common.TestHelpers;
+
+import ru.ctsg.idmcae.ADLKConfiguration;
+import ru.ctsg.idmcae.ADLKConnector;
+import ru.ctsg.idmcae.load.Workload.Measurements;
+import ru.ctsg.idmcae.load.Workload.Operation;
+import ru.ctsg.idmcae.metrics.LatencyHistogram;
+
+/**
+ * Load and soak harness: generates a reproducible dataset in a local PostgreSQL and
+ * drives a concurrent operation mix through the ConnId facade, the way midPoint calls
+ * the connector. Needs nothing beyond the database; for example
+ * <pre>
+ *   java -cp benchmarks/target/benchmarks.jar ru.ctsg.idmcae.load.LoadHarness \
+ *       --url=jdbc:postgresql://localhost:5432/adlk --user=adlk --password=adlk \
+ *       --create-schema --reset --generate --accounts=1000000 --permissions=10000 --memberships=20 \
+ *       --threads=16 --duration=PT30M --report=PT1M --mix=search=50,update=25,create=10,delete=5,sync=10
+ * </pre>
+ * Without {@code --generate} the run reuses the data of an earlier one with the same
+ * seed. A long {@code --duration} with a {@code --report} interval is a soak test:
+ * compare the intervals for drifting latency or heap.
+ */
+public final class LoadHarness {
+
+    static final class Options {
+
+        String url = "jdbc:postgresql://localhost:5432/adlk";
+        String user = "adlk";
+        String password = System.getenv().getOrDefault("ADLK_PASSWORD", "adlk");
+        boolean createSchema;
+        boolean reset;
+        boolean generate;
+        int accounts = 1_000_000;
+        int permissions = 10_000;
+        int memberships = 20;
+        long seed = 42;
+        int threads = 16;
+        int poolSize = 10;
+        Duration warmup = Duration.ofSeconds(30);
+        Duration duration = Duration.ofMinutes(5);
+        Duration report = Duration.ZERO;
+        Map<Operation, Integer> mix = parseMix("search=50,update=25,create=10,delete=5,sync=10");
+
+        static Options parse(String[] args) {
+            Options options = new Options();
+            for (String arg : args) {
+                if (!arg.startsWith("--")) {
+                    throw new IllegalArgumentException("Unexpected argument: " + arg);
+                }
+                int eq = arg.indexOf('=');
+                String key = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+                String value = eq < 0 ? "true" : arg.substring(eq + 1);
+                switch (key) {
+                    case "url": options.url = value; break;
+                    case "user": options.user = value; break;
+                    case "password": options.password = value; break;
+                    case "create-schema": options.createSchema = Boolean.parseBoolean(value); break;
+                    case "reset": options.reset = Boolean.parseBoolean(value); break;
+                    case "generate": options.generate = Boolean.parseBoolean(value); break;
+                    case "accounts": options.accounts = Integer.parseInt(value); break;
+                    case "permissions": options.permissions = Integer.parseInt(value); break;
+                    case "memberships": options.memberships = Integer.parseInt(value); break;
+                    case "seed": options.seed = Long.parseLong(value); break;
+                    case "threads": options.threads = Integer.parseInt(value); break;
+                    case "pool-size": options.poolSize = Integer.parseInt(value); break;
+                    case "warmup": options.warmup = Duration.parse(value); break;
+                    case "duration": options.duration = Duration.parse(value); break;
+                    case "report": options.report = Duration.parse(value); break;
+                    case "mix": options.mix = parseMix(value); break;
+                    default: throw new IllegalArgumentException("Unknown option: --" + key);
+                }
+            }
+            return options;
+        }
+
+        private static Map<Operation, Integer> parseMix(String mix) {
+            Map<Operation, Integer> weights = new EnumMap<>(Operation.class);
+            for (String part : mix.split(",")) {
+                String[] weight = part.split("=");
+                weights.put(Operation.valueOf(weight[0].trim().toUpperCase()), Integer.parseInt(weight[1].trim()));
+            }
+            return weights;
+        }
+    }
+
+    private final Options options;
+    private volatile boolean stopped;
+    private volatile Measurements total;
+    private volatile Measurements interval;
+
+    private LoadHarness(Options options) {
+        this.options = options;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Options options = Options.parse(args);
+
+        try (Connection connection = DriverManager.getConnection(options.url, options.user, options.password)) {
+            DatasetGenerator generator = new DatasetGenerator(connection, options.seed);
+            if (options.createSchema) {
+                generator.createSchema();
+            }
+            if (options.reset) {
+                generator.reset();
+            }
+            if (options.generate) {
+                generator.generate(options.permissions, options.accounts, options.memberships);
+            }
+        }
+
+        new LoadHarness(options).run();
+        System.exit(0);
+    }
+
+    private void run() throws InterruptedException {
+        ADLKConfiguration configuration = new ADLKConfiguration();
+        configuration.setJdbcUrl(options.url);
+        configuration.setJdbcDriver("org.postgresql.Driver");
+        configuration.setJdbcUser(options.user);
+        configuration.setJdbcPassword(new GuardedString(options.password.toCharArray()));
+        configuration.setMaxPoolSize(options.poolSize);
+
+        APIConfiguration apiConfiguration = TestHelpers.createTestConfiguration(ADLKConnector.class, configuration);
+        apiConfiguration.getConnectorPoolConfiguration().setMaxObjects(options.threads);
+        apiConfiguration.getConnectorPoolConfiguration().setMaxIdle(options.threads);
+        ConnectorFacade facade = ConnectorFacadeFactory.getInstance().newInstance(apiConfiguration);
+        facade.test();
+
+        System.out.printf("Running %s with %d threads for %s after %s of warm-up%n",
+            options.mix, options.threads, options.duration, options.warmup);
+
+        ResourceSampler sampler = new ResourceSampler();
+        ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
+        scheduler.scheduleAtFixedRate(sampler, 100, 100, TimeUnit.MILLISECONDS);
+
+        // warm-up measurements are thrown away
+        total = new Measurements();
+        interval = total;
+        List<Thread> workers = new ArrayList<>();
+        for (int i = 0; i < options.threads; i++) {
+            Thread worker = new Thread(new Workload(facade, options, i, this), "load-" + i);
+            workers.add(worker);
+            worker.start();
+        }
+        Thread.sleep(options.warmup.toMillis());
+
+        total = new Measurements();
+        interval = new Measurements();
+        if (!options.report.isZero()) {
+            long period = options.report.toMillis();
+            scheduler.scheduleAtFixedRate(() -> {
+                Measurements finished = interval;
+                interval = new Measurements();
+                print("Interval", finished);
+                sampler.printHeap();
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+
+        Thread.sleep(options.duration.toMillis());
+        stopped = true;
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        scheduler.shutdownNow();
+
+        print("Total", total);
+        sampler.print();
+        ConnectorFacadeFactory.getInstance().dispose();
+    }
+
+    boolean isStopped() {
+        return stopped;
+    }
+
+    void record(Operation operation, long nanos, boolean failed) {
+        Measurements whole = total;
+        Measurements current = interval;
+        whole.latency.get(operation).record(nanos);
+        if (current != whole) {
+            current.latency.get(operation).record(nanos);
+        }
+        if (failed) {
+            whole.errors.get(operation).increment();
+            if (current != whole) {
+                current.errors.get(operation).increment();
+            }
+        }
+    }
+
+    private static void print(String title, Measurements measurements) {
+        double seconds = (System.nanoTime() - measurements.startedAt) / 1e9;
+        System.out.printf("%n%s (%.0f s)%n", title, seconds);
+        System.out.printf("%-8s %10s %8s %10s %9s %9s %9s %9s%n",
+            "", "count", "errors", "ops/s", "p50 ms", "p95 ms", "p99 ms", "max ms");
+        long count = 0;
+        for (Operation operation : Operation.values()) {
+            LatencyHistogram latency = measurements.latency.get(operation);
+            if (latency.getCount() == 0) {
+                continue;
+            }
+            count += latency.getCount();
+            System.out.printf("%-8s %10d %8d %10.1f %9.2f %9.2f %9.2f %9.2f%n",
+                operation.name().toLowerCase(), latency.getCount(), measurements.errors.get(operation).sum(),
+                latency.getCount() / seconds, latency.getPercentileMillis(0.50),
+                latency.getPercentileMillis(0.95), latency.getPercentileMillis(0.99), latency.getMaxMillis());
+        }
+        System.out.printf("%-8s %10d %8s %10.1f%n", "all", count, "", count / seconds);
+    }
+}
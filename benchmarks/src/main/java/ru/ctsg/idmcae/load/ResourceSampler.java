@@ -0,0 +1,100 @@
+package ru.ctsg.idmcae.load;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.Set;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Samples the heap and the connector's pool beans while the load runs. Pool saturation
+ * is the share of samples in which some thread waited for a connection.
+ */
+final class ResourceSampler implements Runnable {
+
+    private final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+
+    private long heapHighWater;
+    private int maxActive;
+    private int maxAwaiting;
+    private long samples;
+    private long saturatedSamples;
+
+    ResourceSampler() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                pool.resetPeakUsage();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void run() {
+        heapHighWater = Math.max(heapHighWater, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+
+        int active = 0;
+        int awaiting = 0;
+        for (ObjectName pool : pools()) {
+            active += intAttribute(pool, "ActiveConnections");
+            awaiting += intAttribute(pool, "ThreadsAwaitingConnection");
+        }
+        maxActive = Math.max(maxActive, active);
+        maxAwaiting = Math.max(maxAwaiting, awaiting);
+        samples++;
+        if (awaiting > 0) {
+            saturatedSamples++;
+        }
+    }
+
+    synchronized void printHeap() {
+        System.out.printf("Heap: %d MB used, %d MB high-water mark%n",
+            ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed() >> 20, heapHighWater >> 20);
+    }
+
+    synchronized void print() {
+        System.out.printf("Heap high-water mark: %d MB sampled, %d MB summed pool peaks%n",
+            heapHighWater >> 20, heapPeaks() >> 20);
+        System.out.printf("Connection pool: max %d active, max %d threads waiting, saturated in %.1f%% of samples%n",
+            maxActive, maxAwaiting, samples == 0 ? 0 : 100.0 * saturatedSamples / samples);
+        for (ObjectName pool : pools()) {
+            try {
+                System.out.printf("  %s: %d borrows, wait mean %.2f ms, p99 %.2f ms, max %.2f ms; hold p99 %.2f ms%n",
+                    pool.getKeyProperty("pool"), server.getAttribute(pool, "BorrowCount"),
+                    server.getAttribute(pool, "WaitMeanMillis"), server.getAttribute(pool, "WaitP99Millis"),
+                    server.getAttribute(pool, "WaitMaxMillis"), server.getAttribute(pool, "HoldP99Millis"));
+            } catch (JMException e) {
+                System.out.printf("  %s: %s%n", pool, e.getMessage());
+            }
+        }
+    }
+
+    // an upper bound: the pools do not peak at the same moment
+    private static long heapPeaks() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+                peak += pool.getPeakUsage().getUsed();
+            }
+        }
+        return peak;
+    }
+
+    private Set<ObjectName> pools() {
+        try {
+            return server.queryNames(new ObjectName("ru.ctsg.idmcae:type=Pool,*"), null);
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private int intAttribute(ObjectName name, String attribute) {
+        try {
+            return (Integer) server.getAttribute(name, attribute);
+        } catch (JMException e) {
+            return 0;
+        }
+    }
+}
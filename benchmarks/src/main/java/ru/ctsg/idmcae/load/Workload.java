@@ -0,0 +1,154 @@
+package ru.ctsg.idmcae.load;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.identityconnectors.framework.api.ConnectorFacade;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.AttributeDeltaBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+
+import ru.ctsg.idmcae.metrics.LatencyHistogram;
+
+/**
+ * The operation mix one harness thread runs through the ConnId facade. Operations are
+ * drawn from a seeded random stream per thread, so a run with the same seed, mix and
+ * thread count issues the same requests.
+ */
+final class Workload implements Runnable {
+
+    enum Operation {
+        CREATE, UPDATE, DELETE, SEARCH, SYNC
+    }
+
+    /**
+     * Measurements of one phase of the run; workers record into the whole-run and the
+     * current interval phase.
+     */
+    static final class Measurements {
+
+        final long startedAt = System.nanoTime();
+        final Map<Operation, LatencyHistogram> latency = new EnumMap<>(Operation.class);
+        final Map<Operation, LongAdder> errors = new EnumMap<>(Operation.class);
+
+        Measurements() {
+            for (Operation operation : Operation.values()) {
+                latency.put(operation, new LatencyHistogram());
+                errors.put(operation, new LongAdder());
+            }
+        }
+    }
+
+    private static final int ERRORS_SHOWN = 10;
+    private static final LongAdder ERRORS_PRINTED = new LongAdder();
+
+    private final ConnectorFacade facade;
+    private final LoadHarness.Options options;
+    private final int thread;
+    private final Operation[] draws;
+    private final Random random;
+    private final Deque<Uid> created = new ArrayDeque<>();
+    private final LoadHarness run;
+    private SyncToken token;
+    private long sequence;
+
+    Workload(ConnectorFacade facade, LoadHarness.Options options, int thread, LoadHarness run) {
+        this.facade = facade;
+        this.options = options;
+        this.thread = thread;
+        this.run = run;
+        this.draws = draws(options.mix);
+        this.random = new Random(options.seed * 31 + thread);
+    }
+
+    @Override
+    public void run() {
+        token = facade.getLatestSyncToken(ObjectClass.ACCOUNT);
+
+        while (!run.isStopped()) {
+            Operation operation = draws[random.nextInt(draws.length)];
+            if (operation == Operation.DELETE && created.isEmpty()) {
+                // only objects created by this thread are deleted, so the dataset stays intact
+                operation = Operation.CREATE;
+            }
+
+            long start = System.nanoTime();
+            boolean failed = false;
+            try {
+                execute(operation);
+            } catch (RuntimeException e) {
+                failed = true;
+                if (ERRORS_PRINTED.sum() < ERRORS_SHOWN) {
+                    ERRORS_PRINTED.increment();
+                    System.err.printf("%s failed: %s%n", operation, e);
+                }
+            }
+            run.record(operation, System.nanoTime() - start, failed);
+        }
+    }
+
+    private void execute(Operation operation) {
+        switch (operation) {
+            case CREATE:
+                String name = "load-" + options.seed + "-" + thread + "-" + ++sequence;
+                created.push(facade.create(ObjectClass.ACCOUNT, Set.of(
+                    new Name(name),
+                    AttributeBuilder.build("full_name", "Load " + name),
+                    AttributeBuilder.build("email", name + "@example.org")), null));
+                break;
+
+            case UPDATE:
+                facade.updateDelta(ObjectClass.ACCOUNT, new Uid(Long.toString(1 + random.nextInt(options.accounts))),
+                    Set.of(
+                        AttributeDeltaBuilder.build("full_name", "Updated " + ++sequence),
+                        AttributeDeltaBuilder.build("memberOf",
+                            List.of(DatasetGenerator.permissionUid(options.seed, 1 + random.nextInt(options.permissions))),
+                            null)),
+                    null);
+                break;
+
+            case DELETE:
+                facade.delete(ObjectClass.ACCOUNT, created.pop(), null);
+                break;
+
+            case SEARCH:
+                facade.search(ObjectClass.ACCOUNT,
+                    FilterBuilder.equalTo(new Name("user" + (1 + random.nextInt(options.accounts)))),
+                    connectorObject -> true, null);
+                break;
+
+            case SYNC:
+                SyncToken next = facade.sync(ObjectClass.ACCOUNT, token, delta -> true, null);
+                if (next != null) {
+                    token = next;
+                }
+                break;
+
+            default:
+                throw new IllegalStateException(operation.name());
+        }
+    }
+
+    // one slot per unit of weight
+    private static Operation[] draws(Map<Operation, Integer> mix) {
+        int total = mix.values().stream().mapToInt(Integer::intValue).sum();
+        Operation[] draws = new Operation[total];
+        int index = 0;
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            for (int i = 0; i < entry.getValue(); i++) {
+                draws[index++] = entry.getKey();
+            }
+        }
+        return draws;
+    }
+}
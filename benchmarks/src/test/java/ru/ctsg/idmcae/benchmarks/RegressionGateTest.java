@@ -0,0 +1,107 @@
+package ru.ctsg.idmcae.benchmarks;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+public class RegressionGateTest {
+
+    private static final String HEADER =
+        "\"Benchmark\",\"Mode\",\"Threads\",\"Samples\",\"Score\",\"Score Error (99.9%)\",\"Unit\",\"Param: size\"";
+
+    private static final String SEARCH = "ru.ctsg.idmcae.benchmarks.SearchBenchmark.search";
+
+    @Test
+    public void readsPrimaryScoresAndAllocationPerOperation() throws IOException {
+        Map<String, RegressionGate.Score> scores = RegressionGate.read(csv(
+            "\"" + SEARCH + "\",\"avgt\",1,5,1234.500000,12.3,\"ns/op\",100",
+            "\"" + SEARCH + ":gc.alloc.rate\",\"avgt\",1,5,100.5,1.0,\"MB/sec\",100",
+            "\"" + SEARCH + ":gc.alloc.rate.norm\",\"avgt\",1,5,512.0,0.1,\"B/op\",100",
+            "\"" + SEARCH + ":gc.count\",\"avgt\",1,5,3,NaN,\"counts\",100",
+            ""));
+
+        assertEquals(List.copyOf(scores.keySet()), List.of(
+            SEARCH + " [avgt, size=100]",
+            SEARCH + ":gc.alloc.rate.norm [avgt, size=100]"));
+        assertEquals(scores.get(SEARCH + " [avgt, size=100]").getValue(), 1234.5, 1e-9);
+        assertEquals(scores.get(SEARCH + " [avgt, size=100]").getUnit(), "ns/op");
+        assertEquals(scores.get(SEARCH + ":gc.alloc.rate.norm [avgt, size=100]").getUnit(), "B/op");
+    }
+
+    @Test
+    public void readsScoresWithDecimalCommasAndWithoutParameters() throws IOException {
+        Map<String, RegressionGate.Score> scores = RegressionGate.read(csv(
+            "\"" + SEARCH + "\",\"thrpt\",1,5,\"1234,5\",\"12,3\",\"ops/s\",",
+            "\"" + SEARCH + "\",\"avgt\",1,5,\"0,25\",\"0,01\",\"us/op\",10"));
+
+        assertEquals(scores.get(SEARCH + " [thrpt]").getValue(), 1234.5, 1e-9);
+        assertEquals(scores.get(SEARCH + " [avgt, size=10]").getValue(), 0.25, 1e-9);
+    }
+
+    @Test
+    public void slowerTimeIsARegression() {
+        assertEquals(compare(score(100, "ns/op"), score(111, "ns/op")), 1);
+        assertEquals(compare(score(100, "ns/op"), score(109, "ns/op")), 0);
+        assertEquals(compare(score(100, "ns/op"), score(50, "ns/op")), 0);
+    }
+
+    @Test
+    public void lowerThroughputIsARegression() {
+        assertEquals(compare(score(1000, "ops/s"), score(890, "ops/s")), 1);
+        assertEquals(compare(score(1000, "ops/s"), score(910, "ops/s")), 0);
+        assertEquals(compare(score(1000, "ops/s"), score(2000, "ops/s")), 0);
+    }
+
+    @Test
+    public void smallAllocationChangesAreNoise() {
+        assertEquals(compare(score(0, "B/op"), score(16, "B/op")), 0);
+        assertEquals(compare(score(0, "B/op"), score(24, "B/op")), 1);
+        assertEquals(compare(score(1000, "B/op"), score(1090, "B/op")), 0);
+        assertEquals(compare(score(1000, "B/op"), score(1200, "B/op")), 1);
+    }
+
+    @Test
+    public void missingAndNewBenchmarksDoNotFail() {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        int regressions = RegressionGate.compare(
+            Map.of("old", new RegressionGate.Score(1, "ns/op")), Map.of("new", new RegressionGate.Score(1, "ns/op")),
+            0.1, new PrintStream(output, true, StandardCharsets.UTF_8));
+
+        assertEquals(regressions, 0);
+        String printed = output.toString(StandardCharsets.UTF_8);
+        assertTrue(printed.contains("MISSING     old"), printed);
+        assertTrue(printed.contains("NEW         new"), printed);
+        assertFalse(printed.contains("REGRESSION"), printed);
+    }
+
+    private static Map<String, RegressionGate.Score> score(double value, String unit) {
+        return Map.of("benchmark", new RegressionGate.Score(value, unit));
+    }
+
+    private static int compare(Map<String, RegressionGate.Score> baseline, Map<String, RegressionGate.Score> current) {
+        return RegressionGate.compare(baseline, current, 0.10,
+            new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.UTF_8));
+    }
+
+    private static Path csv(String... rows) throws IOException {
+        Path file = Files.createTempFile("jmh", ".csv");
+        file.toFile().deleteOnExit();
+        StringBuilder content = new StringBuilder(HEADER).append('\n');
+        for (String row : rows) {
+            content.append(row).append('\n');
+        }
+        Files.writeString(file, content);
+        return file;
+    }
+}
@@ -31,6 +31,29 @@ public class ADLKConfiguration extends AbstractConfiguration implements Stateful
     private String jdbcDriver;
     private String jdbcUser;
     private GuardedString jdbcPassword;
+    private int fetchSize = 500;
+    private int syncBatchSize = 1000;
+    private long syncCommitLag = 1000;
+    private boolean syncDetectDeletes = false;
+    private int deleteDetectionRangeSize = 4096;
+    private boolean syncNotifications = false;
+    private int maxPoolSize = 10;
+    private int minIdle = 2;
+    private long connectionTimeout = 30000;
+    private long validationTimeout = 5000;
+    private long leakDetectionThreshold = 0;
+    private int prepareThreshold = 5;
+    private long healthCheckInterval = 30000;
+    private boolean groupCommit = false;
+    private long groupCommitWindow = 5;
+    private int groupCommitBatchSize = 100;
+    private long schemaCacheTtl = 300000;
+    private int objectCacheSize = 0;
+    private long objectCacheTtl = 30000;
+    private long permissionCatalogRefresh = 0;
+    private int parallelScanPartitions = 1;
+    private long syncHorizonMaxHold = 600000;
+    private long syncIdleTransactionTimeout = 60000;
 
     @Override
     public void release() {
@@ -56,6 +79,66 @@ public class ADLKConfiguration extends AbstractConfiguration implements Stateful
         if (jdbcPassword == null) {
             throw new IllegalArgumentException("Database password must not be null");
         }
+        if (fetchSize < 0) {
+            throw new IllegalArgumentException("Fetch size must not be negative");
+        }
+        if (syncBatchSize <= 0) {
+            throw new IllegalArgumentException("Sync batch size must be positive");
+        }
+        if (syncCommitLag < 0) {
+            throw new IllegalArgumentException("Sync commit lag must not be negative");
+        }
+        if (deleteDetectionRangeSize <= 0) {
+            throw new IllegalArgumentException("Delete detection range size must be positive");
+        }
+        if (maxPoolSize <= 0) {
+            throw new IllegalArgumentException("Max pool size must be positive");
+        }
+        if (minIdle < 0 || minIdle > maxPoolSize) {
+            throw new IllegalArgumentException("Min idle must be between 0 and the max pool size");
+        }
+        if (connectionTimeout < 250) {
+            throw new IllegalArgumentException("Connection timeout must be at least 250 ms");
+        }
+        if (validationTimeout < 250 || validationTimeout >= connectionTimeout) {
+            throw new IllegalArgumentException("Validation timeout must be at least 250 ms and below the connection timeout");
+        }
+        if (leakDetectionThreshold != 0 && leakDetectionThreshold < 2000) {
+            throw new IllegalArgumentException("Leak detection threshold must be 0 (off) or at least 2000 ms");
+        }
+        if (prepareThreshold < 0) {
+            throw new IllegalArgumentException("Prepare threshold must not be negative");
+        }
+        if (healthCheckInterval < 1000) {
+            throw new IllegalArgumentException("Health check interval must be at least 1000 ms");
+        }
+        if (groupCommitWindow < 0) {
+            throw new IllegalArgumentException("Group commit window must not be negative");
+        }
+        if (groupCommitBatchSize <= 0) {
+            throw new IllegalArgumentException("Group commit batch size must be positive");
+        }
+        if (schemaCacheTtl < 0) {
+            throw new IllegalArgumentException("Schema cache TTL must not be negative");
+        }
+        if (objectCacheSize < 0) {
+            throw new IllegalArgumentException("Object cache size must not be negative");
+        }
+        if (objectCacheTtl <= 0) {
+            throw new IllegalArgumentException("Object cache TTL must be positive");
+        }
+        if (permissionCatalogRefresh < 0) {
+            throw new IllegalArgumentException("Permission catalog refresh must not be negative");
+        }
+        if (parallelScanPartitions < 1 || parallelScanPartitions >= maxPoolSize) {
+            throw new IllegalArgumentException("Parallel scan partitions must be at least 1 and below the max pool size");
+        }
+        if (syncHorizonMaxHold < syncCommitLag) {
+            throw new IllegalArgumentException("Sync horizon max hold must not be below the sync commit lag");
+        }
+        if (syncIdleTransactionTimeout <= 0) {
+            throw new IllegalArgumentException("Sync idle transaction timeout must be positive");
+        }
     }
 
 
@@ -80,6 +163,213 @@ public class ADLKConfiguration extends AbstractConfiguration implements Stateful
         return jdbcPassword;
     }
 
+    @ConfigurationProperty(
+        order = 5,
+        displayMessageKey = "Fetch size",
+        helpMessageKey = "Rows fetched per round trip by searches and LiveSync through a server-side cursor. 0 reads whole result sets into memory"
+    )
+    public int getFetchSize() {
+        return fetchSize;
+    }
+
+    @ConfigurationProperty(
+        order = 6,
+        displayMessageKey = "Sync batch size",
+        helpMessageKey = "Maximum number of changes LiveSync reads per query; every change carries its own resumable token"
+    )
+    public int getSyncBatchSize() {
+        return syncBatchSize;
+    }
+
+    @ConfigurationProperty(
+        order = 7,
+        displayMessageKey = "Sync commit lag",
+        helpMessageKey = "Milliseconds a change must age, by the database clock, before LiveSync reports it, so that slower concurrent transactions with earlier timestamps are not skipped. Open transactions hold it back as well, those of other roles only when the connector's user has pg_read_all_stats"
+    )
+    public long getSyncCommitLag() {
+        return syncCommitLag;
+    }
+
+    @ConfigurationProperty(
+        order = 8,
+        displayMessageKey = "Detect deletes in LiveSync",
+        helpMessageKey = "Report rows removed from the database as DELETE deltas. The first sync of a task records a baseline of existing ids, kept per task in adlk_delete_detection when the connector may create it"
+    )
+    public boolean isSyncDetectDeletes() {
+        return syncDetectDeletes;
+    }
+
+    @ConfigurationProperty(
+        order = 9,
+        displayMessageKey = "Delete detection range size",
+        helpMessageKey = "Number of ids per range compared with the database by delete detection; only ranges that changed are reread"
+    )
+    public int getDeleteDetectionRangeSize() {
+        return deleteDetectionRangeSize;
+    }
+
+    @ConfigurationProperty(
+        order = 10,
+        displayMessageKey = "Sync on change notifications",
+        helpMessageKey = "Install NOTIFY triggers and keep a listening connection, so LiveSync returns at once when nothing changed and reports deletions as they happen"
+    )
+    public boolean isSyncNotifications() {
+        return syncNotifications;
+    }
+
+    @ConfigurationProperty(
+        order = 11,
+        displayMessageKey = "Max pool size",
+        helpMessageKey = "Maximum number of database connections, shared by all connector instances with the same database, credentials and pool settings"
+    )
+    public int getMaxPoolSize() {
+        return maxPoolSize;
+    }
+
+    @ConfigurationProperty(
+        order = 12,
+        displayMessageKey = "Min idle",
+        helpMessageKey = "Number of idle connections the pool keeps open"
+    )
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    @ConfigurationProperty(
+        order = 13,
+        displayMessageKey = "Connection timeout",
+        helpMessageKey = "Milliseconds an operation waits for a free connection before it fails"
+    )
+    public long getConnectionTimeout() {
+        return connectionTimeout;
+    }
+
+    @ConfigurationProperty(
+        order = 14,
+        displayMessageKey = "Validation timeout",
+        helpMessageKey = "Milliseconds allowed for checking that a connection is alive; must be below the connection timeout"
+    )
+    public long getValidationTimeout() {
+        return validationTimeout;
+    }
+
+    @ConfigurationProperty(
+        order = 15,
+        displayMessageKey = "Leak detection threshold",
+        helpMessageKey = "Milliseconds a connection may stay borrowed before a possible leak is logged. 0 turns the check off"
+    )
+    public long getLeakDetectionThreshold() {
+        return leakDetectionThreshold;
+    }
+
+    @ConfigurationProperty(
+        order = 16,
+        displayMessageKey = "Prepare threshold",
+        helpMessageKey = "Executions of a statement after which the PostgreSQL driver switches to a server-side prepared statement. 0 turns server-side preparing off"
+    )
+    public int getPrepareThreshold() {
+        return prepareThreshold;
+    }
+
+    @ConfigurationProperty(
+        order = 17,
+        displayMessageKey = "Health check interval",
+        helpMessageKey = "Milliseconds between background checks of the database; checkAlive reports the latest result"
+    )
+    public long getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+    @ConfigurationProperty(
+        order = 18,
+        displayMessageKey = "Group commit",
+        helpMessageKey = "Insert concurrently created accounts and permissions together, in one transaction per batch"
+    )
+    public boolean isGroupCommit() {
+        return groupCommit;
+    }
+
+    @ConfigurationProperty(
+        order = 19,
+        displayMessageKey = "Group commit window",
+        helpMessageKey = "Milliseconds the first create of a batch waits for others to join it"
+    )
+    public long getGroupCommitWindow() {
+        return groupCommitWindow;
+    }
+
+    @ConfigurationProperty(
+        order = 20,
+        displayMessageKey = "Group commit batch size",
+        helpMessageKey = "Maximum number of creates committed together; a full batch is written without waiting for the window to pass"
+    )
+    public int getGroupCommitBatchSize() {
+        return groupCommitBatchSize;
+    }
+
+    @ConfigurationProperty(
+        order = 21,
+        displayMessageKey = "Schema cache TTL",
+        helpMessageKey = "Milliseconds the introspected schema is used before the table definitions are checked for changes. 0 checks before every operation"
+    )
+    public long getSchemaCacheTtl() {
+        return schemaCacheTtl;
+    }
+
+    @ConfigurationProperty(
+        order = 22,
+        displayMessageKey = "Object cache size",
+        helpMessageKey = "Maximum number of objects kept for lookups by __UID__, least recently used first out. 0 disables the cache"
+    )
+    public int getObjectCacheSize() {
+        return objectCacheSize;
+    }
+
+    @ConfigurationProperty(
+        order = 23,
+        displayMessageKey = "Object cache TTL",
+        helpMessageKey = "Milliseconds a cached object is served; bounds how long changes made outside the connector stay unseen when LiveSync does not run"
+    )
+    public long getObjectCacheTtl() {
+        return objectCacheTtl;
+    }
+
+    @ConfigurationProperty(
+        order = 24,
+        displayMessageKey = "Permission catalog refresh",
+        helpMessageKey = "Milliseconds between incremental refreshes of the in-memory permission catalog, which then answers permission listings and lookups by uid or code. 0 disables the catalog"
+    )
+    public long getPermissionCatalogRefresh() {
+        return permissionCatalogRefresh;
+    }
+
+    @ConfigurationProperty(
+        order = 25,
+        displayMessageKey = "Parallel scan partitions",
+        helpMessageKey = "Key ranges a full account search is split into and read concurrently, each on its own pooled connection, on one database snapshot. Concurrent scans share half the pool; a scan that finds fewer than two connections free reads sequentially. 1 always reads sequentially"
+    )
+    public int getParallelScanPartitions() {
+        return parallelScanPartitions;
+    }
+
+    @ConfigurationProperty(
+        order = 26,
+        displayMessageKey = "Sync horizon max hold",
+        helpMessageKey = "Milliseconds, by the database clock, open transactions may hold LiveSync back at most. Changes a transaction commits after it has been open longer can be skipped"
+    )
+    public long getSyncHorizonMaxHold() {
+        return syncHorizonMaxHold;
+    }
+
+    @ConfigurationProperty(
+        order = 27,
+        displayMessageKey = "Sync idle transaction timeout",
+        helpMessageKey = "Milliseconds after which a session idle in transaction no longer holds LiveSync back"
+    )
+    public long getSyncIdleTransactionTimeout() {
+        return syncIdleTransactionTimeout;
+    }
+
 
     //Setters
     public void setJdbcUrl(String jdbcUrl) {
@@ -94,4 +384,73 @@ public class ADLKConfiguration extends AbstractConfiguration implements Stateful
     public void setJdbcPassword(GuardedString jdbcPassword) {
         this.jdbcPassword = jdbcPassword;
     }
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+    public void setSyncBatchSize(int syncBatchSize) {
+        this.syncBatchSize = syncBatchSize;
+    }
+    public void setSyncCommitLag(long syncCommitLag) {
+        this.syncCommitLag = syncCommitLag;
+    }
+    public void setSyncDetectDeletes(boolean syncDetectDeletes) {
+        this.syncDetectDeletes = syncDetectDeletes;
+    }
+    public void setDeleteDetectionRangeSize(int deleteDetectionRangeSize) {
+        this.deleteDetectionRangeSize = deleteDetectionRangeSize;
+    }
+    public void setSyncNotifications(boolean syncNotifications) {
+        this.syncNotifications = syncNotifications;
+    }
+    public void setMaxPoolSize(int maxPoolSize) {
+        this.maxPoolSize = maxPoolSize;
+    }
+    public void setMinIdle(int minIdle) {
+        this.minIdle = minIdle;
+    }
+    public void setConnectionTimeout(long connectionTimeout) {
+        this.connectionTimeout = connectionTimeout;
+    }
+    public void setValidationTimeout(long validationTimeout) {
+        this.validationTimeout = validationTimeout;
+    }
+    public void setLeakDetectionThreshold(long leakDetectionThreshold) {
+        this.leakDetectionThreshold = leakDetectionThreshold;
+    }
+    public void setPrepareThreshold(int prepareThreshold) {
+        this.prepareThreshold = prepareThreshold;
+    }
+    public void setHealthCheckInterval(long healthCheckInterval) {
+        this.healthCheckInterval = healthCheckInterval;
+    }
+    public void setGroupCommit(boolean groupCommit) {
+        this.groupCommit = groupCommit;
+    }
+    public void setGroupCommitWindow(long groupCommitWindow) {
+        this.groupCommitWindow = groupCommitWindow;
+    }
+    public void setGroupCommitBatchSize(int groupCommitBatchSize) {
+        this.groupCommitBatchSize = groupCommitBatchSize;
+    }
+    public void setSchemaCacheTtl(long schemaCacheTtl) {
+        this.schemaCacheTtl = schemaCacheTtl;
+    }
+    public void setObjectCacheSize(int objectCacheSize) {
+        this.objectCacheSize = objectCacheSize;
+    }
+    public void setObjectCacheTtl(long objectCacheTtl) {
+        this.objectCacheTtl = objectCacheTtl;
+    }
+    public void setPermissionCatalogRefresh(long permissionCatalogRefresh) {
+        this.permissionCatalogRefresh = permissionCatalogRefresh;
+    }
+    public void setParallelScanPartitions(int parallelScanPartitions) {
+        this.parallelScanPartitions = parallelScanPartitions;
+    }
+    public void setSyncHorizonMaxHold(long syncHorizonMaxHold) {
+        this.syncHorizonMaxHold = syncHorizonMaxHold;
+    }
+    public void setSyncIdleTransactionTimeout(long syncIdleTransactionTimeout) {
+        this.syncIdleTransactionTimeout = syncIdleTransactionTimeout;
+    }
 }
\ No newline at end of file
@@ -17,80 +17,137 @@
 package ru.ctsg.idmcae;
 
 import java.sql.Connection;
+import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 
 import org.identityconnectors.common.logging.Log;
-import org.identityconnectors.common.security.GuardedString;
 import org.identityconnectors.framework.common.exceptions.ConnectionFailedException;
+import org.identityconnectors.framework.common.objects.ObjectClass;
 
-import com.evolveum.polygon.common.GuardedStringAccessor;
-import com.zaxxer.hikari.HikariConfig;
-import com.zaxxer.hikari.HikariDataSource;
+import ru.ctsg.idmcae.builders.SchemaDefinition;
+import ru.ctsg.idmcae.metrics.ConnectorMetrics;
+import ru.ctsg.idmcae.sync.ChangeListener;
+import ru.ctsg.idmcae.sync.DeleteDetectors;
 
 public class ADLKConnection {
 
     private static final Log LOG = Log.getLog(ADLKConnection.class);
 
+    private static final String SYNC_PRIVILEGES =
+        "SELECT rolsuper OR pg_has_role(current_user, 'pg_read_all_stats', 'USAGE') FROM pg_roles WHERE rolname = current_user";
+
     private ADLKConfiguration configuration;
-    private HikariDataSource dataSource;
+    private ConnectionPools.SharedPool pool;
 
     public ADLKConnection(ADLKConfiguration configuration) {
         LOG.info("Initializing GOK connector configuration"); // Здесь возможно исключение если VPN не подключен
         
         this.configuration = configuration;
+        this.pool = ConnectionPools.acquire(configuration);
+    }
 
-        HikariConfig config = new HikariConfig();
-        config.setJdbcUrl(this.configuration.getJdbcUrl());
-        config.setDriverClassName(this.configuration.getJdbcDriver());
-        config.setUsername(this.configuration.getJdbcUser());
-
-        GuardedString clientPassword = configuration.getJdbcPassword();
-        GuardedStringAccessor passwordAccessor = new GuardedStringAccessor();
-        clientPassword.access(passwordAccessor);
+    /**
+     * Opens the connection scope of one operation on {@code objectClass}; close it when
+     * the operation ends.
+     */
+    public ConnectionScope open(String operation, ObjectClass objectClass) {
+        ConnectionPools.SharedPool pool = pool();
+        ConnectorMetrics metrics = pool.getMetrics();
+        return new ConnectionScope(pool.getDataSource(), operation,
+            metrics.operation(operation, objectClass), metrics.pool(),
+            pool.getGroupCommits(), pool.getParallelScans());
+    }
 
-        config.setPassword(passwordAccessor.getClearString());
+    /**
+     * The latest background health check of the pool.
+     */
+    public HealthStatus health() {
+        return pool().getHealthMonitor().current();
+    }
 
-        this.dataSource = new HikariDataSource(config);
+    /**
+     * Objects read by Uid, shared by all connector instances on the pool.
+     */
+    ObjectCache objects() {
+        return pool().getObjectCache();
     }
 
-    public Connection getConnection() {
-    try {
-        LOG.ok("Trying to connect to database...");
+    /**
+     * Permissions in memory, shared by all connector instances on the pool.
+     */
+    PermissionCatalog permissions() {
+        return pool().getPermissionCatalog();
+    }
 
-        return this.dataSource.getConnection();
+    /**
+     * The change listener of the pool, null unless LiveSync runs on notifications.
+     */
+    ChangeListener changes() {
+        return this.configuration.isSyncNotifications() ? pool().getChangeListener() : null;
+    }
 
-    } catch (SQLException e) {
-        throw new ConnectionFailedException(
-            "Database connection could not be established by the GOK connector: " 
-            + e.getLocalizedMessage()
-        );
+    /**
+     * The delete detectors of the pool's LiveSync consumers.
+     */
+    DeleteDetectors deleteDetectors() {
+        return pool().getDeleteDetectors();
     }
+
+    /**
+     * The schema of the pool's database, introspected once and shared by all
+     * connector instances on the pool.
+     */
+    public SchemaDefinition schema() {
+        return pool().getSchemaCache().get();
     }
 
     public void test() {
-        Connection connections = getConnection();
-
-        try {
-            Statement statement = connections.createStatement();
-            statement.executeQuery("SELECT 1");
-            LOG.ok("Tест подключению к БД пройден");
-        } catch(SQLException error) {
+        HealthStatus status = pool().getHealthMonitor().check();
+        if (!status.isHealthy()) {
             throw new ConnectionFailedException(
-                "Подключится к БД не получилось:" + error
+                "Подключится к БД не получилось:" + status.getError()
             );
-        } finally {
-            if (connections !=null){
-                try{
-                    connections.close();
-                } catch(SQLException error) {
-                    LOG.warn(error, "Не получилось закрыть подключение"); 
-                }
+        }
+        LOG.ok("Tест подключению к БД пройден: {0}", status);
+
+        checkSyncPrivileges();
+
+        // a test is often run right after a schema change
+        pool().getSchemaCache().invalidate();
+    }
+
+    /*
+     * LiveSync holds its horizon back for open transactions of any role, which only
+     * a superuser or a member of pg_read_all_stats sees in pg_stat_activity. Without
+     * the role searches and provisioning work, so this only warns.
+     */
+    private void checkSyncPrivileges() {
+        try (Connection connection = pool().getDataSource().getConnection();
+            Statement statement = connection.createStatement();
+            ResultSet resultSet = statement.executeQuery(SYNC_PRIVILEGES)) {
+
+            resultSet.next();
+            if (!resultSet.getBoolean(1)) {
+                LOG.warn("User {0} cannot see the transactions of other roles, so LiveSync could skip their changes;"
+                    + " GRANT pg_read_all_stats TO {0}", this.configuration.getJdbcUser());
             }
+        } catch (SQLException e) {
+            LOG.warn(e, "Failed to check the privileges of user {0}", this.configuration.getJdbcUser());
         }
     }
 
+    private ConnectionPools.SharedPool pool() {
+        if (this.pool == null) {
+            throw new ConnectionFailedException("Connection pool of the GOK connector has been released");
+        }
+        return this.pool;
+    }
+
     public void dispose() {
-        this.dataSource.close();
+        if (this.pool != null) {
+            this.pool.release();
+            this.pool = null;
+        }
     }
 }
\ No newline at end of file
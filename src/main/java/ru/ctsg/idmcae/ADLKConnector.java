@@ -16,48 +16,57 @@
 
 package ru.ctsg.idmcae;
 
-import java.sql.SQLException;
-
-import java.util.List;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.Set;
 
-import org.identityconnectors.common.CollectionUtil;
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.exceptions.ConnectionFailedException;
 import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
 import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeDelta;
+import org.identityconnectors.framework.common.objects.AttributeDeltaBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.ResultsHandler;
 import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.objects.SearchResult;
 import org.identityconnectors.framework.common.objects.SyncResultsHandler;
 import org.identityconnectors.framework.common.objects.SyncToken;
 import org.identityconnectors.framework.common.objects.Uid;
-import org.identityconnectors.framework.common.objects.filter.Filter;
 import org.identityconnectors.framework.common.objects.filter.FilterTranslator;
 import org.identityconnectors.framework.spi.Configuration;
 import org.identityconnectors.framework.spi.ConnectorClass;
 import org.identityconnectors.framework.spi.PoolableConnector;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
 import org.identityconnectors.framework.spi.operations.CreateOp;
 import org.identityconnectors.framework.spi.operations.DeleteOp;
 import org.identityconnectors.framework.spi.operations.SchemaOp;
 import org.identityconnectors.framework.spi.operations.SearchOp;
 import org.identityconnectors.framework.spi.operations.SyncOp;
 import org.identityconnectors.framework.spi.operations.TestOp;
-import org.identityconnectors.framework.spi.operations.UpdateOp;
+import org.identityconnectors.framework.spi.operations.UpdateAttributeValuesOp;
+import org.identityconnectors.framework.spi.operations.UpdateDeltaOp;
 
 import ru.ctsg.idmcae.builders.LiveSync;
-import ru.ctsg.idmcae.builders.SchemaDefinitionBuilder;
+import ru.ctsg.idmcae.builders.SchemaDefinition;
 import ru.ctsg.idmcae.processing.AccountProcessing;
 import ru.ctsg.idmcae.processing.PermissionProcessing;
+import ru.ctsg.idmcae.query.Paging;
+import ru.ctsg.idmcae.query.Projection;
+import ru.ctsg.idmcae.query.SqlFilter;
+import ru.ctsg.idmcae.query.SqlFilterTranslator;
+import ru.ctsg.idmcae.query.TableMapping;
 
 @ConnectorClass(displayNameKey = "adlk.connector.display", configurationClass = ADLKConfiguration.class)
 public class ADLKConnector implements PoolableConnector, 
     SchemaOp, 
     TestOp, 
     CreateOp, 
-    SearchOp<Filter>, 
-    UpdateOp, 
+    SearchOp<SqlFilter>, 
+    UpdateAttributeValuesOp, 
+    UpdateDeltaOp, 
     DeleteOp, 
     SyncOp {
 
@@ -66,6 +75,8 @@ public class ADLKConnector implements PoolableConnector,
     private ADLKConfiguration configuration;
     private ADLKConnection connection;
     private LiveSync liveSync;
+    private AccountProcessing accountProcessing;
+    private PermissionProcessing permissionProcessing;
 
     @Override
     public Configuration getConfiguration() {
@@ -76,24 +87,40 @@ public class ADLKConnector implements PoolableConnector,
     public void init(Configuration configuration) {
         this.configuration = (ADLKConfiguration)configuration;
         this.connection = new ADLKConnection(this.configuration);
-        this.liveSync = new LiveSync();
+        this.liveSync = new LiveSync(this.configuration);
     }
 
     @Override
     public Schema schema(){
-        return new SchemaDefinitionBuilder().buildSchema();
+        return connection.schema().getSchema();
+    }
+
+    // rebuilt when the introspected schema changes, together with its statements
+    private AccountProcessing accountProcessing() {
+        SchemaDefinition definition = connection.schema();
+        if (accountProcessing == null || accountProcessing.getDefinition() != definition) {
+            accountProcessing = new AccountProcessing(configuration, definition);
+        }
+        return accountProcessing;
+    }
+
+    private PermissionProcessing permissionProcessing() {
+        SchemaDefinition definition = connection.schema();
+        if (permissionProcessing == null || permissionProcessing.getDefinition() != definition) {
+            permissionProcessing = new PermissionProcessing(configuration, definition);
+        }
+        return permissionProcessing;
     }
 
     @Override
     public void checkAlive() {
-        try {
-            if (connection != null && !connection.getConnection().isClosed()) {
-                return;
-            } else {
-                throw new ConnectionFailedException("Instance of connection does not exist");
-            }
-        } catch (SQLException e) {
-            throw new ConnectionFailedException("An exception occurred during check-alive. ", e);
+        if (connection == null) {
+            throw new ConnectionFailedException("Instance of connection does not exist");
+        }
+
+        HealthStatus status = connection.health();
+        if (!status.isHealthy()) {
+            throw new ConnectionFailedException("An exception occurred during check-alive: " + status.getError());
         }
     }
 
@@ -119,13 +146,17 @@ public class ADLKConnector implements PoolableConnector,
 
         if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
             LOG.info("Creating account...");
-            AccountProcessing accountProcessing = new AccountProcessing();
-            return accountProcessing.createAccount(createAttributes, connection.getConnection());
+            try (ConnectionScope scope = connection.open("create", objectClass)) {
+                return scope.complete(accountProcessing().createAccount(createAttributes, scope));
+            }
 
         } else if (objectClass.is("Permission")) {
             LOG.info("Creating permission...");
-            PermissionProcessing permissionProcessing = new PermissionProcessing();
-            return permissionProcessing.createPermission(createAttributes, connection.getConnection());
+            try (ConnectionScope scope = connection.open("create", objectClass)) {
+                return scope.complete(permissionProcessing().createPermission(createAttributes, scope));
+            } finally {
+                connection.permissions().refreshAfterWrite(connection.schema());
+            }
 
         } else {
             throw new IllegalArgumentException(
@@ -135,29 +166,28 @@ public class ADLKConnector implements PoolableConnector,
     }
 
     @Override
-    public FilterTranslator<Filter> createFilterTranslator(
+    public FilterTranslator<SqlFilter> createFilterTranslator(
         ObjectClass objectClass, 
         OperationOptions options) {
 
-        return new FilterTranslator<Filter>() {
-            @Override
-            public List<Filter> translate(Filter filter) {
-                return CollectionUtil.newList(filter);
-            }
-        };
+        if (objectClass == null) {
+            throw new IllegalArgumentException("Object class attribute can no be null");
+        }
+
+        return new SqlFilterTranslator(connection.schema().table(TableMapping.forObjectClass(objectClass)));
     }
 
     @Override
     public void executeQuery(
         ObjectClass objectClass, 
-        Filter filter, 
+        SqlFilter query, 
         ResultsHandler resultsHandler, 
         OperationOptions operationOptions) {
 
         LOG.info("Processing through the executeQuery operation using the object class: {0}", objectClass);
         LOG.ok("The filter(s) used for the execute query operation:{0} ", 
-            filter == null ? 
-            "Empty filter, fetching all objects of the object type." : filter);
+            query == null ? 
+            "Empty filter, fetching all objects of the object type." : query);
         LOG.ok("Evaluating executeQuery with the following operation options: {0}", 
             operationOptions == null ? 
             "empty operation options." : operationOptions);
@@ -172,17 +202,90 @@ public class ADLKConnector implements PoolableConnector,
                 "Attribute of type ResultsHandler is not provided.");
         }
 
+        TableMapping table = TableMapping.forObjectClass(objectClass);
+        Projection projection = Projection.of(connection.schema().table(table), operationOptions);
+        SearchResult searchResult = null;
+
+        try (ConnectionScope scope = connection.open("executeQuery", objectClass)) {
+            ResultsHandler handler = scope.meter(resultsHandler);
+            Object uid = cacheableUid(table, query, projection, operationOptions);
+            searchResult = searchCatalog(table, query, projection, handler, operationOptions);
+            if (searchResult != null) {
+                LOG.ok("Answered the search from the permission catalog");
+            } else if (uid != null) {
+                ConnectorObject object = connection.objects().get(table, uid.toString(), projection.getSelectList(),
+                    () -> {
+                        ConnectorObject[] found = new ConnectorObject[1];
+                        search(objectClass, query, projection, connectorObject -> {
+                            found[0] = connectorObject;
+                            return false;
+                        }, operationOptions, scope);
+                        return found[0];
+                    });
+                if (object != null) {
+                    handler.handle(object);
+                }
+                searchResult = new SearchResult(null, 0);
+            } else {
+                searchResult = search(objectClass, query, projection, handler, operationOptions, scope);
+            }
+            scope.complete();
+        }
+
+        if (searchResult != null && resultsHandler instanceof SearchResultsHandler) {
+            ((SearchResultsHandler) resultsHandler).handleResult(searchResult);
+        }
+
+        LOG.ok("Finished evaluating the execute query operation.");
+    }
+
+    private SearchResult search(
+        ObjectClass objectClass,
+        SqlFilter query,
+        Projection projection,
+        ResultsHandler handler,
+        OperationOptions operationOptions,
+        ConnectionScope scope) {
+
         if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
-            AccountProcessing accountProcessing = new AccountProcessing();
-            accountProcessing.executeQuery(filter, resultsHandler, operationOptions, connection.getConnection());
+            return accountProcessing().executeQuery(query, projection, handler, operationOptions, scope);
         }
 
         if (objectClass.is("Permission")) {
-            PermissionProcessing permissionProcessing = new PermissionProcessing();
-            permissionProcessing.executeQuery(filter, resultsHandler, operationOptions, connection.getConnection());
+            return permissionProcessing().executeQuery(query, projection, handler, operationOptions, scope.getConnection());
         }
+        return null;
+    }
 
-        LOG.ok("Finished evaluating the execute query operation.");
+    /*
+     * Unpaged lookups by __UID__ without memberships may be served by the object cache;
+     * memberships change with objects on the other side and are always read.
+     */
+    private Object cacheableUid(TableMapping table, SqlFilter query, Projection projection, OperationOptions options) {
+        if (query == null || !connection.objects().isEnabled() || projection.includesMembership()
+            || Paging.from(options).isPaged()) {
+            return null;
+        }
+        return query.equalityValue(table.getKeyColumn());
+    }
+
+    /*
+     * Permission listings and lookups by uid or code are answered by the permission
+     * catalog when it is enabled and the search asks for the default attributes;
+     * null when the search must read the database.
+     */
+    private SearchResult searchCatalog(
+        TableMapping table,
+        SqlFilter query,
+        Projection projection,
+        ResultsHandler handler,
+        OperationOptions options) {
+
+        if (table != TableMapping.PERMISSION || !connection.permissions().isEnabled()
+            || !PermissionCatalog.answers(query)) {
+            return null;
+        }
+        return connection.permissions().search(connection.schema(), query, projection, options, handler);
     }
 
     @Override
@@ -200,22 +303,116 @@ public class ADLKConnector implements PoolableConnector,
             operationOptions == null ? 
             "empty operation options." : operationOptions);
 
+        if (updateAttributes == null || updateAttributes.isEmpty()) {
+            throw new IllegalArgumentException("Invalid update attributes.");
+        }
+
+        Set<AttributeDelta> deltas = new HashSet<>();
+        for (Attribute attribute : updateAttributes) {
+            deltas.add(AttributeDeltaBuilder.build(attribute.getName(),
+                attribute.getValue() == null ? Collections.emptyList() : attribute.getValue()));
+        }
+        return applyDeltas(objectClass, uid, deltas);
+    }
+
+    @Override
+    public Uid addAttributeValues(
+        ObjectClass objectClass,
+        Uid uid,
+        Set<Attribute> valuesToAdd,
+        OperationOptions operationOptions) {
+
+        LOG.info("Adding attribute values to {0} {1}: {2}", objectClass, uid, valuesToAdd);
+
+        if (valuesToAdd == null || valuesToAdd.isEmpty()) {
+            throw new IllegalArgumentException("Invalid update attributes.");
+        }
+
+        Set<AttributeDelta> deltas = new HashSet<>();
+        for (Attribute attribute : valuesToAdd) {
+            deltas.add(AttributeDeltaBuilder.build(attribute.getName(), attribute.getValue(), null));
+        }
+        return applyDeltas(objectClass, uid, deltas);
+    }
+
+    @Override
+    public Uid removeAttributeValues(
+        ObjectClass objectClass,
+        Uid uid,
+        Set<Attribute> valuesToRemove,
+        OperationOptions operationOptions) {
+
+        LOG.info("Removing attribute values from {0} {1}: {2}", objectClass, uid, valuesToRemove);
+
+        if (valuesToRemove == null || valuesToRemove.isEmpty()) {
+            throw new IllegalArgumentException("Invalid update attributes.");
+        }
+
+        Set<AttributeDelta> deltas = new HashSet<>();
+        for (Attribute attribute : valuesToRemove) {
+            deltas.add(AttributeDeltaBuilder.build(attribute.getName(), null, attribute.getValue()));
+        }
+        return applyDeltas(objectClass, uid, deltas);
+    }
+
+    @Override
+    public Set<AttributeDelta> updateDelta(
+        ObjectClass objectClass,
+        Uid uid,
+        Set<AttributeDelta> modifications,
+        OperationOptions operationOptions) {
+
+        LOG.info("Processing through the UPDATE DELTA operation using the object class: {0}", objectClass);
+        LOG.ok("The attribute delta(s) used for the UPDATE DELTA operation:{0} ", modifications);
+
+        if (modifications == null || modifications.isEmpty()) {
+            throw new IllegalArgumentException("Invalid update attributes.");
+        }
+
+        applyDeltas(objectClass, uid, modifications);
+        return Collections.emptySet();
+    }
+
+    private Uid applyDeltas(ObjectClass objectClass, Uid uid, Set<AttributeDelta> deltas) {
         if (objectClass == null) {
             throw new IllegalArgumentException("Object class attribute can no be null.");
         }
 
-        if (updateAttributes == null || updateAttributes.isEmpty()) {
-            throw new IllegalArgumentException("Invalid update attributes.");
+        if (uid == null) {
+            throw new IllegalArgumentException("Invalid UID value.");
         }
 
-        if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
-            LOG.ok("Updating account...");
-            AccountProcessing accountProcessing = new AccountProcessing();
-            return accountProcessing.updateAccount(uid, updateAttributes, connection.getConnection());
-        } else {
-            throw new IllegalArgumentException(
-                "Unsupported object class: " + objectClass.getClass().getName()
-            );
+        TableMapping table = TableMapping.forObjectClass(objectClass);
+        try (ConnectionScope scope = connection.open("update", objectClass)) {
+            if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
+                LOG.ok("Updating account...");
+                return scope.complete(accountProcessing().updateAccount(uid, deltas, scope));
+
+            } else if (objectClass.is("Permission")) {
+                LOG.ok("Updating permission...");
+                return scope.complete(permissionProcessing().updatePermission(uid, deltas, scope));
+
+            } else {
+                throw new IllegalArgumentException(
+                    "Unsupported object class: " + objectClass.getClass().getName()
+                );
+            }
+        } finally {
+            // after the commit, so that no read started before it can cache the old state
+            connection.objects().invalidate(table, uid.getUidValue());
+            if (table == TableMapping.PERMISSION) {
+                connection.permissions().refreshAfterWrite(connection.schema());
+            }
+            for (AttributeDelta delta : deltas) {
+                if (table.isMembershipAttribute(delta.getName())) {
+                    // the objects on the other side were stamped as modified
+                    connection.objects().invalidateAll(table.getMembershipCounterpart());
+                    if (table.getMembershipCounterpart() == TableMapping.PERMISSION) {
+                        connection.permissions().expire();
+                    }
+                    break;
+                }
+            }
         }
     }
 
@@ -240,13 +437,22 @@ public class ADLKConnector implements PoolableConnector,
 
         if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
             LOG.ok("Updating account...");
-            AccountProcessing accountProcessing = new AccountProcessing();
-            accountProcessing.deleteAccount(uid, connection.getConnection());
+            try (ConnectionScope scope = connection.open("delete", objectClass)) {
+                accountProcessing().deleteAccount(uid, scope.getConnection());
+                scope.complete();
+            } finally {
+                connection.objects().invalidate(TableMapping.ACCOUNT, uid.getUidValue());
+            }
 
         } else if (objectClass.is("Permission")) {
             LOG.ok("Updating permission...");
-            PermissionProcessing permissionProcessing = new PermissionProcessing();
-            permissionProcessing.deletePermission(uid, connection.getConnection());
+            try (ConnectionScope scope = connection.open("delete", objectClass)) {
+                permissionProcessing().deletePermission(uid, scope.getConnection());
+                scope.complete();
+            } finally {
+                connection.objects().invalidate(TableMapping.PERMISSION, uid.getUidValue());
+                connection.permissions().refreshAfterWrite(connection.schema());
+            }
 
         } else {
             throw new IllegalArgumentException(
@@ -257,12 +463,18 @@ public class ADLKConnector implements PoolableConnector,
 
     @Override
     public void sync(ObjectClass objectClass, SyncToken token, SyncResultsHandler handler, OperationOptions options) {
-        liveSync.sync(objectClass, token, handler, options, connection.getConnection());
+        try (ConnectionScope scope = connection.open("sync", objectClass)) {
+            liveSync.sync(objectClass, token, scope.meter(connection.objects().invalidating(objectClass, handler)),
+                options, connection.schema(), connection.changes(), connection.deleteDetectors(), scope);
+            scope.complete();
+        }
     }
 
     @Override
     public SyncToken getLatestSyncToken(ObjectClass objectClass) {
-        return liveSync.getLatestSyncToken(objectClass, connection.getConnection());
+        try (ConnectionScope scope = connection.open("getLatestSyncToken", objectClass)) {
+            return scope.complete(liveSync.getLatestSyncToken(objectClass, scope.getConnection()));
+        }
     }
 
 
@@ -273,7 +485,6 @@ public class ADLKConnector implements PoolableConnector,
 
         configuration.validate();
         connection.test();
-        connection.dispose();
 
         LOG.ok("Test OK");
     }
@@ -281,6 +492,8 @@ public class ADLKConnector implements PoolableConnector,
     @Override
     public void dispose() {
         configuration = null;
+        accountProcessing = null;
+        permissionProcessing = null;
         if (connection != null) {
             connection.dispose();
             connection = null;
@@ -0,0 +1,287 @@
+package ru.ctsg.idmcae;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.common.security.GuardedString;
+
+import com.evolveum.polygon.common.GuardedStringAccessor;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import ru.ctsg.idmcae.metrics.ConnectorMetrics;
+import ru.ctsg.idmcae.processing.GroupCommits;
+import ru.ctsg.idmcae.processing.ParallelScans;
+import ru.ctsg.idmcae.sync.ChangeListener;
+import ru.ctsg.idmcae.sync.DeleteDetectors;
+
+/**
+ * Process-wide registry of Hikari pools. Connector instances with the same database,
+ * credentials, pool settings and settings of the pool's components share one pool; it
+ * is closed when the last of them is disposed. Each pool has a {@link HealthMonitor},
+ * a {@link SchemaCache}, an {@link ObjectCache} and a {@link PermissionCatalog},
+ * {@link ConnectorMetrics} registered over JMX, its {@link GroupCommits} and
+ * {@link ParallelScans}, the {@link DeleteDetectors} of its LiveSync consumers, and a
+ * {@link ChangeListener} started by the first instance that syncs on notifications.
+ */
+final class ConnectionPools {
+
+    private static final Log LOG = Log.getLog(ConnectionPools.class);
+
+    private static final Map<PoolKey, SharedPool> POOLS = new HashMap<>();
+    private static final byte[] SALT = salt();
+    private static int poolCounter;
+
+    private ConnectionPools() {
+    }
+
+    static synchronized SharedPool acquire(ADLKConfiguration configuration) {
+        String password = password(configuration.getJdbcPassword());
+        PoolKey key = new PoolKey(configuration, digest(password));
+
+        SharedPool pool = POOLS.get(key);
+        if (pool == null) {
+            HikariDataSource dataSource = new HikariDataSource(hikariConfig(key, password));
+            HealthMonitor healthMonitor = null;
+            try {
+                healthMonitor = new HealthMonitor(dataSource, configuration.getHealthCheckInterval());
+                pool = new SharedPool(key, dataSource, healthMonitor,
+                    new SchemaCache(dataSource, configuration.getSchemaCacheTtl()),
+                    new ObjectCache(configuration.getObjectCacheSize(), configuration.getObjectCacheTtl()),
+                    new PermissionCatalog(dataSource, configuration),
+                    new ConnectorMetrics(dataSource.getPoolName(), dataSource));
+            } catch (RuntimeException | Error e) {
+                // nothing holds the pool yet, so nothing else would close it
+                if (healthMonitor != null) {
+                    healthMonitor.stop();
+                }
+                dataSource.close();
+                throw e;
+            }
+            POOLS.put(key, pool);
+            LOG.info("Created connection pool {0} for {1}", pool.dataSource.getPoolName(), key);
+        }
+        pool.references++;
+        return pool;
+    }
+
+    private static HikariConfig hikariConfig(PoolKey key, String password) {
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("ADLK-" + ++poolCounter);
+        config.setJdbcUrl(key.jdbcUrl);
+        config.setDriverClassName(key.jdbcDriver);
+        config.setUsername(key.jdbcUser);
+        config.setPassword(password);
+        config.setMaximumPoolSize(key.maxPoolSize);
+        config.setMinimumIdle(key.minIdle);
+        config.setConnectionTimeout(key.connectionTimeout);
+        config.setValidationTimeout(key.validationTimeout);
+        config.setLeakDetectionThreshold(key.leakDetectionThreshold);
+        config.setRegisterMbeans(true);
+        config.addDataSourceProperty("prepareThreshold", key.prepareThreshold);
+        return config;
+    }
+
+    private static String password(GuardedString guardedPassword) {
+        GuardedStringAccessor passwordAccessor = new GuardedStringAccessor();
+        guardedPassword.access(passwordAccessor);
+        return passwordAccessor.getClearString();
+    }
+
+    private static byte[] salt() {
+        byte[] salt = new byte[16];
+        new SecureRandom().nextBytes(salt);
+        return salt;
+    }
+
+    // salted per process, so the registry holds nothing that could be checked against a guess elsewhere
+    private static byte[] digest(String password) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update(SALT);
+            return digest.digest(password.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    static final class SharedPool {
+
+        private final PoolKey key;
+        private final HikariDataSource dataSource;
+        private final HealthMonitor healthMonitor;
+        private final SchemaCache schemaCache;
+        private final ObjectCache objectCache;
+        private final PermissionCatalog permissionCatalog;
+        private final ConnectorMetrics metrics;
+        private final GroupCommits groupCommits = new GroupCommits();
+        private final ParallelScans parallelScans;
+        private final DeleteDetectors deleteDetectors = new DeleteDetectors();
+        private ChangeListener changeListener;
+        private int references;
+
+        private SharedPool(PoolKey key, HikariDataSource dataSource, HealthMonitor healthMonitor,
+            SchemaCache schemaCache, ObjectCache objectCache, PermissionCatalog permissionCatalog,
+            ConnectorMetrics metrics) {
+
+            this.key = key;
+            this.dataSource = dataSource;
+            this.healthMonitor = healthMonitor;
+            this.schemaCache = schemaCache;
+            this.objectCache = objectCache;
+            this.permissionCatalog = permissionCatalog;
+            this.metrics = metrics;
+            this.parallelScans = new ParallelScans(key.maxPoolSize);
+        }
+
+        HikariDataSource getDataSource() {
+            return dataSource;
+        }
+
+        HealthMonitor getHealthMonitor() {
+            return healthMonitor;
+        }
+
+        SchemaCache getSchemaCache() {
+            return schemaCache;
+        }
+
+        ObjectCache getObjectCache() {
+            return objectCache;
+        }
+
+        PermissionCatalog getPermissionCatalog() {
+            return permissionCatalog;
+        }
+
+        ConnectorMetrics getMetrics() {
+            return metrics;
+        }
+
+        GroupCommits getGroupCommits() {
+            return groupCommits;
+        }
+
+        ParallelScans getParallelScans() {
+            return parallelScans;
+        }
+
+        DeleteDetectors getDeleteDetectors() {
+            return deleteDetectors;
+        }
+
+        synchronized ChangeListener getChangeListener() {
+            if (changeListener == null) {
+                changeListener = ChangeListener.start(dataSource);
+            }
+            return changeListener;
+        }
+
+        void release() {
+            synchronized (ConnectionPools.class) {
+                if (--references > 0) {
+                    return;
+                }
+                POOLS.remove(key);
+            }
+            LOG.info("Closing connection pool {0}", dataSource.getPoolName());
+            synchronized (this) {
+                if (changeListener != null) {
+                    changeListener.stop();
+                }
+            }
+            healthMonitor.stop();
+            parallelScans.shutdown();
+            metrics.close();
+            dataSource.close();
+        }
+    }
+
+    private static final class PoolKey {
+
+        private final String jdbcUrl;
+        private final String jdbcDriver;
+        private final String jdbcUser;
+        private final byte[] passwordDigest;
+        private final int maxPoolSize;
+        private final int minIdle;
+        private final long connectionTimeout;
+        private final long validationTimeout;
+        private final long leakDetectionThreshold;
+        private final int prepareThreshold;
+        // settings of the pool's components
+        private final long healthCheckInterval;
+        private final long schemaCacheTtl;
+        private final int objectCacheSize;
+        private final long objectCacheTtl;
+        private final long permissionCatalogRefresh;
+        private final long syncCommitLag;
+
+        PoolKey(ADLKConfiguration configuration, byte[] passwordDigest) {
+            this.jdbcUrl = configuration.getJdbcUrl();
+            this.jdbcDriver = configuration.getJdbcDriver();
+            this.jdbcUser = configuration.getJdbcUser();
+            this.passwordDigest = passwordDigest;
+            this.maxPoolSize = configuration.getMaxPoolSize();
+            this.minIdle = configuration.getMinIdle();
+            this.connectionTimeout = configuration.getConnectionTimeout();
+            this.validationTimeout = configuration.getValidationTimeout();
+            this.leakDetectionThreshold = configuration.getLeakDetectionThreshold();
+            this.prepareThreshold = configuration.getPrepareThreshold();
+            this.healthCheckInterval = configuration.getHealthCheckInterval();
+            this.schemaCacheTtl = configuration.getSchemaCacheTtl();
+            this.objectCacheSize = configuration.getObjectCacheSize();
+            this.objectCacheTtl = configuration.getObjectCacheTtl();
+            this.permissionCatalogRefresh = configuration.getPermissionCatalogRefresh();
+            this.syncCommitLag = configuration.getSyncCommitLag();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PoolKey)) {
+                return false;
+            }
+            PoolKey other = (PoolKey) o;
+            return maxPoolSize == other.maxPoolSize
+                && minIdle == other.minIdle
+                && connectionTimeout == other.connectionTimeout
+                && validationTimeout == other.validationTimeout
+                && leakDetectionThreshold == other.leakDetectionThreshold
+                && prepareThreshold == other.prepareThreshold
+                && healthCheckInterval == other.healthCheckInterval
+                && schemaCacheTtl == other.schemaCacheTtl
+                && objectCacheSize == other.objectCacheSize
+                && objectCacheTtl == other.objectCacheTtl
+                && permissionCatalogRefresh == other.permissionCatalogRefresh
+                && syncCommitLag == other.syncCommitLag
+                && Objects.equals(jdbcUrl, other.jdbcUrl)
+                && Objects.equals(jdbcDriver, other.jdbcDriver)
+                && Objects.equals(jdbcUser, other.jdbcUser)
+                && Arrays.equals(passwordDigest, other.passwordDigest);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Objects.hash(jdbcUrl, jdbcDriver, jdbcUser, maxPoolSize, minIdle,
+                connectionTimeout, validationTimeout, leakDetectionThreshold, prepareThreshold,
+                healthCheckInterval, schemaCacheTtl, objectCacheSize, objectCacheTtl, permissionCatalogRefresh,
+                syncCommitLag) + Arrays.hashCode(passwordDigest);
+        }
+
+        // no password
+        @Override
+        public String toString() {
+            return jdbcUser + "@" + jdbcUrl + " (max " + maxPoolSize + ", min idle " + minIdle + ")";
+        }
+    }
+}
@@ -0,0 +1,257 @@
+package ru.ctsg.idmcae;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectionFailedException;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import ru.ctsg.idmcae.metrics.OperationMetrics;
+import ru.ctsg.idmcae.metrics.PoolMetrics;
+import ru.ctsg.idmcae.processing.GroupCommits;
+import ru.ctsg.idmcae.processing.ParallelScans;
+
+/**
+ * The database side of one connector operation: at most one pooled connection,
+ * borrowed on first use and returned to the pool on {@link #close}, whatever
+ * happens in between. An open transaction that was neither committed nor rolled
+ * back by then is rolled back.
+ * <p>
+ * The scope also meters the operation: its latency, the rows handed to the results
+ * handler and the time spent inside it, and the pool wait and hold times. An operation
+ * that did not reach {@link #complete} before the scope closed counts as an error.
+ */
+public final class ConnectionScope implements AutoCloseable {
+
+    private static final Log LOG = Log.getLog(ConnectionScope.class);
+
+    private final HikariDataSource dataSource;
+    private final String operation;
+    private final OperationMetrics metrics;
+    private final PoolMetrics poolMetrics;
+    private final GroupCommits groupCommits;
+    private final ParallelScans parallelScans;
+    private final long openedAt = System.nanoTime();
+
+    private Connection connection;
+    private long borrowedAt;
+    private long poolWaitNanos;
+    private boolean completed;
+    private long rows;
+    private long handlerNanos;
+
+    ConnectionScope(HikariDataSource dataSource, String operation, OperationMetrics metrics, PoolMetrics poolMetrics,
+        GroupCommits groupCommits, ParallelScans parallelScans) {
+
+        this.dataSource = dataSource;
+        this.operation = operation;
+        this.metrics = metrics;
+        this.poolMetrics = poolMetrics;
+        this.groupCommits = groupCommits;
+        this.parallelScans = parallelScans;
+    }
+
+    public Connection getConnection() {
+        if (connection == null) {
+            long start = System.nanoTime();
+            try {
+                connection = dataSource.getConnection();
+            } catch (SQLException e) {
+                throw new ConnectionFailedException(
+                    "Database connection could not be established by the GOK connector: "
+                    + e.getLocalizedMessage(), e);
+            }
+            borrowedAt = System.nanoTime();
+            poolWaitNanos = borrowedAt - start;
+            poolMetrics.recordWait(poolWaitNanos);
+        }
+        return connection;
+    }
+
+    /**
+     * Runs {@code work} on another pooled connection, for work running alongside the
+     * operation's own such as a partition of a parallel scan. The connection goes back
+     * to the pool when the work returns; its pool wait and hold times are metered.
+     */
+    public <T> T withBorrowed(Work<T> work) throws SQLException {
+        long start = System.nanoTime();
+        Connection borrowed;
+        try {
+            borrowed = dataSource.getConnection();
+        } catch (SQLException e) {
+            throw new ConnectionFailedException(
+                "Database connection could not be established by the GOK connector: "
+                + e.getLocalizedMessage(), e);
+        }
+        long borrowedAt = System.nanoTime();
+        poolMetrics.recordWait(borrowedAt - start);
+
+        try (borrowed) {
+            return work.execute(borrowed);
+        } finally {
+            poolMetrics.recordHold(System.nanoTime() - borrowedAt);
+        }
+    }
+
+    /**
+     * The group commits of the pool the operation's connections come from.
+     */
+    public GroupCommits getGroupCommits() {
+        return groupCommits;
+    }
+
+    /**
+     * The threads and connection permits of the pool's parallel scans.
+     */
+    public ParallelScans getParallelScans() {
+        return parallelScans;
+    }
+
+    /**
+     * Marks the operation as successful and returns {@code result}.
+     */
+    public <T> T complete(T result) {
+        completed = true;
+        return result;
+    }
+
+    public void complete() {
+        completed = true;
+    }
+
+    /**
+     * Wraps {@code handler} to count the rows handed to it and the time it takes to accept them.
+     */
+    public ResultsHandler meter(ResultsHandler handler) {
+        return object -> {
+            long start = System.nanoTime();
+            try {
+                return handler.handle(object);
+            } finally {
+                handlerNanos += System.nanoTime() - start;
+                rows++;
+            }
+        };
+    }
+
+    public SyncResultsHandler meter(SyncResultsHandler handler) {
+        return new MeteredSyncHandler(handler);
+    }
+
+    /**
+     * How far the position reached by a sync trails the database clock.
+     */
+    public void recordWatermarkLag(long millis) {
+        metrics.recordWatermarkLag(millis);
+    }
+
+    /**
+     * How far open transactions held the sync horizon back beyond the commit lag.
+     */
+    public void recordHorizonHold(long millis) {
+        metrics.recordHorizonHold(millis);
+    }
+
+    /**
+     * Runs {@code work} in a transaction on the operation's connection; commits when it
+     * returns, rolls back when it throws.
+     */
+    public <T> T inTransaction(Work<T> work) {
+        Connection transactional = getConnection();
+        try {
+            boolean autoCommit = transactional.getAutoCommit();
+            transactional.setAutoCommit(false);
+            try {
+                T result = work.execute(transactional);
+                transactional.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                transactional.rollback();
+                throw e;
+            } finally {
+                transactional.setAutoCommit(autoCommit);
+            }
+        } catch (SQLException e) {
+            throw new ConnectorException(operation + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Nanoseconds the operation waited for the pool to hand out its connection.
+     */
+    public long getPoolWaitNanos() {
+        return poolWaitNanos;
+    }
+
+    @Override
+    public void close() {
+        metrics.record(System.nanoTime() - openedAt, !completed, rows, handlerNanos);
+        if (connection == null) {
+            return;
+        }
+
+        try {
+            if (!connection.getAutoCommit()) {
+                connection.rollback();
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            LOG.warn(e, "Failed to roll back the transaction left open by {0}", operation);
+        } finally {
+            try {
+                connection.close();
+            } catch (SQLException e) {
+                LOG.warn(e, "Failed to return the connection of {0} to the pool", operation);
+            }
+            connection = null;
+        }
+
+        long holdNanos = System.nanoTime() - borrowedAt;
+        poolMetrics.recordHold(holdNanos);
+        LOG.ok("{0} waited {1} ms for a connection and held it {2} ms", operation,
+            TimeUnit.NANOSECONDS.toMillis(poolWaitNanos), TimeUnit.NANOSECONDS.toMillis(holdNanos));
+    }
+
+    // Keeps the token callback visible to callers that check for it.
+    private final class MeteredSyncHandler implements SyncTokenResultsHandler {
+
+        private final SyncResultsHandler delegate;
+
+        MeteredSyncHandler(SyncResultsHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean handle(SyncDelta delta) {
+            long start = System.nanoTime();
+            try {
+                return delegate.handle(delta);
+            } finally {
+                handlerNanos += System.nanoTime() - start;
+                rows++;
+            }
+        }
+
+        @Override
+        public void handleResult(SyncToken token) {
+            if (delegate instanceof SyncTokenResultsHandler) {
+                ((SyncTokenResultsHandler) delegate).handleResult(token);
+            }
+        }
+    }
+
+    @FunctionalInterface
+    public interface Work<T> {
+
+        T execute(Connection connection) throws SQLException;
+    }
+}
@@ -0,0 +1,101 @@
+package ru.ctsg.idmcae;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.identityconnectors.common.logging.Log;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+/**
+ * Checks a shared pool in the background and keeps the latest {@link HealthStatus},
+ * so that checkAlive is a memory read. A status older than two intervals plus the
+ * connection timeout is stale and is refreshed by the caller.
+ */
+final class HealthMonitor {
+
+    private static final Log LOG = Log.getLog(HealthMonitor.class);
+
+    private static final ScheduledExecutorService SCHEDULER = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "adlk-health-monitor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final HikariDataSource dataSource;
+    private final long staleAfterMillis;
+    private final ScheduledFuture<?> schedule;
+
+    private volatile HealthStatus status;
+
+    HealthMonitor(HikariDataSource dataSource, long intervalMillis) {
+        this.dataSource = dataSource;
+        this.staleAfterMillis = 2 * intervalMillis + dataSource.getConnectionTimeout();
+        this.schedule = SCHEDULER.scheduleWithFixedDelay(this::checkQuietly, 0, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The latest status, checked right now if there is none yet or it is stale.
+     */
+    HealthStatus current() {
+        HealthStatus current = status;
+        if (current == null || System.currentTimeMillis() - current.getCheckedAt() > staleAfterMillis) {
+            return check();
+        }
+        return current;
+    }
+
+    synchronized HealthStatus check() {
+        long start = System.nanoTime();
+        HealthStatus checked;
+
+        try (Connection connection = dataSource.getConnection();
+            Statement statement = connection.createStatement()) {
+            long borrowed = System.nanoTime();
+            statement.execute("SELECT 1");
+            checked = status(null, borrowed - start, System.nanoTime() - borrowed);
+        } catch (SQLException e) {
+            checked = status(e.getMessage(), System.nanoTime() - start, 0);
+        }
+
+        HealthStatus previous = status;
+        status = checked;
+        if (previous == null || previous.isHealthy() != checked.isHealthy()) {
+            LOG.info("Connection pool {0} is {1}", dataSource.getPoolName(), checked);
+        } else {
+            LOG.ok("Connection pool {0} is {1}", dataSource.getPoolName(), checked);
+        }
+        return checked;
+    }
+
+    void stop() {
+        schedule.cancel(false);
+    }
+
+    private void checkQuietly() {
+        try {
+            check();
+        } catch (RuntimeException e) {
+            LOG.warn(e, "Health check of connection pool {0} failed", dataSource.getPoolName());
+        }
+    }
+
+    private HealthStatus status(String error, long poolWaitNanos, long roundTripNanos) {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return new HealthStatus(
+            System.currentTimeMillis(),
+            error,
+            poolWaitNanos,
+            roundTripNanos,
+            pool == null ? 0 : pool.getActiveConnections(),
+            pool == null ? 0 : pool.getIdleConnections(),
+            dataSource.getMaximumPoolSize(),
+            pool == null ? 0 : pool.getThreadsAwaitingConnection());
+    }
+}
@@ -0,0 +1,96 @@
+package ru.ctsg.idmcae;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of one health check of a connection pool: whether the database answered,
+ * how long that took, and how busy the pool was at the time.
+ */
+public final class HealthStatus {
+
+    private final long checkedAt;
+    private final String error;
+    private final long poolWaitNanos;
+    private final long roundTripNanos;
+    private final int activeConnections;
+    private final int idleConnections;
+    private final int maxConnections;
+    private final int threadsAwaiting;
+
+    HealthStatus(
+        long checkedAt,
+        String error,
+        long poolWaitNanos,
+        long roundTripNanos,
+        int activeConnections,
+        int idleConnections,
+        int maxConnections,
+        int threadsAwaiting) {
+
+        this.checkedAt = checkedAt;
+        this.error = error;
+        this.poolWaitNanos = poolWaitNanos;
+        this.roundTripNanos = roundTripNanos;
+        this.activeConnections = activeConnections;
+        this.idleConnections = idleConnections;
+        this.maxConnections = maxConnections;
+        this.threadsAwaiting = threadsAwaiting;
+    }
+
+    public boolean isHealthy() {
+        return error == null;
+    }
+
+    /**
+     * Wall clock millis of the check.
+     */
+    public long getCheckedAt() {
+        return checkedAt;
+    }
+
+    public String getError() {
+        return error;
+    }
+
+    public long getPoolWaitNanos() {
+        return poolWaitNanos;
+    }
+
+    public long getRoundTripNanos() {
+        return roundTripNanos;
+    }
+
+    public int getActiveConnections() {
+        return activeConnections;
+    }
+
+    public int getIdleConnections() {
+        return idleConnections;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public int getThreadsAwaiting() {
+        return threadsAwaiting;
+    }
+
+    /**
+     * Share of the pool's connections in use, 0 to 1.
+     */
+    public double getSaturation() {
+        return maxConnections == 0 ? 0 : (double) activeConnections / maxConnections;
+    }
+
+    @Override
+    public String toString() {
+        String pool = activeConnections + "/" + maxConnections + " connections active, "
+            + idleConnections + " idle, " + threadsAwaiting + " waiting";
+        if (!isHealthy()) {
+            return "unhealthy (" + error + "), " + pool;
+        }
+        return "healthy, round trip " + TimeUnit.NANOSECONDS.toMicros(roundTripNanos) + " us, pool wait "
+            + TimeUnit.NANOSECONDS.toMicros(poolWaitNanos) + " us, " + pool;
+    }
+}
@@ -0,0 +1,265 @@
+package ru.ctsg.idmcae;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.SyncDelta;
+import org.identityconnectors.framework.common.objects.SyncResultsHandler;
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
+
+import ru.ctsg.idmcae.query.TableMapping;
+
+/**
+ * Objects read by {@code __UID__}, shared by the connector instances on a pool and
+ * kept for at most the TTL, least recently used first out. One projection is kept
+ * per object; a lookup with another projection reads the database and replaces it.
+ * Concurrent lookups of the same object wait for a single read. Objects that were
+ * not found are not cached.
+ * <p>
+ * Writes through the connector and LiveSync deltas invalidate entries. A read that
+ * overlapped an invalidation of its object or table is returned but not cached, so a
+ * commit never leaves the object it changed behind in the cache. Uids are keyed in
+ * the form PostgreSQL prints the integer and uuid keys in, whatever form a filter or
+ * a delta spells them in.
+ */
+final class ObjectCache {
+
+    private final int maxSize;
+    private final long ttlNanos;
+    private final Map<Key, Entry> entries;
+    private final Map<Key, Load> loading = new ConcurrentHashMap<>();
+
+    ObjectCache(int maxSize, long ttlMillis) {
+        this.maxSize = maxSize;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                return size() > ObjectCache.this.maxSize;
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * The object with the given uid as read with {@code projection}, from memory or,
+     * on a miss, from {@code loader}.
+     */
+    ConnectorObject get(TableMapping table, String uid, String projection, Supplier<ConnectorObject> loader) {
+        Key key = new Key(table, canonical(uid));
+        ConnectorObject cached = lookup(key, projection);
+        if (cached != null) {
+            return cached;
+        }
+
+        Load mine = new Load(projection);
+        Load running = loading.putIfAbsent(key, mine);
+        if (running != null) {
+            // another projection of the object is on its way; not worth coordinating
+            return running.projection.equals(projection) ? running.await() : loader.get();
+        }
+
+        try {
+            ConnectorObject object = loader.get();
+            if (object != null) {
+                store(key, mine, object);
+            }
+            mine.result.complete(object);
+            return object;
+        } catch (RuntimeException e) {
+            mine.result.completeExceptionally(e);
+            throw e;
+        } finally {
+            loading.remove(key, mine);
+        }
+    }
+
+    void invalidate(TableMapping table, String uid) {
+        Key key = new Key(table, canonical(uid));
+        synchronized (entries) {
+            entries.remove(key);
+            Load running = loading.get(key);
+            if (running != null) {
+                running.stale = true;
+            }
+        }
+    }
+
+    void invalidateAll(TableMapping table) {
+        synchronized (entries) {
+            entries.keySet().removeIf(key -> key.table == table);
+            for (Map.Entry<Key, Load> running : loading.entrySet()) {
+                if (running.getKey().table == table) {
+                    running.getValue().stale = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * A uid as PostgreSQL prints it: integers without sign or leading zeros, uuids in
+     * lower case with hyphens; anything else unchanged.
+     */
+    static String canonical(String uid) {
+        String trimmed = uid.strip();
+        try {
+            return Long.toString(Long.parseLong(trimmed));
+        } catch (NumberFormatException e) {
+            // not an integer
+        }
+
+        String hex = trimmed.startsWith("{") && trimmed.endsWith("}")
+            ? trimmed.substring(1, trimmed.length() - 1) : trimmed;
+        hex = hex.replace("-", "");
+        if (hex.length() != 32 || !hex.chars().allMatch(c -> Character.digit(c, 16) >= 0)) {
+            return uid;
+        }
+        hex = hex.toLowerCase(Locale.ROOT);
+        return hex.substring(0, 8) + '-' + hex.substring(8, 12) + '-' + hex.substring(12, 16) + '-'
+            + hex.substring(16, 20) + '-' + hex.substring(20);
+    }
+
+    /**
+     * Wraps a sync handler so that every delta it receives first drops the object it
+     * reports.
+     */
+    SyncResultsHandler invalidating(ObjectClass objectClass, SyncResultsHandler handler) {
+        return isEnabled() ? new InvalidatingSyncHandler(objectClass, handler) : handler;
+    }
+
+    private ConnectorObject lookup(Key key, String projection) {
+        if (!isEnabled()) {
+            return null;
+        }
+        synchronized (entries) {
+            Entry entry = entries.get(key);
+            if (entry == null) {
+                return null;
+            }
+            if (System.nanoTime() - entry.loadedAt > ttlNanos) {
+                entries.remove(key);
+                return null;
+            }
+            return entry.projection.equals(projection) ? entry.object : null;
+        }
+    }
+
+    private void store(Key key, Load load, ConnectorObject object) {
+        if (!isEnabled()) {
+            return;
+        }
+        synchronized (entries) {
+            // the object may have changed since the read started
+            if (!load.stale) {
+                entries.put(key, new Entry(load.projection, object));
+            }
+        }
+    }
+
+    private static final class Key {
+
+        private final TableMapping table;
+        private final String uid;
+
+        Key(TableMapping table, String uid) {
+            this.table = table;
+            this.uid = uid;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return table == other.table && uid.equals(other.uid);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(table, uid);
+        }
+    }
+
+    private static final class Entry {
+
+        private final String projection;
+        private final ConnectorObject object;
+        private final long loadedAt = System.nanoTime();
+
+        Entry(String projection, ConnectorObject object) {
+            this.projection = projection;
+            this.object = object;
+        }
+    }
+
+    private static final class Load {
+
+        private final String projection;
+        private final CompletableFuture<ConnectorObject> result = new CompletableFuture<>();
+
+        // guarded by entries
+        private boolean stale;
+
+        Load(String projection) {
+            this.projection = projection;
+        }
+
+        ConnectorObject await() {
+            try {
+                return result.join();
+            } catch (CompletionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw e;
+            }
+        }
+    }
+
+    private final class InvalidatingSyncHandler implements SyncTokenResultsHandler {
+
+        private final ObjectClass objectClass;
+        private final SyncResultsHandler delegate;
+
+        InvalidatingSyncHandler(ObjectClass objectClass, SyncResultsHandler delegate) {
+            this.objectClass = objectClass;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean handle(SyncDelta delta) {
+            ObjectClass changed = delta.getObjectClass() != null ? delta.getObjectClass() : objectClass;
+            for (TableMapping table : TableMapping.values()) {
+                // __ALL__ deltas without an object class could come from any table
+                if (changed.is(table.getObjectClassName()) || changed.is(ObjectClass.ALL_NAME)) {
+                    invalidate(table, delta.getUid().getUidValue());
+                }
+            }
+            return delegate.handle(delta);
+        }
+
+        @Override
+        public void handleResult(SyncToken token) {
+            if (delegate instanceof SyncTokenResultsHandler) {
+                ((SyncTokenResultsHandler) delegate).handleResult(token);
+            }
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package ru.ctsg.idmcae;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.SearchResult;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import ru.ctsg.idmcae.builders.SchemaDefinition;
+import ru.ctsg.idmcae.processing.PermissionProcessing;
+import ru.ctsg.idmcae.query.Paging;
+import ru.ctsg.idmcae.query.Projection;
+import ru.ctsg.idmcae.query.SqlFilter;
+import ru.ctsg.idmcae.query.TableMapping;
+import ru.ctsg.idmcae.sync.ChangeStream;
+
+/**
+ * All permissions of a shared pool's database in memory, as an immutable
+ * {@link Snapshot} indexed by uid and code. A snapshot older than the refresh interval
+ * is refreshed by the first reader that finds no refresh running; the other readers
+ * keep the snapshot they have. Readers only wait when there is nothing to serve yet:
+ * on the first load and after a schema change. A refresh reads the permissions stamped
+ * since the newest change it has seen, less the sync commit lag, and reloads the table
+ * when the row count shows that permissions were deleted. A permission written through
+ * the connector is refreshed on the writer's thread, so it is seen once the write returns.
+ */
+final class PermissionCatalog {
+
+    private static final Log LOG = Log.getLog(PermissionCatalog.class);
+
+    private static final TableMapping TABLE = TableMapping.PERMISSION;
+    private static final String TIMESTAMP_COLUMN = ChangeStream.PERMISSIONS.getTimestampColumn();
+    private static final String STATISTICS =
+        "SELECT count(*), max(" + TIMESTAMP_COLUMN + ") FROM " + TABLE.getTable();
+
+    private final HikariDataSource dataSource;
+    private final ADLKConfiguration configuration;
+    private final long refreshMillis;
+    private final ReentrantLock refreshing = new ReentrantLock();
+
+    private volatile Snapshot snapshot;
+    private volatile boolean expired;
+
+    PermissionCatalog(HikariDataSource dataSource, ADLKConfiguration configuration) {
+        this.dataSource = dataSource;
+        this.configuration = configuration;
+        this.refreshMillis = configuration.getPermissionCatalogRefresh();
+    }
+
+    boolean isEnabled() {
+        return refreshMillis > 0;
+    }
+
+    /**
+     * Whether the catalog answers a permission search with this filter: all
+     * permissions, or one by uid or by code.
+     */
+    static boolean answers(SqlFilter query) {
+        return query == null
+            || query.equalityValue(TABLE.getKeyColumn()) != null
+            || query.equalityValue(TABLE.getNameColumn()) != null;
+    }
+
+    /**
+     * Answers a search from the current snapshot; null if the search must read the
+     * database because it asks for other attributes than the catalog keeps.
+     */
+    SearchResult search(SchemaDefinition definition, SqlFilter query, Projection projection,
+        OperationOptions options, ResultsHandler handler) {
+
+        Snapshot current = get(definition);
+        if (projection.includesMembership() || !current.selectList.equals(projection.getSelectList())) {
+            return null;
+        }
+        return current.search(query, options, handler);
+    }
+
+    /**
+     * The current snapshot of the permissions as read with {@code definition}.
+     */
+    private Snapshot get(SchemaDefinition definition) {
+        Snapshot current = snapshot;
+        if (current == null || current.definition != definition) {
+            refreshing.lock();
+        } else if (!isDue(current) || !refreshing.tryLock()) {
+            return current;
+        }
+        try {
+            return refresh(definition, false);
+        } finally {
+            refreshing.unlock();
+        }
+    }
+
+    /**
+     * Refreshes on the calling thread after it committed a permission write, so that
+     * the write is in the catalog when it returns; readers keep the current snapshot
+     * meanwhile. A failed refresh is left to the next reader.
+     */
+    void refreshAfterWrite(SchemaDefinition definition) {
+        if (!isEnabled() || snapshot == null) {
+            return;
+        }
+        refreshing.lock();
+        try {
+            refresh(definition, true);
+        } catch (ConnectorException e) {
+            expired = true;
+            LOG.warn(e, "Refresh of the permission catalog of connection pool {0} after a write failed",
+                dataSource.getPoolName());
+        } finally {
+            refreshing.unlock();
+        }
+    }
+
+    /**
+     * Makes the next reader refresh without waiting for the interval; it does not wait
+     * for the refresh either.
+     */
+    void expire() {
+        expired = true;
+    }
+
+    private boolean isDue(Snapshot current) {
+        return expired || System.currentTimeMillis() - current.refreshedAt >= refreshMillis;
+    }
+
+    private Snapshot refresh(SchemaDefinition definition, boolean force) {
+        Snapshot current = snapshot;
+        boolean reload = current == null || current.definition != definition;
+        if (!reload && !force && !isDue(current)) {
+            // refreshed by another reader meanwhile
+            return current;
+        }
+        boolean wasExpired = expired;
+        expired = false;
+
+        try (Connection connection = dataSource.getConnection()) {
+            Snapshot next = reload
+                ? load(definition, current == null ? 1 : current.version + 1, connection)
+                : update(current, connection);
+            if (next.version != (current == null ? 0 : current.version)) {
+                LOG.ok("Permission catalog of connection pool {0} at version {1}: {2} permissions",
+                    dataSource.getPoolName(), next.version, next.size());
+            }
+            snapshot = next;
+            return next;
+
+        } catch (SQLException | ConnectorException e) {
+            if (!reload) {
+                expired |= wasExpired;
+                LOG.warn(e, "Refresh of the permission catalog of connection pool {0} failed, keeping version {1}",
+                    dataSource.getPoolName(), current.version);
+                return current;
+            }
+            throw e instanceof ConnectorException ? (ConnectorException) e
+                : new ConnectorException("Permission catalog load failed: " + e.getMessage(), e);
+        }
+    }
+
+    private Snapshot load(SchemaDefinition definition, long version, Connection connection) throws SQLException {
+        long startedAt = System.currentTimeMillis();
+        Statistics statistics = statistics(connection);
+        Projection projection = Projection.of(definition.table(TABLE), null);
+        NavigableMap<String, ConnectorObject> objects = read(definition, projection, null, connection);
+        return new Snapshot(version, definition, projection.getSelectList(), objects, statistics.watermark, startedAt);
+    }
+
+    private Snapshot update(Snapshot current, Connection connection) throws SQLException {
+        long startedAt = System.currentTimeMillis();
+        Statistics statistics = statistics(connection);
+
+        // commits may stamp times up to the commit lag older than the newest one seen
+        SqlFilter since = current.watermark == null ? null : new SqlFilter(TIMESTAMP_COLUMN + " >= ?",
+            List.of(current.watermark.minusNanos(configuration.getSyncCommitLag() * 1_000_000)));
+        Map<String, ConnectorObject> changed = read(current.definition,
+            Projection.of(current.definition.table(TABLE), null), since, connection);
+        changed.entrySet().removeIf(entry -> entry.getValue().equals(current.byUid.get(entry.getKey())));
+
+        OffsetDateTime watermark = statistics.watermark != null ? statistics.watermark : current.watermark;
+        if (changed.isEmpty() && statistics.count == current.size()) {
+            return current.refreshed(watermark, startedAt);
+        }
+
+        NavigableMap<String, ConnectorObject> objects = new TreeMap<>(current.byUid);
+        objects.putAll(changed);
+        if (objects.size() != statistics.count) {
+            LOG.ok("Permissions of connection pool {0} were deleted, reloading the catalog", dataSource.getPoolName());
+            return load(current.definition, current.version + 1, connection);
+        }
+        return new Snapshot(current.version + 1, current.definition, current.selectList, objects, watermark, startedAt);
+    }
+
+    private Statistics statistics(Connection connection) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(STATISTICS);
+            ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            resultSet.next();
+            return new Statistics(resultSet.getLong(1), resultSet.getObject(2, OffsetDateTime.class));
+        }
+    }
+
+    private NavigableMap<String, ConnectorObject> read(
+        SchemaDefinition definition, Projection projection, SqlFilter query, Connection connection) {
+
+        NavigableMap<String, ConnectorObject> objects = new TreeMap<>();
+        new PermissionProcessing(configuration, definition).executeQuery(
+            query, projection, object -> {
+                objects.put(object.getUid().getUidValue(), object);
+                return true;
+            }, null, connection);
+        return objects;
+    }
+
+    /**
+     * One version of the catalog, read with the default projection. Objects are kept in
+     * key order, which for uuid keys is the order PostgreSQL pages them in.
+     */
+    static final class Snapshot {
+
+        private final long version;
+        private final SchemaDefinition definition;
+        private final String selectList;
+        private final NavigableMap<String, ConnectorObject> byUid;
+        private final Map<String, String> uidByCode;
+        private final OffsetDateTime watermark;
+        private final long refreshedAt;
+
+        private Snapshot(long version, SchemaDefinition definition, String selectList,
+            NavigableMap<String, ConnectorObject> byUid, OffsetDateTime watermark, long refreshedAt) {
+
+            this.version = version;
+            this.definition = definition;
+            this.selectList = selectList;
+            this.byUid = Collections.unmodifiableNavigableMap(byUid);
+            this.watermark = watermark;
+            this.refreshedAt = refreshedAt;
+
+            Map<String, String> codes = new HashMap<>(byUid.size() * 2);
+            for (ConnectorObject object : byUid.values()) {
+                codes.put(object.getName().getNameValue(), object.getUid().getUidValue());
+            }
+            this.uidByCode = Collections.unmodifiableMap(codes);
+        }
+
+        private Snapshot(Snapshot unchanged, OffsetDateTime watermark, long refreshedAt) {
+            this.version = unchanged.version;
+            this.definition = unchanged.definition;
+            this.selectList = unchanged.selectList;
+            this.byUid = unchanged.byUid;
+            this.uidByCode = unchanged.uidByCode;
+            this.watermark = watermark;
+            this.refreshedAt = refreshedAt;
+        }
+
+        private Snapshot refreshed(OffsetDateTime watermark, long refreshedAt) {
+            return new Snapshot(this, watermark, refreshedAt);
+        }
+
+        int size() {
+            return byUid.size();
+        }
+
+        /**
+         * Hands the permissions a filter accepted by {@link #answers} selects to the
+         * handler, paged like the database search.
+         */
+        SearchResult search(SqlFilter query, OperationOptions options, ResultsHandler handler) {
+            NavigableMap<String, ConnectorObject> selected = byUid;
+            if (query != null) {
+                Object uid = query.equalityValue(TABLE.getKeyColumn());
+                String key = uid != null
+                    ? uid.toString().toLowerCase(Locale.ROOT)
+                    : uidByCode.get(query.equalityValue(TABLE.getNameColumn()).toString());
+                selected = key == null ? Collections.emptyNavigableMap() : byUid.subMap(key, true, key, true);
+            }
+
+            Paging paging = Paging.from(options);
+            if (paging.getCookie() != null) {
+                selected = selected.tailMap(paging.getCookie(), false);
+            }
+
+            int skip = paging.getOffset();
+            int read = 0;
+            String lastKey = null;
+            for (Map.Entry<String, ConnectorObject> entry : selected.entrySet()) {
+                if (skip > 0) {
+                    skip--;
+                    continue;
+                }
+                if (paging.isPaged() && read == paging.getPageSize()) {
+                    return new SearchResult(lastKey, -1);
+                }
+                read++;
+                if (!handler.handle(entry.getValue())) {
+                    break;
+                }
+                lastKey = entry.getKey();
+            }
+            return new SearchResult(null, 0);
+        }
+    }
+
+    private static final class Statistics {
+
+        private final long count;
+        private final OffsetDateTime watermark;
+
+        Statistics(long count, OffsetDateTime watermark) {
+            this.count = count;
+            this.watermark = watermark;
+        }
+    }
+}
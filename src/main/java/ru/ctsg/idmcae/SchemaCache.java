@@ -0,0 +1,80 @@
+package ru.ctsg.idmcae;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import ru.ctsg.idmcae.builders.SchemaDefinition;
+import ru.ctsg.idmcae.builders.SchemaDefinitionBuilder;
+
+/**
+ * The introspected schema of a shared pool's database. Within the TTL it is a memory
+ * read. Once the TTL has passed, one catalog query compares the column fingerprint.
+ * The tables are only introspected again when the fingerprint differs, so an
+ * unchanged schema keeps its {@link SchemaDefinition} instance and the statements
+ * built from it.
+ */
+final class SchemaCache {
+
+    private static final Log LOG = Log.getLog(SchemaCache.class);
+
+    private final HikariDataSource dataSource;
+    private final long ttlMillis;
+
+    private volatile SchemaDefinition definition;
+    private volatile long checkedAt;
+
+    SchemaCache(HikariDataSource dataSource, long ttlMillis) {
+        this.dataSource = dataSource;
+        this.ttlMillis = ttlMillis;
+    }
+
+    SchemaDefinition get() {
+        SchemaDefinition current = definition;
+        if (current != null && System.currentTimeMillis() - checkedAt < ttlMillis) {
+            return current;
+        }
+        return refresh();
+    }
+
+    /**
+     * Makes the next {@link #get} compare the fingerprint again.
+     */
+    void invalidate() {
+        checkedAt = 0;
+    }
+
+    private synchronized SchemaDefinition refresh() {
+        SchemaDefinition current = definition;
+        if (current != null && System.currentTimeMillis() - checkedAt < ttlMillis) {
+            // refreshed by another caller meanwhile
+            return current;
+        }
+
+        try (Connection connection = dataSource.getConnection()) {
+            String fingerprint = SchemaDefinitionBuilder.fingerprint(connection);
+            if (current == null || !current.getFingerprint().equals(fingerprint)) {
+                if (current != null) {
+                    LOG.info("Table definitions of connection pool {0} changed", dataSource.getPoolName());
+                }
+                current = new SchemaDefinitionBuilder().buildSchema(connection, fingerprint);
+                LOG.info("Introspected the schema of connection pool {0}", dataSource.getPoolName());
+                definition = current;
+            }
+            checkedAt = System.currentTimeMillis();
+            return current;
+
+        } catch (SQLException e) {
+            if (current != null) {
+                LOG.warn(e, "Schema check of connection pool {0} failed, keeping the previous schema",
+                    dataSource.getPoolName());
+                return current;
+            }
+            throw new ConnectorException("Schema introspection failed: " + e.getMessage(), e);
+        }
+    }
+}
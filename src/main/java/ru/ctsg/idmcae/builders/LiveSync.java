@@ -1,21 +1,26 @@
 package ru.ctsg.idmcae.builders;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Timestamp;
-import java.util.Base64;
-import java.util.Date;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import org.identityconnectors.common.logging.Log;
 import org.identityconnectors.framework.common.exceptions.ConnectorException;
 import org.identityconnectors.framework.common.objects.ConnectorObject;
-import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
 import org.identityconnectors.framework.common.objects.ObjectClass;
 import org.identityconnectors.framework.common.objects.OperationOptions;
 import org.identityconnectors.framework.common.objects.SyncDelta;
@@ -23,133 +28,551 @@ import org.identityconnectors.framework.common.objects.SyncDeltaBuilder;
 import org.identityconnectors.framework.common.objects.SyncDeltaType;
 import org.identityconnectors.framework.common.objects.SyncResultsHandler;
 import org.identityconnectors.framework.common.objects.SyncToken;
+import org.identityconnectors.framework.common.objects.Uid;
 import org.identityconnectors.framework.spi.SyncTokenResultsHandler;
 
+import ru.ctsg.idmcae.ADLKConfiguration;
+import ru.ctsg.idmcae.ConnectionScope;
+import ru.ctsg.idmcae.processing.Processing;
+import ru.ctsg.idmcae.query.Projection;
+import ru.ctsg.idmcae.query.SqlFilter;
+import ru.ctsg.idmcae.query.StreamingRead;
+import ru.ctsg.idmcae.query.TableMapping;
+import ru.ctsg.idmcae.sync.ChangeListener;
+import ru.ctsg.idmcae.sync.ChangeStream;
+import ru.ctsg.idmcae.sync.DeleteDetector;
+import ru.ctsg.idmcae.sync.DeleteDetectors;
+import ru.ctsg.idmcae.sync.SyncTokenCodec;
+import ru.ctsg.idmcae.sync.SyncWatermark;
+
 
 
 public class LiveSync {
 
     private static final Log LOG = Log.getLog(LiveSync.class);
 
+    /*
+     * Rows stamped after the horizon may still be joined by rows of transactions
+     * that have not committed yet, so they are left for the next cycle. The
+     * horizon is the database clock minus the configured commit lag, or the start
+     * of the oldest open transaction if that is earlier: rows are stamped with
+     * CURRENT_TIMESTAMP, the start of their transaction, so one that has not written
+     * yet counts as well. Transactions that cannot write the tables do not count:
+     * the connector's own read-only ones, aborted ones, and ones idle for longer than
+     * the idle transaction timeout. However old the oldest is, the horizon is held
+     * back by the max hold at most. Transactions of other roles are only visible
+     * with pg_read_all_stats, which test() warns about.
+     */
+    private static final String HORIZON =
+        "WITH clock AS (SELECT clock_timestamp() AS now) " +
+        "SELECT clock.now - make_interval(secs => ?) AS nominal, clock.now - make_interval(secs => ?) AS floor, " +
+        "oldest.xact_start, oldest.pid, oldest.application_name " +
+        "FROM clock LEFT JOIN LATERAL (" +
+        "SELECT xact_start, pid, application_name FROM pg_stat_activity " +
+        "WHERE datname = current_database() AND pid <> pg_backend_pid() AND backend_type = 'client backend' " +
+        "AND xact_start IS NOT NULL AND application_name <> ? " +
+        "AND state <> 'idle in transaction (aborted)' " +
+        "AND NOT (state = 'idle in transaction' AND state_change < clock.now - make_interval(secs => ?)) " +
+        "ORDER BY xact_start LIMIT 1) oldest ON true";
+
+    private final ADLKConfiguration configuration;
+
+    public LiveSync(ADLKConfiguration configuration) {
+        this.configuration = configuration;
+    }
+
+    /**
+     * Runs one sync cycle; {@code listener} is the change listener of the connection's
+     * pool, null when notifications are off, and {@code detectors} its delete detectors.
+     */
     public void sync(
     ObjectClass objectClass,
     SyncToken token,
     SyncResultsHandler handler,
     OperationOptions options,
-    Connection connection) {
+    SchemaDefinition schema,
+    ChangeListener listener,
+    DeleteDetectors detectors,
+    ConnectionScope scope) {
+
+        List<ChangeStream> streams = ChangeStream.forObjectClass(objectClass);
+        Map<TableMapping, Projection> projections = new EnumMap<>(TableMapping.class);
+        for (ChangeStream stream : streams) {
+            TableMapping table = stream.getTarget();
+            projections.computeIfAbsent(table,
+                t -> Projection.of(schema.table(t), options));
+        }
+        Map<TableMapping, String> keyTypes = new EnumMap<>(TableMapping.class);
+        Processing processing = new Processing(configuration, schema);
+        Map<ChangeStream, SyncWatermark> position = token == null
+            ? new EnumMap<>(ChangeStream.class) : getPositionFromToken(token, streams);
+        // the consumer a token was handed to keeps it across runs; a token without one starts a new consumer
+        String consumer = token == null ? null : SyncTokenCodec.decodeConsumer(token.getValue().toString());
+        long generation = consumer == null ? 0 : SyncTokenCodec.decodeGeneration(token.getValue().toString());
+        if (consumer == null) {
+            consumer = SyncTokenCodec.newConsumer();
+        }
+        int batchSize = configuration.getSyncBatchSize();
+        boolean proceed = true;
+
+        ChangeListener.Subscription subscription = null;
+        ChangeListener.Changes notified = null;
+        if (listener != null) {
+            subscription = listener.subscribe(consumer, streams);
+            notified = subscription.drain();
+            if (notified == null && token != null) {
+                LOG.ok("No change notifications for {0} since the previous sync", objectClass);
+                scope.recordWatermarkLag(configuration.getSyncCommitLag());
+                if (handler instanceof SyncTokenResultsHandler) {
+                    ((SyncTokenResultsHandler) handler).handleResult(token);
+                }
+                return;
+            }
+        }
+        boolean finished = false;
+
+        try {
+            Connection connection = scope.getConnection();
+            Horizon bound = horizon(connection);
+            OffsetDateTime horizon = bound.time;
+            scope.recordHorizonHold(bound.heldMillis);
+
+            List<StreamCursor> cursors = new ArrayList<>(streams.size());
+            for (ChangeStream stream : streams) {
+                cursors.add(new StreamCursor(stream, position.get(stream)));
+            }
 
-        SyncToken currentToken = createSyncToken(null);
-        Timestamp timestamp = getTimestampFromToken(token);
+            // Streams are merged in timestamp order; each one is read in batches as it runs dry.
+            // Merged changes are handed out in windows of a batch, whose objects are read together.
+            List<Change> window = new ArrayList<>(batchSize);
+            while (proceed) {
+                window.clear();
+                while (window.size() < batchSize) {
+                    StreamCursor next = null;
+                    for (StreamCursor cursor : cursors) {
+                        if (cursor.buffer.isEmpty() && !cursor.exhausted) {
+                            fetch(cursor, horizon, batchSize, keyTypes, connection);
+                        }
+                        if (!cursor.buffer.isEmpty() && (next == null || cursor.peek().before(next.peek()))) {
+                            next = cursor;
+                        }
+                    }
+                    if (next == null) {
+                        break;
+                    }
+                    window.add(next.buffer.poll());
+                }
+                if (window.isEmpty()) {
+                    break;
+                }
+                proceed = handleWindow(
+                    window, consumer, generation, position, processing, projections, keyTypes, handler, connection);
+            }
 
-        final String sqlQuery = "SELECT a.account_id, a.username, a.full_name, a.email, a.is_active, a.created_at, a.last_modified_at, " +
-            "COALESCE(ARRAY_AGG(DISTINCT ap.permission_uid) FILTER (WHERE ap.permission_uid IS NOT NULL), '{}') AS memberOf " +
-            "FROM public.accounts a " +
-            "LEFT JOIN public.account_permissions ap ON ap.account_id = a.account_id " +
-            "WHERE a.last_modified_at > ? " +
-            "GROUP BY a.account_id, a.username, a.full_name, a.email, a.is_active, a.created_at, a.last_modified_at";
+            // Against the database clock; a run that read up to the horizon trails it by the commit lag.
+            Instant reached = horizon.toInstant();
+            if (!proceed) {
+                for (SyncWatermark watermark : position.values()) {
+                    if (watermark.getTimestamp().toInstant().isBefore(reached)) {
+                        reached = watermark.getTimestamp().toInstant();
+                    }
+                }
+            }
+            scope.recordWatermarkLag(Duration.between(reached, horizon.toInstant()).toMillis()
+                + bound.heldMillis + configuration.getSyncCommitLag());
+
+            // A stream that produced nothing has been read up to the horizon, unless the handler stopped early.
+            if (proceed) {
+                for (ChangeStream stream : streams) {
+                    if (!position.containsKey(stream)) {
+                        position.put(stream, latestWatermark(stream, horizon, connection));
+                    }
+                }
+            }
+            SyncToken currentToken = createSyncToken(consumer, generation, position);
 
-        try (PreparedStatement preparedStatement = connection.prepareStatement(sqlQuery)) {
-            preparedStatement.setTimestamp(1, timestamp);
+            if (proceed && notified != null) {
+                proceed = handleNotified(streams, notified, processing, projections, keyTypes, currentToken, handler, connection);
+            }
 
-            ResultSet resultSet = preparedStatement.executeQuery();
+            // notified deletions make the scan unnecessary, unless some of them may be missing
+            boolean detectDeletes = configuration.isSyncDetectDeletes()
+                && (notified == null || !notified.isComplete());
+            if (proceed && detectDeletes) {
+                for (ChangeStream stream : streams) {
+                    if (stream.isEntityStream()) {
+                        DeleteDetector detector = detectors.forConsumer(
+                            consumer, stream.getTarget(), configuration.getDeleteDetectionRangeSize());
+                        proceed = handleDeletes(detector, stream.getTarget(), generation, connection, currentToken, handler);
+                        if (!proceed) {
+                            break;
+                        }
+                    }
+                }
+                // the detection state moves on once all its deletions were delivered
+                if (proceed) {
+                    currentToken = createSyncToken(consumer, generation + 1, position);
+                }
+            }
 
-            while (resultSet.next()) {
-                handleResultSet(resultSet, currentToken, handler);
+            if (handler instanceof SyncTokenResultsHandler) {
+                ((SyncTokenResultsHandler) handler).handleResult(currentToken);
             }
 
-        } catch (Exception e) {
+            // changes above the horizon were notified already, but must wait for the next run
+            finished = proceed && (subscription == null || !hasPendingChanges(streams, horizon, connection));
+
+        } catch (SQLException e) {
             throw new ConnectorException("sync() failed: " + e.getMessage(), e);
+        } finally {
+            if (subscription != null) {
+                subscription.complete(notified, finished);
+            }
         }
+    }
 
-        ((SyncTokenResultsHandler) handler).handleResult(currentToken);
+    /*
+     * Deleted rows become DELETE deltas; accounts whose memberships were removed or
+     * rewritten are read again and reported as updated.
+     */
+    private boolean handleNotified(
+        List<ChangeStream> streams,
+        ChangeListener.Changes notified,
+        Processing processing,
+        Map<TableMapping, Projection> projections,
+        Map<TableMapping, String> keyTypes,
+        SyncToken currentToken,
+        SyncResultsHandler handler,
+        Connection connection) throws SQLException {
+
+        for (ChangeStream stream : streams) {
+            Set<String> keys = notified.keys(stream);
+            if (keys.isEmpty()) {
+                continue;
+            }
+
+            TableMapping table = stream.getTarget();
+            Map<String, ConnectorObject> objects = Map.of();
+            if (!stream.isEntityStream()) {
+                String keyTypeName = keyTypes.containsKey(table) ? keyTypes.get(table) : keyTypeName(table, connection);
+                objects = processing.fetchByKeys(table, keys, keyTypeName, projections.get(table), connection);
+            }
+
+            for (Iterator<String> iterator = keys.iterator(); iterator.hasNext(); ) {
+                String key = iterator.next();
+                SyncDeltaBuilder delta = new SyncDeltaBuilder().setToken(currentToken);
+                if (stream.isEntityStream()) {
+                    delta.setDeltaType(SyncDeltaType.DELETE)
+                        .setObjectClass(table.getObjectClass())
+                        .setUid(new Uid(key));
+                } else if (objects.containsKey(key)) {
+                    delta.setDeltaType(SyncDeltaType.CREATE_OR_UPDATE)
+                        .setObject(objects.get(key));
+                } else {
+                    iterator.remove();
+                    continue;
+                }
+
+                boolean proceed = handler.handle(delta.build());
+                iterator.remove();
+                if (!proceed) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
-    private void handleResultSet(ResultSet resultSet, SyncToken currentToken, SyncResultsHandler handler) {
+    private boolean hasPendingChanges(List<ChangeStream> streams, OffsetDateTime horizon, Connection connection)
+        throws SQLException {
+
+        for (ChangeStream stream : streams) {
+            try (PreparedStatement preparedStatement = connection.prepareStatement(stream.pendingQuery())) {
+                preparedStatement.setObject(1, horizon);
+                try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                    resultSet.next();
+                    if (resultSet.getBoolean(1)) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
 
-        try {
-                String accountId = resultSet.getString("account_id");
+    private String keyTypeName(TableMapping table, Connection connection) throws SQLException {
+        String sql = "SELECT " + table.getKeyColumn() + " FROM " + table.getTable() + " LIMIT 0";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            ResultSet resultSet = preparedStatement.executeQuery()) {
+            return resultSet.getMetaData().getColumnTypeName(1);
+        }
+    }
 
-                ConnectorObject obj = new ConnectorObjectBuilder()
-                    .setUid(accountId)
-                    .setObjectClass(ObjectClass.ACCOUNT)
-                    .build();
+    private void fetch(
+        StreamCursor cursor,
+        OffsetDateTime horizon,
+        int batchSize,
+        Map<TableMapping, String> keyTypes,
+        Connection connection) throws SQLException {
+
+        SyncWatermark after = cursor.fetched;
+        String sql = cursor.stream.changesQuery(after != null, after != null && after.getKey() != null);
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (after != null) {
+                preparedStatement.setTimestamp(index++, after.getTimestamp());
+                if (after.getKey() != null) {
+                    SqlFilter.bindValue(preparedStatement, index++, after.getKey());
+                }
+            }
+            preparedStatement.setObject(index++, horizon);
+            preparedStatement.setInt(index, batchSize);
+
+            int read = 0;
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                keyTypes.putIfAbsent(cursor.stream.getTarget(),
+                    resultSet.getMetaData().getColumnTypeName(resultSet.findColumn("key")));
+
+                while (resultSet.next()) {
+                    read++;
+                    SyncWatermark watermark = new SyncWatermark(
+                        resultSet.getTimestamp("changed_at"), resultSet.getString("key"));
+                    cursor.buffer.add(new Change(cursor.stream, watermark));
+                    cursor.fetched = watermark;
+                }
+            }
+            cursor.exhausted = read < batchSize;
+        }
+    }
 
-                SyncDelta delta = new SyncDeltaBuilder()
-                    .setDeltaType(SyncDeltaType.CREATE_OR_UPDATE)
-                    .setObject(obj)
-                    .setToken(currentToken)
-                    .build();
+    private Horizon horizon(Connection connection) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(HORIZON)) {
+            preparedStatement.setDouble(1, configuration.getSyncCommitLag() / 1000.0);
+            preparedStatement.setDouble(2, configuration.getSyncHorizonMaxHold() / 1000.0);
+            preparedStatement.setString(3, StreamingRead.READER_APPLICATION);
+            preparedStatement.setDouble(4, configuration.getSyncIdleTransactionTimeout() / 1000.0);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                resultSet.next();
+                OffsetDateTime nominal = resultSet.getObject("nominal", OffsetDateTime.class);
+                OffsetDateTime floor = resultSet.getObject("floor", OffsetDateTime.class);
+                OffsetDateTime oldest = resultSet.getObject("xact_start", OffsetDateTime.class);
+                if (oldest == null || !oldest.isBefore(nominal)) {
+                    return new Horizon(nominal, 0);
+                }
+
+                OffsetDateTime time = oldest.isBefore(floor) ? floor : oldest;
+                long heldMillis = Duration.between(time, nominal).toMillis();
+                if (time.equals(floor)) {
+                    LOG.warn("LiveSync is held back by the maximum of {0} ms by the transaction of backend {1} ({2})"
+                        + " open since {3}; changes it commits later may be skipped",
+                        configuration.getSyncHorizonMaxHold(), resultSet.getInt("pid"),
+                        resultSet.getString("application_name"), oldest);
+                } else {
+                    LOG.ok("LiveSync is held back by {0} ms by the transaction of backend {1} ({2})",
+                        heldMillis, resultSet.getInt("pid"), resultSet.getString("application_name"));
+                }
+                return new Horizon(time, heldMillis);
+            }
+        }
+    }
 
-                handler.handle(delta);
-        } catch (SQLException e) {
-        throw new ConnectorException("handleResultSet() failed: " + e.getMessage(), e);
+    // The newest change below the horizon; everything after it is still to come.
+    private SyncWatermark latestWatermark(ChangeStream stream, OffsetDateTime horizon, Connection connection)
+        throws SQLException {
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(stream.latestQuery())) {
+            preparedStatement.setObject(1, horizon);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                if (resultSet.next()) {
+                    return new SyncWatermark(resultSet.getTimestamp("changed_at"), resultSet.getString("key"));
+                }
+                return new SyncWatermark(Timestamp.from(horizon.toInstant()), null);
+            }
+        }
     }
+
+    /*
+     * Deletions carry the token of the generation they were found from, so a run that
+     * stops among them finds them again.
+     */
+    private boolean handleDeletes(
+        DeleteDetector detector,
+        TableMapping table,
+        long generation,
+        Connection connection,
+        SyncToken currentToken,
+        SyncResultsHandler handler) throws SQLException {
+
+        for (String key : detector.detect(generation, connection, configuration.getFetchSize())) {
+            SyncDelta delta = new SyncDeltaBuilder()
+                .setDeltaType(SyncDeltaType.DELETE)
+                .setObjectClass(table.getObjectClass())
+                .setUid(new Uid(key))
+                .setToken(currentToken)
+                .build();
+
+            if (!handler.handle(delta)) {
+                return false;
+            }
+        }
+        return true;
     }
 
-    private Timestamp getTimestampFromToken(SyncToken token) {
-        
-        try {
-            byte[] data = Base64.getDecoder().decode(token.getValue().toString());
+    /*
+     * Reads the current state of every object the window touches, one query per table,
+     * and hands out one delta per object at its last change in the window: earlier
+     * changes of the same object are covered by that delta, so the token of any
+     * delta handed out before it may safely lie past them.
+     */
+    private boolean handleWindow(
+        List<Change> window,
+        String consumer,
+        long generation,
+        Map<ChangeStream, SyncWatermark> position,
+        Processing processing,
+        Map<TableMapping, Projection> projections,
+        Map<TableMapping, String> keyTypes,
+        SyncResultsHandler handler,
+        Connection connection) {
+
+        Map<TableMapping, Map<String, Integer>> lastChange = new EnumMap<>(TableMapping.class);
+        for (int i = 0; i < window.size(); i++) {
+            Change change = window.get(i);
+            lastChange.computeIfAbsent(change.stream.getTarget(), t -> new LinkedHashMap<>())
+                .put(change.watermark.getKey(), i);
+        }
+
+        Map<TableMapping, Map<String, ConnectorObject>> objects = new EnumMap<>(TableMapping.class);
+        for (Map.Entry<TableMapping, Map<String, Integer>> entry : lastChange.entrySet()) {
+            TableMapping table = entry.getKey();
+            objects.put(table, processing.fetchByKeys(
+                table, entry.getValue().keySet(), keyTypes.get(table), projections.get(table), connection));
+        }
 
-            try (ByteArrayInputStream baos = new ByteArrayInputStream(data);
-                ObjectInputStream objectInputStream = new ObjectInputStream(baos)) {
-                    Object obj = objectInputStream.readObject();
-                    return (Timestamp) obj;
+        for (int i = 0; i < window.size(); i++) {
+            Change change = window.get(i);
+            position.put(change.stream, change.watermark);
+
+            TableMapping table = change.stream.getTarget();
+            String key = change.watermark.getKey();
+            if (lastChange.get(table).get(key) != i) {
+                continue;
             }
 
+            // gone since it changed; delete detection reports it
+            ConnectorObject obj = objects.get(table).get(key);
+            if (obj == null) {
+                continue;
+            }
 
+            SyncDelta delta = new SyncDeltaBuilder()
+                .setDeltaType(SyncDeltaType.CREATE_OR_UPDATE)
+                .setObject(obj)
+                .setToken(createSyncToken(consumer, generation, position))
+                .build();
 
-        } catch (Exception e) {
-        throw new ConnectorException("Failed to get Timestamp from SyncToken", e);
+            if (!handler.handle(delta)) {
+                return false;
+            }
+        }
+        return true;
     }
+
+    /*
+     * Streams a token does not mention (a token written before the stream was followed,
+     * or one handed out before the stream produced its first change) resume at the
+     * earliest timestamp the token does have, inclusive: the merge order guarantees
+     * they had nothing older.
+     */
+    private Map<ChangeStream, SyncWatermark> getPositionFromToken(SyncToken token, List<ChangeStream> streams) {
+        Map<ChangeStream, SyncWatermark> position =
+            SyncTokenCodec.decodePosition(token.getValue().toString(), streams.get(0));
+        position.keySet().retainAll(streams);
+
+        Timestamp earliest = null;
+        for (SyncWatermark watermark : position.values()) {
+            if (earliest == null || watermark.getTimestamp().before(earliest)) {
+                earliest = watermark.getTimestamp();
+            }
+        }
+        if (earliest != null) {
+            Timestamp justBefore = Timestamp.from(earliest.toInstant().minusNanos(1000));
+            for (ChangeStream stream : streams) {
+                position.putIfAbsent(stream, new SyncWatermark(justBefore, null));
+            }
+        }
+        return position;
     }
 
-    private SyncToken createSyncToken(Timestamp timestamp) {
+    private SyncToken createSyncToken(String consumer, long generation, Map<ChangeStream, SyncWatermark> position) {
+        return new SyncToken(SyncTokenCodec.encode(consumer, generation, position));
+    }
 
-        LOG.info("createSyncToken()");
+    public SyncToken getLatestSyncToken(ObjectClass objectClass, Connection connection) {
+        LOG.info("getLatestSyncToken()");
 
-        String currentTokenStr = "";
-        Timestamp currentTimestamp = (timestamp != null) ? timestamp : new Timestamp(new Date().getTime());
+        List<ChangeStream> streams = ChangeStream.forObjectClass(objectClass);
 
-        try (ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            ObjectOutputStream objectOutputStream = new ObjectOutputStream(baos)) {
+        try {
+            OffsetDateTime horizon = horizon(connection).time;
 
-            objectOutputStream.writeObject(currentTimestamp);
-            currentTokenStr = Base64.getEncoder().encodeToString(baos.toByteArray());
+            Map<ChangeStream, SyncWatermark> position = new EnumMap<>(ChangeStream.class);
+            for (ChangeStream stream : streams) {
+                position.put(stream, latestWatermark(stream, horizon, connection));
+            }
+            return createSyncToken(SyncTokenCodec.newConsumer(), 0, position);
 
         } catch (Exception e) {
-            throw new ConnectorException("createSyncToken() failed", e);
+            throw new ConnectorException("Failed to get latest SyncToken for " + objectClass, e);
         }
 
-        return new SyncToken(currentTokenStr);
     }
 
-    public SyncToken getLatestSyncToken(ObjectClass objectClass, Connection connection) {
-        LOG.info("getLatestSyncToken()");
+    private static final class Horizon {
 
-        String tableName;
-        if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
-            tableName = "public.accounts";
-        } else if (objectClass.is("Permission")) {
-            tableName = "public.permission";
-        } else {
-            throw new IllegalArgumentException("Unsupported object class: " + objectClass);
+        private final OffsetDateTime time;
+        // how much earlier than the commit lag alone it is
+        private final long heldMillis;
+
+        Horizon(OffsetDateTime time, long heldMillis) {
+            this.time = time;
+            this.heldMillis = heldMillis;
         }
+    }
 
-        String sql = "SELECT MAX(last_modified_at) AS last_ts FROM " + tableName;
+    private static final class Change {
 
-        try (
-         PreparedStatement preparedStatement = connection.prepareStatement(sql);
-         ResultSet resultSet = preparedStatement.executeQuery()) {
+        private final ChangeStream stream;
+        private final SyncWatermark watermark;
 
-        Timestamp latestTimestamp = resultSet.getTimestamp("last_ts");
+        Change(ChangeStream stream, SyncWatermark watermark) {
+            this.stream = stream;
+            this.watermark = watermark;
+        }
 
-        return createSyncToken(latestTimestamp);
+        // ties between streams go to the stream declared first
+        boolean before(Change other) {
+            int order = watermark.getTimestamp().compareTo(other.watermark.getTimestamp());
+            return order < 0 || order == 0 && stream.ordinal() < other.stream.ordinal();
+        }
+    }
 
-        } catch (Exception e) {
-            throw new ConnectorException("Failed to get latest SyncToken for " + objectClass, e);
+    private static final class StreamCursor {
+
+        private final ChangeStream stream;
+        private final Deque<Change> buffer = new ArrayDeque<>();
+        private SyncWatermark fetched;
+        private boolean exhausted;
+
+        StreamCursor(ChangeStream stream, SyncWatermark watermark) {
+            this.stream = stream;
+            this.fetched = watermark;
         }
 
+        Change peek() {
+            return buffer.peek();
+        }
     }
-    
+
 }
@@ -0,0 +1,40 @@
+package ru.ctsg.idmcae.builders;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.identityconnectors.framework.common.objects.Schema;
+
+import ru.ctsg.idmcae.query.TableMapping;
+import ru.ctsg.idmcae.query.TableSchema;
+
+/**
+ * The connector schema as introspected from one database, together with the table
+ * definitions it was built from and the fingerprint of the catalog rows it reflects.
+ * Immutable; a DDL change produces a new instance.
+ */
+public final class SchemaDefinition {
+
+    private final Schema schema;
+    private final Map<TableMapping, TableSchema> tables;
+    private final String fingerprint;
+
+    SchemaDefinition(Schema schema, Map<TableMapping, TableSchema> tables, String fingerprint) {
+        this.schema = schema;
+        this.tables = Collections.unmodifiableMap(new EnumMap<>(tables));
+        this.fingerprint = fingerprint;
+    }
+
+    public Schema getSchema() {
+        return schema;
+    }
+
+    public TableSchema table(TableMapping table) {
+        return tables.get(table);
+    }
+
+    public String getFingerprint() {
+        return fingerprint;
+    }
+}
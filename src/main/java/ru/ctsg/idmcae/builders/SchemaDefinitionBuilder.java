@@ -1,77 +1,158 @@
 package ru.ctsg.idmcae.builders;
 
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.ZonedDateTime;
+import java.util.EnumMap;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
+import java.util.LinkedHashMap;
+import java.util.Map;
 import java.util.Set;
 
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.AttributeInfo;
 import org.identityconnectors.framework.common.objects.AttributeInfoBuilder;
 import org.identityconnectors.framework.common.objects.Name;
-import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ObjectClassInfo;
 import org.identityconnectors.framework.common.objects.ObjectClassInfoBuilder;
-import org.identityconnectors.framework.common.objects.Schema;
+import org.identityconnectors.framework.common.objects.OperationOptionInfoBuilder;
 import org.identityconnectors.framework.common.objects.SchemaBuilder;
 import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.spi.operations.SearchOp;
+import org.identityconnectors.framework.spi.operations.SyncOp;
 
 import ru.ctsg.idmcae.ADLKConnector;
-
+import ru.ctsg.idmcae.query.TableMapping;
+import ru.ctsg.idmcae.query.TableSchema;
+
+/**
+ * Builds the connector schema from the columns the tables actually have, read from
+ * information_schema. Every column becomes an attribute of the same name, typed
+ * after its PostgreSQL type; memberOf/members are added on top.
+ */
 public class SchemaDefinitionBuilder {
 
-    private final Set<String> attributeSetAccount = new HashSet<>();
-    private final Set<String> attributeSetPermission = new HashSet<>();
-    private final Set<String> multiValueAttributes = new HashSet<>();
-    private final Set<String> booleanAttributes = new HashSet<>();
-
-    public SchemaDefinitionBuilder(){
-
-        attributeSetAccount.addAll(List.of(
-        "account_id", 
-        "username", 
-        "full_name", 
-        "email", 
-        "memberOf",
-        "is_active", 
-        "created_at", 
-        "last_modified_at"
-        ));
-
-        attributeSetPermission.addAll(List.of(
-            "permission_uid", 
-            "code", 
-            "display_name", 
-            "members", 
-            "category", 
-            "created_at"
-        ));
-
-        multiValueAttributes.addAll(List.of(
-            "members", 
-            "memberOf"
-        ));
-
-        booleanAttributes.add("is_active");
-
+    // one catalog lookup by relation oid; changes whenever a column is added,
+    // dropped, renamed or retyped
+    private static final String FINGERPRINT = """
+        SELECT md5(coalesce(string_agg(
+            a.attrelid::regclass::text || '.' || a.attname || ':' || format_type(a.atttypid, a.atttypmod),
+            ',' ORDER BY a.attrelid::regclass::text, a.attnum), ''))
+        FROM pg_attribute a
+        WHERE a.attrelid IN (SELECT to_regclass(t) FROM unnest(?::text[]) t)
+          AND a.attnum > 0 AND NOT a.attisdropped
+        """;
+
+    private static final String COLUMNS = """
+        SELECT table_schema, table_name, column_name, udt_name
+        FROM information_schema.columns
+        WHERE table_schema = ANY(?) AND table_name = ANY(?)
+        ORDER BY table_schema, table_name, ordinal_position
+        """;
+
+    private static final Set<String> TEXT_TYPES = Set.of("text", "varchar", "bpchar", "citext");
+
+    /**
+     * A digest of the column definitions of all mapped tables.
+     */
+    public static String fingerprint(Connection connection) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(FINGERPRINT)) {
+            preparedStatement.setArray(1, connection.createArrayOf("text", tableNames()));
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getString(1);
+            }
+        }
     }
 
-
-    public Schema buildSchema() {
+    public SchemaDefinition buildSchema(Connection connection, String fingerprint) throws SQLException {
+        Map<String, Map<String, String>> columnTypes = readColumns(connection);
 
         SchemaBuilder schemaBuilder = new SchemaBuilder(ADLKConnector.class);
+        Map<TableMapping, TableSchema> tables = new EnumMap<>(TableMapping.class);
+
+        for (TableMapping table : TableMapping.values()) {
+            Map<String, String> columns = columnTypes.get(table.getTable());
+            if (columns == null) {
+                throw new ConnectorException("Table " + table.getTable() + " does not exist or is not visible");
+            }
+            if (!columns.containsKey(table.getKeyColumn()) || !columns.containsKey(table.getNameColumn())) {
+                throw new ConnectorException("Table " + table.getTable() + " has no column "
+                    + table.getKeyColumn() + " or " + table.getNameColumn());
+            }
+
+            ObjectClassInfoBuilder builder = new ObjectClassInfoBuilder();
+            builder.setType(table.getObjectClassName());
+            addConnIdCoreAttrs(builder);
+
+            Set<String> textColumns = new HashSet<>();
+            for (Map.Entry<String, String> column : columns.entrySet()) {
+                addColumnAttr(builder, table, column.getKey(), column.getValue());
+                if (TEXT_TYPES.contains(column.getValue())) {
+                    textColumns.add(column.getKey());
+                }
+            }
+
+            // memberships are expensive to read, so they are only returned on request
+            builder.addAttributeInfo(
+                    AttributeInfoBuilder.define(table.getMembershipAttribute())
+                            .setType(String.class)
+                            .setMultiValued(true)
+                            .setReturnedByDefault(false)
+                            .build()
+            );
+
+            ObjectClassInfo objectClassInfo = builder.build();
+            schemaBuilder.defineObjectClass(objectClassInfo);
+            tables.put(table, new TableSchema(table, objectClassInfo, columns.keySet(), textColumns));
+        }
+
+        // midPoint only pages searches and asks for attributes through options the schema declares
+        schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildPageSize(), SearchOp.class);
+        schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsCookie(), SearchOp.class);
+        schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildPagedResultsOffset(), SearchOp.class);
+        schemaBuilder.defineOperationOption(OperationOptionInfoBuilder.buildAttributesToGet(), SearchOp.class, SyncOp.class);
+        schemaBuilder.defineOperationOption(
+            OperationOptionInfoBuilder.buildReturnDefaultAttributes(), SearchOp.class, SyncOp.class);
+
+        return new SchemaDefinition(schemaBuilder.build(), tables, fingerprint);
+    }
 
-        // User object class
-        ObjectClassInfoBuilder accountBuilder = new ObjectClassInfoBuilder();
-        accountBuilder.setType(ObjectClass.ACCOUNT_NAME);
-        addConnIdCoreAttrs(accountBuilder);
-        addBusinessAttrs(accountBuilder, attributeSetAccount);
-        schemaBuilder.defineObjectClass(accountBuilder.build());
-
-        // Permission object class
-        ObjectClassInfoBuilder permissionBuilder = new ObjectClassInfoBuilder();
-        permissionBuilder.setType("Permission");
-        addConnIdCoreAttrs(permissionBuilder);
-        addBusinessAttrs(permissionBuilder, attributeSetPermission);
-        schemaBuilder.defineObjectClass(permissionBuilder.build());
-
-        return schemaBuilder.build();
+    private Map<String, Map<String, String>> readColumns(Connection connection) throws SQLException {
+        Set<String> schemas = new HashSet<>();
+        Set<String> names = new HashSet<>();
+        for (String table : tableNames()) {
+            int dot = table.indexOf('.');
+            schemas.add(table.substring(0, dot));
+            names.add(table.substring(dot + 1));
+        }
+
+        Map<String, Map<String, String>> columnTypes = new HashMap<>();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(COLUMNS)) {
+            preparedStatement.setArray(1, connection.createArrayOf("text", schemas.toArray()));
+            preparedStatement.setArray(2, connection.createArrayOf("text", names.toArray()));
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    columnTypes.computeIfAbsent(resultSet.getString(1) + "." + resultSet.getString(2),
+                            table -> new LinkedHashMap<>())
+                        .put(resultSet.getString(3), resultSet.getString(4));
+                }
+            }
+        }
+        return columnTypes;
+    }
+
+    private static String[] tableNames() {
+        TableMapping[] tables = TableMapping.values();
+        String[] names = new String[tables.length];
+        for (int i = 0; i < tables.length; i++) {
+            names[i] = tables[i].getTable();
+        }
+        return names;
     }
 
     private void addConnIdCoreAttrs(ObjectClassInfoBuilder builder) {
@@ -98,19 +179,36 @@ public class SchemaDefinitionBuilder {
         );
     }
 
-    private void addBusinessAttrs(ObjectClassInfoBuilder builder, Set<String>  attrs) {
-    for (String attr : attrs) {
-            Class<?> type = booleanAttributes.contains(attr) ? Boolean.class : String.class;
-            boolean isMulti = multiValueAttributes.contains(attr);
+    private void addColumnAttr(ObjectClassInfoBuilder builder, TableMapping table, String column, String udtName) {
+        boolean writable = table.isWritableColumn(column);
 
-            builder.addAttributeInfo(
-                    AttributeInfoBuilder.define(attr)
-                            .setType(type)
-                            .setMultiValued(isMulti)
-                            .build()
-            );
+        AttributeInfoBuilder attribute = AttributeInfoBuilder.define(column)
+                .setType(attributeType(udtName))
+                .setCreateable(writable)
+                .setUpdateable(writable)
+                .setReturnedByDefault(true);
+        if ("uuid".equals(udtName)) {
+            attribute.setSubtype(AttributeInfo.Subtypes.STRING_UUID);
         }
+        builder.addAttributeInfo(attribute.build());
     }
 
-
+    private static Class<?> attributeType(String udtName) {
+        switch (udtName) {
+            case "bool":
+                return Boolean.class;
+            case "int2":
+            case "int4":
+            case "int8":
+                return Long.class;
+            case "numeric":
+                return BigDecimal.class;
+            case "timestamp":
+            case "timestamptz":
+                return ZonedDateTime.class;
+            default:
+                // text, uuid and anything without a closer ConnId type
+                return String.class;
+        }
+    }
 }
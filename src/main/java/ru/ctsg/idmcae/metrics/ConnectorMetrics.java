@@ -0,0 +1,81 @@
+package ru.ctsg.idmcae.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Metrics of one shared connection pool, registered on the platform MBean server under
+ * {@code ru.ctsg.idmcae:type=Pool,pool=<name>} and
+ * {@code ru.ctsg.idmcae:type=Operation,pool=<name>,objectClass=<class>,operation=<op>}.
+ * Hikari registers its own pool beans under {@code com.zaxxer.hikari}.
+ */
+public final class ConnectorMetrics {
+
+    private static final Log LOG = Log.getLog(ConnectorMetrics.class);
+    private static final String DOMAIN = "ru.ctsg.idmcae";
+
+    private final String poolName;
+    private final PoolMetrics pool;
+    private final Map<String, OperationMetrics> operations = new ConcurrentHashMap<>();
+    private final List<ObjectName> registered = new CopyOnWriteArrayList<>();
+
+    public ConnectorMetrics(String poolName, HikariDataSource dataSource) {
+        this.poolName = poolName;
+        this.pool = new PoolMetrics(dataSource);
+        register(pool, DOMAIN + ":type=Pool,pool=" + value(poolName));
+    }
+
+    public PoolMetrics pool() {
+        return pool;
+    }
+
+    public OperationMetrics operation(String operation, ObjectClass objectClass) {
+        String objectClassName = objectClass == null ? "none" : objectClass.getObjectClassValue();
+        return operations.computeIfAbsent(objectClassName + '|' + operation, k -> {
+            OperationMetrics metrics = new OperationMetrics();
+            register(metrics, DOMAIN + ":type=Operation,pool=" + value(poolName)
+                + ",objectClass=" + value(objectClassName)
+                + ",operation=" + value(operation));
+            return metrics;
+        });
+    }
+
+    public void close() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        for (ObjectName name : registered) {
+            try {
+                server.unregisterMBean(name);
+            } catch (JMException e) {
+                LOG.warn("Failed to unregister MBean {0}: {1}", name, e.getMessage());
+            }
+        }
+        registered.clear();
+    }
+
+    private static String value(String value) {
+        return value.matches("[\\w.-]+") ? value : ObjectName.quote(value);
+    }
+
+    private void register(Object bean, String name) {
+        try {
+            ObjectName objectName = new ObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(bean, objectName);
+            registered.add(objectName);
+        } catch (JMException e) {
+            // metrics stay readable through the connector, only JMX exposure is lost
+            LOG.warn("Failed to register MBean {0}: {1}", name, e.getMessage());
+        }
+    }
+}
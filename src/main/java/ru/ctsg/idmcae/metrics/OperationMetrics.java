@@ -0,0 +1,88 @@
+package ru.ctsg.idmcae.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class OperationMetrics implements OperationMetricsMXBean {
+
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder handlerNanos = new LongAdder();
+    private volatile long watermarkLagMillis = -1;
+    private volatile long horizonHoldMillis = -1;
+
+    OperationMetrics() {
+    }
+
+    public void record(long nanos, boolean failed, long rowsEmitted, long handlerNanos) {
+        latency.record(nanos);
+        if (failed) {
+            errors.increment();
+        }
+        rows.add(rowsEmitted);
+        this.handlerNanos.add(handlerNanos);
+    }
+
+    public void recordWatermarkLag(long millis) {
+        watermarkLagMillis = millis;
+    }
+
+    public void recordHorizonHold(long millis) {
+        horizonHoldMillis = millis;
+    }
+
+    @Override
+    public long getCount() {
+        return latency.getCount();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return latency.getMeanMillis();
+    }
+
+    @Override
+    public double getP50Millis() {
+        return latency.getPercentileMillis(0.50);
+    }
+
+    @Override
+    public double getP95Millis() {
+        return latency.getPercentileMillis(0.95);
+    }
+
+    @Override
+    public double getP99Millis() {
+        return latency.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return latency.getMaxMillis();
+    }
+
+    @Override
+    public long getRowsEmitted() {
+        return rows.sum();
+    }
+
+    @Override
+    public double getHandlerMillis() {
+        return handlerNanos.sum() / 1e6;
+    }
+
+    @Override
+    public long getWatermarkLagMillis() {
+        return watermarkLagMillis;
+    }
+
+    @Override
+    public long getHorizonHoldMillis() {
+        return horizonHoldMillis;
+    }
+}
@@ -0,0 +1,43 @@
+package ru.ctsg.idmcae.metrics;
+
+/**
+ * One connector operation on one object class, counted since the pool was created.
+ */
+public interface OperationMetricsMXBean {
+
+    long getCount();
+
+    long getErrors();
+
+    double getMeanMillis();
+
+    double getP50Millis();
+
+    double getP95Millis();
+
+    double getP99Millis();
+
+    double getMaxMillis();
+
+    /**
+     * Objects or deltas handed to the results handler.
+     */
+    long getRowsEmitted();
+
+    /**
+     * Time spent inside the results handler, i.e. waiting for the caller to accept rows.
+     */
+    double getHandlerMillis();
+
+    /**
+     * Sync only: how far the last run's position trails the database, -1 before the
+     * first run.
+     */
+    long getWatermarkLagMillis();
+
+    /**
+     * Sync only: how far open transactions held the last run's horizon back beyond
+     * the commit lag, -1 before the first run.
+     */
+    long getHorizonHoldMillis();
+}
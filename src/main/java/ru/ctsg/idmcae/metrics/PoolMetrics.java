@@ -0,0 +1,77 @@
+package ru.ctsg.idmcae.metrics;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.HikariPoolMXBean;
+
+public final class PoolMetrics implements PoolMetricsMXBean {
+
+    private final HikariDataSource dataSource;
+    private final LatencyHistogram wait = new LatencyHistogram();
+    private final LatencyHistogram hold = new LatencyHistogram();
+
+    PoolMetrics(HikariDataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public void recordWait(long nanos) {
+        wait.record(nanos);
+    }
+
+    public void recordHold(long nanos) {
+        hold.record(nanos);
+    }
+
+    @Override
+    public int getActiveConnections() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getActiveConnections();
+    }
+
+    @Override
+    public int getIdleConnections() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getIdleConnections();
+    }
+
+    @Override
+    public int getTotalConnections() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getTotalConnections();
+    }
+
+    @Override
+    public int getThreadsAwaitingConnection() {
+        HikariPoolMXBean pool = dataSource.getHikariPoolMXBean();
+        return pool == null ? 0 : pool.getThreadsAwaitingConnection();
+    }
+
+    @Override
+    public long getBorrowCount() {
+        return wait.getCount();
+    }
+
+    @Override
+    public double getWaitMeanMillis() {
+        return wait.getMeanMillis();
+    }
+
+    @Override
+    public double getWaitP99Millis() {
+        return wait.getPercentileMillis(0.99);
+    }
+
+    @Override
+    public double getWaitMaxMillis() {
+        return wait.getMaxMillis();
+    }
+
+    @Override
+    public double getHoldMeanMillis() {
+        return hold.getMeanMillis();
+    }
+
+    @Override
+    public double getHoldP99Millis() {
+        return hold.getPercentileMillis(0.99);
+    }
+}
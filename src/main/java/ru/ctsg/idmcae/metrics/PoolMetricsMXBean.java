@@ -0,0 +1,28 @@
+package ru.ctsg.idmcae.metrics;
+
+/**
+ * A shared connection pool: Hikari's live counts plus how long operations waited for
+ * and held their connection.
+ */
+public interface PoolMetricsMXBean {
+
+    int getActiveConnections();
+
+    int getIdleConnections();
+
+    int getTotalConnections();
+
+    int getThreadsAwaitingConnection();
+
+    long getBorrowCount();
+
+    double getWaitMeanMillis();
+
+    double getWaitP99Millis();
+
+    double getWaitMaxMillis();
+
+    double getHoldMeanMillis();
+
+    double getHoldP99Millis();
+}
@@ -0,0 +1,234 @@
+package ru.ctsg.idmcae.processing;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.identityconnectors.framework.common.objects.Uid;
+
+import ru.ctsg.idmcae.ConnectionScope;
+import ru.ctsg.idmcae.query.SqlFilter;
+import ru.ctsg.idmcae.query.TableMapping;
+
+/**
+ * Coalesces concurrent inserts into one table into a single transaction.
+ *
+ * The first caller to arrive opens a batch and becomes its leader: it waits for the
+ * group commit window to pass or the batch to fill up, then runs all rows as one JDBC
+ * batch on its own connection and commits once. The other callers only wait for
+ * their result and never borrow a connection. If the batch fails, the rows are
+ * retried one by one behind savepoints, so that every caller gets its own key or its
+ * own error; whatever the leader fails with, every caller of the batch gets it. A
+ * caller waits for its batch at most the window plus twice the connection timeout,
+ * one for the leader to get a connection and one for the batch to run.
+ */
+public final class GroupCommit {
+
+    private static final Log LOG = Log.getLog(GroupCommit.class);
+
+    private final TableMapping table;
+    private final String sql;
+    private final String operation;
+    private final int batchSize;
+    private final long windowNanos;
+    private final long awaitMillis;
+
+    private Batch open;
+
+    GroupCommit(TableMapping table, String sql, String operation, int batchSize, long windowMillis,
+        long connectionTimeout) {
+
+        this.table = table;
+        this.sql = sql;
+        this.operation = operation;
+        this.batchSize = batchSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.awaitMillis = windowMillis + 2 * connectionTimeout;
+    }
+
+    /**
+     * Inserts one row, given as values for the placeholders of the INSERT, and returns
+     * its generated key once the batch it joined is committed.
+     */
+    public Uid insert(Object[] values, ConnectionScope scope) {
+        Row row = new Row(values);
+        Batch batch;
+        boolean leader;
+
+        synchronized (this) {
+            leader = open == null;
+            if (leader) {
+                open = new Batch();
+            }
+            batch = open;
+            batch.rows.add(row);
+            if (batch.rows.size() >= batchSize) {
+                open = null;
+                notifyAll();
+            }
+        }
+
+        if (leader) {
+            awaitWindow(batch);
+            execute(batch, scope);
+        }
+        return row.await(awaitMillis);
+    }
+
+    private synchronized void awaitWindow(Batch batch) {
+        long deadline = System.nanoTime() + windowNanos;
+        try {
+            while (open == batch) {
+                long left = deadline - System.nanoTime();
+                if (left <= 0) {
+                    break;
+                }
+                TimeUnit.NANOSECONDS.timedWait(this, left);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (open == batch) {
+                open = null;
+            }
+        }
+    }
+
+    private void execute(Batch batch, ConnectionScope scope) {
+        List<Row> rows = batch.rows;
+        try {
+            try {
+                scope.inTransaction(connection -> insertBatch(connection, rows));
+            } catch (ConnectorException e) {
+                if (rows.size() == 1) {
+                    throw e;
+                }
+                LOG.info("Group commit of {0} rows into {1} failed, retrying row by row: {2}",
+                    rows.size(), table.getTable(), e.getMessage());
+                scope.inTransaction(connection -> insertEach(connection, rows));
+            }
+            for (Row row : rows) {
+                row.complete();
+            }
+        } catch (Throwable e) {
+            for (Row row : rows) {
+                row.result.completeExceptionally(e);
+            }
+            if (e instanceof Error) {
+                throw (Error) e;
+            }
+        }
+    }
+
+    private Void insertBatch(Connection connection, List<Row> rows) throws SQLException {
+        try (PreparedStatement preparedStatement =
+                connection.prepareStatement(sql, new String[] {table.getKeyColumn()})) {
+
+            for (Row row : rows) {
+                bind(preparedStatement, row);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+
+            // generated keys come back in batch order
+            try (ResultSet resultSet = preparedStatement.getGeneratedKeys()) {
+                for (Row row : rows) {
+                    if (!resultSet.next()) {
+                        throw new SQLException("Fewer generated keys than inserted rows");
+                    }
+                    row.key = resultSet.getString(1);
+                }
+            }
+        }
+        LOG.ok("Group commit inserted {0} rows into {1}", rows.size(), table.getTable());
+        return null;
+    }
+
+    private Void insertEach(Connection connection, List<Row> rows) throws SQLException {
+        try (PreparedStatement preparedStatement =
+                connection.prepareStatement(sql, new String[] {table.getKeyColumn()})) {
+
+            for (Row row : rows) {
+                row.key = null;
+                Savepoint savepoint = connection.setSavepoint();
+                try {
+                    bind(preparedStatement, row);
+                    preparedStatement.executeUpdate();
+                    try (ResultSet resultSet = preparedStatement.getGeneratedKeys()) {
+                        if (!resultSet.next()) {
+                            throw new SQLException("No generated key returned");
+                        }
+                        row.key = resultSet.getString(1);
+                    }
+                    connection.releaseSavepoint(savepoint);
+                } catch (SQLException e) {
+                    connection.rollback(savepoint);
+                    row.error = new ConnectorException(operation + " failed: " + e.getMessage(), e);
+                }
+            }
+        }
+        return null;
+    }
+
+    private void bind(PreparedStatement preparedStatement, Row row) throws SQLException {
+        for (int i = 0; i < row.values.length; i++) {
+            SqlFilter.bindValue(preparedStatement, i + 1, row.values[i]);
+        }
+    }
+
+    private static final class Batch {
+
+        private final List<Row> rows = new ArrayList<>();
+    }
+
+    private static final class Row {
+
+        private final Object[] values;
+        private final CompletableFuture<Uid> result = new CompletableFuture<>();
+        private String key;
+        private ConnectorException error;
+
+        Row(Object[] values) {
+            this.values = values;
+        }
+
+        void complete() {
+            if (error != null) {
+                result.completeExceptionally(error);
+            } else {
+                result.complete(new Uid(key));
+            }
+        }
+
+        Uid await(long timeoutMillis) {
+            try {
+                return result.get(timeoutMillis, TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new ConnectorException(e.getCause());
+            } catch (TimeoutException e) {
+                throw new OperationTimeoutException("Group commit did not finish within " + timeoutMillis
+                    + " ms; the row may still be inserted", e);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new OperationTimeoutException("Interrupted while waiting for the group commit", e);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package ru.ctsg.idmcae.processing;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ru.ctsg.idmcae.ADLKConfiguration;
+import ru.ctsg.idmcae.query.TableMapping;
+
+/**
+ * The {@link GroupCommit groups} of a shared connection pool, one per INSERT and
+ * group settings, so instances with another batch size or window get their own.
+ */
+public final class GroupCommits {
+
+    private final ConcurrentMap<String, GroupCommit> groups = new ConcurrentHashMap<>();
+
+    /**
+     * The group of {@code table}; {@code sql} is its INSERT without RETURNING and
+     * {@code operation} names the failures.
+     */
+    GroupCommit forTable(ADLKConfiguration configuration, TableMapping table, String sql, String operation) {
+        int batchSize = configuration.getGroupCommitBatchSize();
+        long windowMillis = configuration.getGroupCommitWindow();
+        String key = batchSize + "|" + windowMillis + "|" + sql;
+        return groups.computeIfAbsent(key, k -> new GroupCommit(table, sql, operation, batchSize, windowMillis,
+            configuration.getConnectionTimeout()));
+    }
+}
@@ -0,0 +1,282 @@
+package ru.ctsg.idmcae.processing;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.SearchResult;
+
+import ru.ctsg.idmcae.ConnectionScope;
+import ru.ctsg.idmcae.query.Projection;
+import ru.ctsg.idmcae.query.SqlFilter;
+import ru.ctsg.idmcae.query.StreamingRead;
+import ru.ctsg.idmcae.query.TableMapping;
+
+/**
+ * A full scan of a table with an integer key, split into key ranges that are read
+ * concurrently, each on its own pooled connection. The operation's connection exports
+ * a snapshot that every partition imports, so together they see the table as of one
+ * moment, as a single query would. Objects reach the results handler on the calling
+ * thread through a bounded queue; partitions that get ahead of the handler wait, so
+ * memory stays at the queue capacity plus one fetch per partition.
+ *
+ * Partitions run on the pool's {@link ParallelScans}, as many as it has permits free;
+ * with fewer than two, or a key that is not an integer, the caller scans serially.
+ */
+final class ParallelScan {
+
+    private static final Log LOG = Log.getLog(ParallelScan.class);
+    private static final long POLL_MILLIS = 100;
+    private static final int MIN_QUEUE_PER_PARTITION = 64;
+    private static final Set<String> INTEGER_TYPES = Set.of("int2", "int4", "int8");
+
+    // marks the end of one partition in the queue
+    private static final Object END = new Object();
+
+    private final Processing processing;
+    private final TableMapping table;
+    private final int partitions;
+    private final BlockingQueue<Object> queue;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+
+    private volatile boolean cancelled;
+
+    ParallelScan(Processing processing, TableMapping table, int partitions, int fetchSize) {
+        this.processing = processing;
+        this.table = table;
+        this.partitions = partitions;
+        this.queue = new ArrayBlockingQueue<>(partitions * Math.max(fetchSize, MIN_QUEUE_PER_PARTITION));
+    }
+
+    /**
+     * Scans the table; null if it must be scanned serially instead.
+     */
+    SearchResult search(Projection projection, ResultsHandler handler, ConnectionScope scope) {
+        ParallelScans scans = scope.getParallelScans();
+        int granted = scans.acquire(partitions);
+        if (granted == 0) {
+            LOG.ok("No connections free for a parallel scan of {0}", table.getTable());
+            return null;
+        }
+
+        Connection connection = scope.getConnection();
+        try {
+            boolean readOnly = connection.isReadOnly();
+            int isolation = connection.getTransactionIsolation();
+            connection.setReadOnly(true);
+            connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+            connection.setAutoCommit(false);
+            try {
+                StreamingRead.markReader(connection);
+                List<SqlFilter> ranges = ranges(connection, granted);
+                if (ranges == null) {
+                    return null;
+                }
+                // same snapshot as the ranges; the transaction stays open until every partition has been read
+                String snapshot = exportSnapshot(connection);
+                LOG.info("Scanning {0} in {1} key ranges on snapshot {2}", table.getTable(), ranges.size(), snapshot);
+                drain(start(ranges, snapshot, projection, scope, scans), handler);
+                return new SearchResult(null, 0);
+            } finally {
+                connection.rollback();
+                connection.setAutoCommit(true);
+                connection.setTransactionIsolation(isolation);
+                connection.setReadOnly(readOnly);
+            }
+        } catch (SQLException e) {
+            throw new ConnectorException(
+                "Failed to execute query for " + table.getObjectClassName() + ": " + e.getMessage(), e);
+        } finally {
+            scans.release(granted);
+        }
+    }
+
+    private static String exportSnapshot(Connection connection) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT pg_export_snapshot()");
+            ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+
+    /*
+     * Equal slices of the key span; the last one is open above, and an empty table
+     * has no ranges at all. Null if the key is not an integer or its span is too wide.
+     */
+    private List<SqlFilter> ranges(Connection connection, int partitions) throws SQLException {
+        String key = table.getKeyColumn();
+        long min;
+        long max;
+        try (PreparedStatement preparedStatement =
+                connection.prepareStatement("SELECT min(" + key + "), max(" + key + ") FROM " + table.getTable());
+            ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            String keyType = resultSet.getMetaData().getColumnTypeName(1);
+            if (!INTEGER_TYPES.contains(keyType)) {
+                LOG.warn("Key {0} of {1} is {2}, not an integer; scanning serially", key, table.getTable(), keyType);
+                return null;
+            }
+            resultSet.next();
+            min = resultSet.getLong(1);
+            if (resultSet.wasNull()) {
+                return List.of();
+            }
+            max = resultSet.getLong(2);
+        }
+
+        List<SqlFilter> ranges = ranges(key, min, max, partitions);
+        if (ranges == null) {
+            LOG.warn("Keys of {0} span {1} to {2}, too wide to split; scanning serially", table.getTable(), min, max);
+        }
+        return ranges;
+    }
+
+    /*
+     * Slices of [min, max] on {@code key}, the last one open above; null if the
+     * arithmetic would overflow a long.
+     */
+    static List<SqlFilter> ranges(String key, long min, long max, int partitions) {
+        try {
+            long span = Math.addExact(Math.subtractExact(max, min), 1);
+            long count = Math.min(partitions, span);
+            long step = (span - 1) / count + 1;
+            List<SqlFilter> ranges = new ArrayList<>((int) count);
+            for (long i = 0; i < count; i++) {
+                long lower = Math.addExact(min, Math.multiplyExact(i, step));
+                ranges.add(i == count - 1
+                    ? new SqlFilter(key + " >= ?", List.of(lower))
+                    : new SqlFilter(key + " >= ? AND " + key + " < ?", List.of(lower, Math.addExact(lower, step))));
+            }
+            return ranges;
+        } catch (ArithmeticException e) {
+            return null;
+        }
+    }
+
+    private List<Future<?>> start(
+        List<SqlFilter> ranges, String snapshot, Projection projection, ConnectionScope scope, ParallelScans scans) {
+
+        List<Future<?>> workers = new ArrayList<>(ranges.size());
+        for (SqlFilter range : ranges) {
+            workers.add(scans.submit(() -> scan(range, snapshot, projection, scope)));
+        }
+        return workers;
+    }
+
+    private void scan(SqlFilter range, String snapshot, Projection projection, ConnectionScope scope) {
+        try {
+            scope.withBorrowed(connection -> {
+                boolean readOnly = connection.isReadOnly();
+                int isolation = connection.getTransactionIsolation();
+                connection.setReadOnly(true);
+                connection.setTransactionIsolation(Connection.TRANSACTION_REPEATABLE_READ);
+                connection.setAutoCommit(false);
+                try {
+                    // must come first in the transaction
+                    try (Statement statement = connection.createStatement()) {
+                        statement.execute("SET TRANSACTION SNAPSHOT '" + snapshot + "'");
+                    }
+                    StreamingRead.markReader(connection);
+                    processing.search(table, range, projection, this::offer, null, connection);
+                    return null;
+                } finally {
+                    connection.rollback();
+                    connection.setAutoCommit(true);
+                    connection.setTransactionIsolation(isolation);
+                    connection.setReadOnly(readOnly);
+                }
+            });
+        } catch (SQLException e) {
+            fail(new ConnectorException(
+                "Failed to execute query for " + table.getObjectClassName() + ": " + e.getMessage(), e));
+        } catch (RuntimeException e) {
+            fail(e);
+        } finally {
+            offer(END);
+        }
+    }
+
+    private void fail(RuntimeException e) {
+        failure.compareAndSet(null, e);
+        cancelled = true;
+    }
+
+    /*
+     * Waits for room in the queue; false once the scan was cancelled, which stops the
+     * partition's search.
+     */
+    private boolean offer(Object object) {
+        try {
+            while (!cancelled) {
+                if (queue.offer(object, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return true;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    private void drain(List<Future<?>> workers, ResultsHandler handler) {
+        int running = workers.size();
+        try {
+            while (running > 0 && failure.get() == null) {
+                Object next = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (next == END) {
+                    running--;
+                } else if (next != null && !handler.handle((ConnectorObject) next)) {
+                    break;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail(new ConnectorException("Parallel scan of " + table.getTable() + " was interrupted", e));
+        } finally {
+            cancelled = true;
+            // partitions give up within a poll interval; their connections must be back before returning
+            for (Future<?> worker : workers) {
+                awaitQuietly(worker);
+            }
+            queue.clear();
+        }
+
+        RuntimeException e = failure.get();
+        if (e != null) {
+            throw e;
+        }
+    }
+
+    private static void awaitQuietly(Future<?> worker) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                worker.get();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            } catch (ExecutionException e) {
+                break;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
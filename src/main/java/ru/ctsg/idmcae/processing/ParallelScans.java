@@ -0,0 +1,53 @@
+package ru.ctsg.idmcae.processing;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * What the {@link ParallelScan parallel scans} of a shared connection pool run on: a
+ * permit per connection a partition borrows, half the pool's connections in all, and
+ * a thread per permit. The rest of the pool stays free for other operations; a scan
+ * that finds fewer than two permits free runs serially. Shut down with the pool.
+ */
+public final class ParallelScans {
+
+    private final Semaphore connections;
+    private final ExecutorService workers;
+
+    public ParallelScans(int maxPoolSize) {
+        int permits = Math.max(maxPoolSize / 2, 1);
+        this.connections = new Semaphore(permits);
+        this.workers = Executors.newFixedThreadPool(permits, runnable -> {
+            Thread thread = new Thread(runnable, "adlk-parallel-scan");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * Takes up to {@code partitions} permits without waiting; returns how many, or 0
+     * if fewer than two were free.
+     */
+    int acquire(int partitions) {
+        for (int granted = partitions; granted >= 2; granted--) {
+            if (connections.tryAcquire(granted)) {
+                return granted;
+            }
+        }
+        return 0;
+    }
+
+    void release(int permits) {
+        connections.release(permits);
+    }
+
+    Future<?> submit(Runnable partition) {
+        return workers.submit(partition);
+    }
+
+    public void shutdown() {
+        workers.shutdownNow();
+    }
+}
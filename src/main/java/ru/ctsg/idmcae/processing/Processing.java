@@ -1,20 +1,414 @@
 package ru.ctsg.idmcae.processing;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
 
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.InvalidAttributeValueException;
+import org.identityconnectors.framework.common.exceptions.UnknownUidException;
 import org.identityconnectors.framework.common.objects.Attribute;
-import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.AttributeDelta;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.Uid;
+
+import ru.ctsg.idmcae.ADLKConfiguration;
+import ru.ctsg.idmcae.ConnectionScope;
+import ru.ctsg.idmcae.builders.SchemaDefinition;
+import ru.ctsg.idmcae.query.MembershipLoader;
+import ru.ctsg.idmcae.query.Paging;
+import ru.ctsg.idmcae.query.Projection;
+import ru.ctsg.idmcae.query.RowMapper;
+import ru.ctsg.idmcae.query.SqlFilter;
+import ru.ctsg.idmcae.query.StreamingRead;
+import ru.ctsg.idmcae.query.TableMapping;
 
 public class Processing {
-    
-    protected boolean getBool(Set<Attribute> createAttributes, String attrIsActive, boolean b) {
-        Attribute attribute = AttributeUtil.find(attrIsActive, createAttributes);
-        return (boolean) attribute.getValue().get(0);
+
+    private static final Log LOG = Log.getLog(Processing.class);
+    private static final int DEFAULT_MEMBERSHIP_BATCH_SIZE = 500;
+
+    protected final ADLKConfiguration configuration;
+    private final SchemaDefinition definition;
+    private final Map<TableMapping, StatementCatalog> catalogs = new EnumMap<>(TableMapping.class);
+
+    public Processing(ADLKConfiguration configuration, SchemaDefinition definition) {
+        this.configuration = configuration;
+        this.definition = definition;
+        for (TableMapping table : TableMapping.values()) {
+            catalogs.put(table, new StatementCatalog(definition.table(table)));
+        }
+    }
+
+    /**
+     * The schema the statements of this instance were built from.
+     */
+    public SchemaDefinition getDefinition() {
+        return definition;
+    }
+
+    private StatementCatalog catalog(TableMapping table) {
+        return catalogs.get(table);
+    }
+
+    /**
+     * Inserts one row from the createable attributes; {@code defaults} fill in columns
+     * the attributes leave empty. With group commit enabled the row joins the batch
+     * of concurrent creates.
+     */
+    protected Uid create(
+        TableMapping table,
+        Set<Attribute> attributes,
+        Map<String, Object> defaults,
+        String operation,
+        ConnectionScope scope) {
+
+        StatementCatalog catalog = catalog(table);
+        Object[] values = catalog.insertValues(attributes, defaults);
+
+        if (configuration.isGroupCommit()) {
+            return scope.getGroupCommits().forTable(configuration, table, catalog.getInsert(), operation)
+                .insert(values, scope);
+        }
+
+        LOG.ok("Executing insert: {0}", catalog.getInsert());
+
+        try (PreparedStatement preparedStatement =
+                scope.getConnection().prepareStatement(catalog.getInsert(), new String[] {table.getKeyColumn()})) {
+
+            for (int i = 0; i < values.length; i++) {
+                SqlFilter.bindValue(preparedStatement, i + 1, values[i]);
+            }
+
+            if (preparedStatement.executeUpdate() == 0) {
+                throw new ConnectorException(operation + " failed: Affected rows is 0");
+            }
+
+            try (ResultSet resultSet = preparedStatement.getGeneratedKeys()) {
+                if (!resultSet.next()) {
+                    throw new ConnectorException(operation + " failed: No generated key returned.");
+                }
+                Uid uid = new Uid(resultSet.getString(1));
+                LOG.info("Created {0} {1}", table.getObjectClassName(), uid.getUidValue());
+                return uid;
+            }
+        } catch (SQLException e) {
+            throw new ConnectorException(operation + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    protected void delete(TableMapping table, Uid uid, String operation, Connection connection) {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(catalog(table).getDelete())) {
+            SqlFilter.bindValue(preparedStatement, 1, uid.getUidValue());
+
+            if (preparedStatement.executeUpdate() == 0) {
+                throw new UnknownUidException(uid, table.getObjectClass());
+            }
+            LOG.info("Deleted {0} {1}", table.getObjectClassName(), uid.getUidValue());
+
+        } catch (SQLException e) {
+            throw new ConnectorException(operation + " failed: " + e.getMessage(), e);
+        }
+    }
+
+    protected SearchResult search(
+        TableMapping table,
+        SqlFilter query,
+        Projection projection,
+        ResultsHandler resultsHandler,
+        OperationOptions operationOptions,
+        Connection connection) {
+
+        Paging paging = Paging.from(operationOptions);
+        SqlFilter where = paging.restrict(query, table.getKeyColumn());
+
+        String sql = catalog(table).select(projection, where, paging);
+
+        LOG.info("Executing search query: {0}", sql);
+
+        try (StreamingRead streamingRead = new StreamingRead(connection, configuration.getFetchSize());
+            PreparedStatement preparedStatement = streamingRead.prepareStatement(sql)) {
+
+            int index = where != null ? where.bind(preparedStatement, 1) : 1;
+            paging.bind(preparedStatement, index);
+
+            RowMapper mapper = projection.getMapper();
+            PageTracker tracker = new PageTracker(resultsHandler);
+            boolean more = false;
+            int read = 0;
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                MembershipLoader memberships = null;
+                if (projection.includesMembership()) {
+                    String keyTypeName = resultSet.getMetaData().getColumnTypeName(1);
+                    memberships = new MembershipLoader(
+                        table, mapper, connection, keyTypeName, membershipBatchSize(paging));
+                }
+
+                while (!tracker.isStopped() && resultSet.next()) {
+                    if (paging.isPaged() && read == paging.getPageSize()) {
+                        more = true;
+                        break;
+                    }
+                    read++;
+
+                    if (memberships == null) {
+                        tracker.handle(mapper.map(resultSet));
+                    } else {
+                        memberships.add(resultSet.getObject(1), mapper.read(resultSet), tracker);
+                    }
+                }
+
+                if (memberships != null && !tracker.isStopped()) {
+                    memberships.flush(tracker);
+                }
+            }
+
+            return more && !tracker.isStopped()
+                ? new SearchResult(tracker.getLastKey(), -1)
+                : new SearchResult(null, 0);
+
+        } catch (SQLException e) {
+            throw new ConnectorException(
+                "Failed to execute query for " + table.getObjectClassName() + ": " + e.getMessage(), e);
+        }
     }
 
-    protected String getString(Set<Attribute> createAttributes, String attrName) {
-        Attribute attribute = AttributeUtil.find(attrName, createAttributes);
-        return (String) attribute.getValue().get(0);
+    /**
+     * Reads the objects with the given keys, keyed by Uid value. Keys that no longer
+     * exist are missing from the result.
+     */
+    public Map<String, ConnectorObject> fetchByKeys(
+        TableMapping table,
+        Collection<String> keys,
+        String keyTypeName,
+        Projection projection,
+        Connection connection) {
+
+        SqlFilter query;
+        try {
+            query = new SqlFilter(table.getKeyColumn() + " = ANY(?)",
+                List.of(connection.createArrayOf(keyTypeName, keys.toArray())));
+        } catch (SQLException e) {
+            throw new ConnectorException(
+                "Failed to fetch " + table.getObjectClassName() + " objects: " + e.getMessage(), e);
+        }
+
+        Map<String, ConnectorObject> objects = new HashMap<>(keys.size() * 2);
+        search(table, query, projection, connectorObject -> {
+            objects.put(connectorObject.getUid().getUidValue(), connectorObject);
+            return true;
+        }, null, connection);
+        return objects;
+    }
+
+    private int membershipBatchSize(Paging paging) {
+        int batchSize = configuration.getFetchSize() > 0 ? configuration.getFetchSize() : DEFAULT_MEMBERSHIP_BATCH_SIZE;
+        return paging.isPaged() ? Math.min(batchSize, paging.getPageSize()) : batchSize;
+    }
+
+    /**
+     * Applies attribute deltas to one object in a single transaction: one UPDATE of the
+     * changed columns, then the membership rows to remove and to add, each as a JDBC
+     * batch. Membership changes also stamp the modified column of the objects on both
+     * sides, so that LiveSync reports removals too.
+     */
+    protected Uid update(TableMapping table, Uid uid, Set<AttributeDelta> deltas, ConnectionScope scope) {
+        StatementCatalog catalog = catalog(table);
+        // sorted, the order of the catalog's UPDATE texts
+        Map<String, Object> columns = new TreeMap<>();
+        List<Object> replacedMembers = null;
+        Set<String> addedMembers = new LinkedHashSet<>();
+        Set<String> removedMembers = new LinkedHashSet<>();
+
+        for (AttributeDelta delta : deltas) {
+            String name = delta.getName();
+            if (table.isMembershipAttribute(name)) {
+                if (delta.getValuesToReplace() != null) {
+                    replacedMembers = delta.getValuesToReplace();
+                }
+                addValues(addedMembers, delta.getValuesToAdd());
+                addValues(removedMembers, delta.getValuesToRemove());
+                continue;
+            }
+
+            String column = definition.table(table).column(name);
+            if (column == null || !catalog.isUpdatable(column)) {
+                throw new InvalidAttributeValueException(
+                    "Attribute " + name + " of " + table.getObjectClassName() + " cannot be updated");
+            }
+            columns.put(column, singleValue(name, delta));
+        }
+
+        boolean membershipChanged = replacedMembers != null || !addedMembers.isEmpty() || !removedMembers.isEmpty();
+        if (columns.isEmpty() && !membershipChanged) {
+            return uid;
+        }
+
+        LOG.info("Updating {0} {1}: columns {2}, membership added {3}, removed {4}, replaced by {5}",
+            table.getObjectClassName(), uid.getUidValue(), columns.keySet(), addedMembers, removedMembers,
+            replacedMembers);
+
+        final List<Object> replaced = replacedMembers;
+        scope.inTransaction(connection -> {
+            updateColumns(catalog, table, uid, columns, connection);
+            if (membershipChanged) {
+                if (replaced != null) {
+                    Set<String> current = currentMembers(catalog, uid, connection);
+                    Set<String> wanted = new LinkedHashSet<>();
+                    addValues(wanted, replaced);
+                    for (String member : current) {
+                        if (!wanted.contains(member)) {
+                            removedMembers.add(member);
+                        }
+                    }
+                    wanted.removeAll(current);
+                    addedMembers.addAll(wanted);
+                }
+                removedMembers.removeAll(addedMembers);
+                updateMembers(catalog, uid, addedMembers, removedMembers, connection);
+            }
+            return null;
+        });
+        return uid;
+    }
+
+    private void updateColumns(
+        StatementCatalog catalog, TableMapping table, Uid uid, Map<String, Object> columns, Connection connection)
+        throws SQLException {
+
+        String sql = catalog.update(new ArrayList<>(columns.keySet()));
+        if (sql == null) {
+            return;
+        }
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int index = 1;
+            for (Object value : columns.values()) {
+                SqlFilter.bindValue(preparedStatement, index++, value);
+            }
+            SqlFilter.bindValue(preparedStatement, index, uid.getUidValue());
+
+            if (preparedStatement.executeUpdate() == 0) {
+                throw new UnknownUidException(uid, table.getObjectClass());
+            }
+        }
+    }
+
+    private Set<String> currentMembers(StatementCatalog catalog, Uid uid, Connection connection) throws SQLException {
+        Set<String> members = new LinkedHashSet<>();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(catalog.getCurrentMembers())) {
+            SqlFilter.bindValue(preparedStatement, 1, uid.getUidValue());
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    members.add(resultSet.getString(1));
+                }
+            }
+        }
+        return members;
+    }
+
+    private void updateMembers(
+        StatementCatalog catalog, Uid uid, Set<String> added, Set<String> removed, Connection connection)
+        throws SQLException {
+
+        if (!removed.isEmpty()) {
+            executeMemberBatch(catalog.getDeleteMember(), uid, removed, connection);
+        }
+        if (!added.isEmpty()) {
+            executeMemberBatch(catalog.getInsertMember(), uid, added, connection);
+        }
+
+        if (catalog.getTouchCounterpart() != null && !(added.isEmpty() && removed.isEmpty())) {
+            Set<String> touched = new LinkedHashSet<>(added);
+            touched.addAll(removed);
+            try (PreparedStatement preparedStatement = connection.prepareStatement(catalog.getTouchCounterpart())) {
+                for (String key : touched) {
+                    SqlFilter.bindValue(preparedStatement, 1, key);
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+            }
+        }
+    }
+
+    private void executeMemberBatch(String sql, Uid uid, Set<String> members, Connection connection)
+        throws SQLException {
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            for (String member : members) {
+                SqlFilter.bindValue(preparedStatement, 1, uid.getUidValue());
+                SqlFilter.bindValue(preparedStatement, 2, member);
+                preparedStatement.addBatch();
+            }
+            preparedStatement.executeBatch();
+        }
+    }
+
+    private static Object singleValue(String name, AttributeDelta delta) {
+        List<Object> values = delta.getValuesToReplace() != null ? delta.getValuesToReplace() : delta.getValuesToAdd();
+        if (values == null || values.isEmpty()) {
+            // only values to remove: the single value is cleared
+            return null;
+        }
+        if (values.size() > 1) {
+            throw new InvalidAttributeValueException("Attribute " + name + " is single-valued");
+        }
+        return values.get(0);
+    }
+
+    private static void addValues(Set<String> target, List<Object> values) {
+        if (values != null) {
+            for (Object value : values) {
+                target.add(value.toString());
+            }
+        }
+    }
+
+    /**
+     * Remembers the key of the last object the handler accepted, which becomes the
+     * paged results cookie, and whether the handler asked to stop.
+     */
+    private static final class PageTracker implements ResultsHandler {
+
+        private final ResultsHandler delegate;
+        private String lastKey;
+        private boolean stopped;
+
+        PageTracker(ResultsHandler delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean handle(ConnectorObject connectorObject) {
+            if (stopped || !delegate.handle(connectorObject)) {
+                stopped = true;
+                return false;
+            }
+            lastKey = connectorObject.getUid().getUidValue();
+            return true;
+        }
+
+        String getLastKey() {
+            return lastKey;
+        }
+
+        boolean isStopped() {
+            return stopped;
+        }
     }
-    
 }
@@ -0,0 +1,199 @@
+package ru.ctsg.idmcae.processing;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeInfo;
+import org.identityconnectors.framework.common.objects.AttributeUtil;
+import org.identityconnectors.framework.common.objects.Name;
+
+import ru.ctsg.idmcae.query.Paging;
+import ru.ctsg.idmcae.query.Projection;
+import ru.ctsg.idmcae.query.SqlFilter;
+import ru.ctsg.idmcae.query.TableMapping;
+import ru.ctsg.idmcae.query.TableSchema;
+
+/**
+ * The SQL of one table, built once from its introspected definition. Every statement
+ * shape has exactly one text, with columns in sorted order, so the driver's statement
+ * cache recognizes repeated statements on a pooled connection. After prepareThreshold
+ * executions it switches to a named server-side statement, and neither side parses or
+ * plans the statement again.
+ */
+final class StatementCatalog {
+
+    private final TableMapping table;
+    private final List<String> insertColumns;
+    private final Set<String> updatableColumns;
+    private final String insert;
+    private final String delete;
+    private final String currentMembers;
+    private final String deleteMember;
+    private final String insertMember;
+    private final String touchCounterpart;
+    private final ConcurrentMap<List<String>, String> updates = new ConcurrentHashMap<>();
+
+    StatementCatalog(TableSchema schema) {
+        TableMapping table = schema.getTable();
+        this.table = table;
+
+        Set<String> createable = new TreeSet<>();
+        Set<String> updatable = new TreeSet<>();
+        for (AttributeInfo info : schema.getObjectClassInfo().getAttributeInfo()) {
+            String column = schema.column(info.getName());
+            if (column == null || !table.isWritableColumn(column)) {
+                continue;
+            }
+            if (info.isCreateable()) {
+                createable.add(column);
+            }
+            if (info.isUpdateable() && !Name.NAME.equals(info.getName())) {
+                updatable.add(column);
+            }
+        }
+        this.insertColumns = Collections.unmodifiableList(new ArrayList<>(createable));
+        this.updatableColumns = Collections.unmodifiableSet(updatable);
+
+        List<String> columns = new ArrayList<>(insertColumns);
+        List<String> values = new ArrayList<>();
+        for (int i = 0; i < insertColumns.size(); i++) {
+            values.add("?");
+        }
+        for (String stamped : stampedColumns(schema)) {
+            columns.add(stamped);
+            values.add("CURRENT_TIMESTAMP");
+        }
+        this.insert = "INSERT INTO " + table.getTable() + " (" + String.join(", ", columns)
+            + ") VALUES (" + String.join(", ", values) + ")";
+
+        this.delete = "DELETE FROM " + table.getTable() + " WHERE " + table.getKeyColumn() + " = ?";
+
+        String own = table.getMembershipOwnColumn();
+        String other = table.getMembershipOtherColumn();
+        this.currentMembers = "SELECT " + other + "::text FROM " + TableMapping.MEMBERSHIP_TABLE
+            + " WHERE " + own + " = ?";
+        this.deleteMember = "DELETE FROM " + TableMapping.MEMBERSHIP_TABLE
+            + " WHERE " + own + " = ? AND " + other + " = ?";
+        this.insertMember = "INSERT INTO " + TableMapping.MEMBERSHIP_TABLE + " (" + own + ", " + other
+            + ", created_at) VALUES (?, ?, CURRENT_TIMESTAMP) ON CONFLICT DO NOTHING";
+
+        TableMapping counterpart = table.getMembershipCounterpart();
+        this.touchCounterpart = counterpart.getModifiedColumn() == null ? null
+            : "UPDATE " + counterpart.getTable() + " SET " + counterpart.getModifiedColumn()
+                + " = CURRENT_TIMESTAMP WHERE " + counterpart.getKeyColumn() + " = ?";
+    }
+
+    /**
+     * INSERT of all createable columns, in {@link #insertValues} order, without
+     * RETURNING; the key is read through generated keys.
+     */
+    String getInsert() {
+        return insert;
+    }
+
+    /**
+     * Values for the INSERT placeholders. The name column also accepts __NAME__, and
+     * {@code defaults} fill in columns without a value.
+     */
+    Object[] insertValues(Set<Attribute> attributes, Map<String, Object> defaults) {
+        Object[] values = new Object[insertColumns.size()];
+        for (int i = 0; i < values.length; i++) {
+            String column = insertColumns.get(i);
+            Object value = firstValue(AttributeUtil.find(column, attributes));
+            if (value == null && column.equals(table.getNameColumn())) {
+                value = firstValue(AttributeUtil.find(Name.NAME, attributes));
+            }
+            values[i] = value == null ? defaults.get(column) : value;
+        }
+        return values;
+    }
+
+    boolean isUpdatable(String column) {
+        return updatableColumns.contains(column);
+    }
+
+    /**
+     * UPDATE of the given columns, which must be in sorted order, plus the modified
+     * column; null if there is nothing to set.
+     */
+    String update(List<String> columns) {
+        if (columns.isEmpty() && table.getModifiedColumn() == null) {
+            return null;
+        }
+        return updates.computeIfAbsent(columns, key -> {
+            List<String> assignments = new ArrayList<>(key.size() + 1);
+            for (String column : key) {
+                assignments.add(column + " = ?");
+            }
+            if (table.getModifiedColumn() != null) {
+                assignments.add(table.getModifiedColumn() + " = CURRENT_TIMESTAMP");
+            }
+            return "UPDATE " + table.getTable() + " SET " + String.join(", ", assignments)
+                + " WHERE " + table.getKeyColumn() + " = ?";
+        });
+    }
+
+    String getDelete() {
+        return delete;
+    }
+
+    /**
+     * Search text; its shape is fixed by the projection, the filter clause (which
+     * carries placeholders, never literals) and the paging clauses.
+     */
+    String select(Projection projection, SqlFilter where, Paging paging) {
+        StringBuilder sql = new StringBuilder("SELECT ")
+            .append(projection.getSelectList())
+            .append(" FROM ")
+            .append(table.getTable());
+        if (where != null) {
+            sql.append(" WHERE ").append(where.getClause());
+        }
+        return sql.append(paging.suffix(table.getKeyColumn())).toString();
+    }
+
+    String getCurrentMembers() {
+        return currentMembers;
+    }
+
+    String getDeleteMember() {
+        return deleteMember;
+    }
+
+    String getInsertMember() {
+        return insertMember;
+    }
+
+    /**
+     * Stamps the modified column of a membership counterpart; null if it has none.
+     */
+    String getTouchCounterpart() {
+        return touchCounterpart;
+    }
+
+    private static List<String> stampedColumns(TableSchema schema) {
+        TableMapping table = schema.getTable();
+        List<String> stamped = new ArrayList<>(2);
+        if (schema.hasColumn("created_at")) {
+            stamped.add("created_at");
+        }
+        if (table.getModifiedColumn() != null && schema.hasColumn(table.getModifiedColumn())) {
+            stamped.add(table.getModifiedColumn());
+        }
+        return stamped;
+    }
+
+    private static Object firstValue(Attribute attribute) {
+        if (attribute == null || attribute.getValue() == null || attribute.getValue().isEmpty()) {
+            return null;
+        }
+        return attribute.getValue().get(0);
+    }
+}
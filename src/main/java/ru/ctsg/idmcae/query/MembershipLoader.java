@@ -0,0 +1,92 @@
+package ru.ctsg.idmcae.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+
+/**
+ * Attaches memberOf/members to streamed objects. Objects are held back until a
+ * batch is full, then the memberships of the whole batch are read with a single
+ * {@code = ANY(?)} query over account_permissions and the batch is released in
+ * its original order. Work stays proportional to the rows returned and no
+ * aggregate over the full join is ever built.
+ */
+public final class MembershipLoader {
+
+    private final RowMapper mapper;
+    private final Connection connection;
+    private final String keyTypeName;
+    private final int batchSize;
+    private final String sql;
+
+    private final List<Object> keys;
+    private final List<Attribute[]> rows;
+
+    public MembershipLoader(
+        TableMapping table, RowMapper mapper, Connection connection, String keyTypeName, int batchSize) {
+
+        this.mapper = mapper;
+        this.connection = connection;
+        this.keyTypeName = keyTypeName;
+        this.batchSize = batchSize;
+        this.sql = "SELECT " + table.getMembershipOwnColumn() + ", " + table.getMembershipOtherColumn()
+            + "::text FROM " + TableMapping.MEMBERSHIP_TABLE
+            + " WHERE " + table.getMembershipOwnColumn() + " = ANY(?)";
+        this.keys = new ArrayList<>(batchSize);
+        this.rows = new ArrayList<>(batchSize);
+    }
+
+    /**
+     * Queues an object; returns false once the handler asked to stop.
+     */
+    public boolean add(Object key, Attribute[] row, ResultsHandler handler) throws SQLException {
+        keys.add(key);
+        rows.add(row);
+        return keys.size() < batchSize || flush(handler);
+    }
+
+    public boolean flush(ResultsHandler handler) throws SQLException {
+        if (keys.isEmpty()) {
+            return true;
+        }
+
+        Map<String, List<Object>> memberships = load();
+        try {
+            for (int i = 0; i < keys.size(); i++) {
+                Attribute[] row = rows.get(i);
+                mapper.setMembership(row, memberships.get(keys.get(i).toString()));
+                if (!handler.handle(mapper.toObject(row))) {
+                    return false;
+                }
+            }
+            return true;
+        } finally {
+            keys.clear();
+            rows.clear();
+        }
+    }
+
+    private Map<String, List<Object>> load() throws SQLException {
+        Map<String, List<Object>> memberships = new HashMap<>(keys.size() * 2);
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setArray(1, connection.createArrayOf(keyTypeName, keys.toArray()));
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    memberships.computeIfAbsent(resultSet.getString(1), key -> new ArrayList<>())
+                        .add(resultSet.getString(2));
+                }
+            }
+        }
+        return memberships;
+    }
+}
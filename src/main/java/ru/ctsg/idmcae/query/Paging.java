@@ -0,0 +1,101 @@
+package ru.ctsg.idmcae.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.identityconnectors.framework.common.objects.OperationOptions;
+
+/**
+ * Keyset pagination over the key column of a table. The paged results cookie is
+ * the key of the last object of the previous page, so every page is an index
+ * range scan no matter how deep into the table it starts.
+ */
+public final class Paging {
+
+    private static final Paging NONE = new Paging(null, 0, null);
+
+    private final Integer pageSize;
+    private final int offset;
+    private final String cookie;
+
+    private Paging(Integer pageSize, int offset, String cookie) {
+        this.pageSize = pageSize;
+        this.offset = offset;
+        this.cookie = cookie;
+    }
+
+    public static Paging from(OperationOptions options) {
+        if (options == null || options.getPageSize() == null || options.getPageSize() <= 0) {
+            return NONE;
+        }
+
+        String cookie = options.getPagedResultsCookie();
+        if (cookie != null && cookie.isEmpty()) {
+            cookie = null;
+        }
+
+        // ConnId offsets are 1-based; they are only honored for the first page,
+        // later pages are addressed by cookie.
+        Integer pagedResultsOffset = options.getPagedResultsOffset();
+        int offset = cookie == null && pagedResultsOffset != null && pagedResultsOffset > 1
+            ? pagedResultsOffset - 1 : 0;
+
+        return new Paging(options.getPageSize(), offset, cookie);
+    }
+
+    public boolean isPaged() {
+        return pageSize != null;
+    }
+
+    public int getPageSize() {
+        return pageSize;
+    }
+
+    /**
+     * Objects to skip before the page, 0 unless this is the first page.
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * The key after which the page starts, or null for the first page.
+     */
+    public String getCookie() {
+        return cookie;
+    }
+
+    /**
+     * Adds the keyset predicate for the page that follows the cookie.
+     */
+    public SqlFilter restrict(SqlFilter query, String keyColumn) {
+        if (cookie == null) {
+            return query;
+        }
+        SqlFilter keyset = new SqlFilter(keyColumn + " > ?", List.of(cookie));
+        return query == null ? keyset : query.and(keyset);
+    }
+
+    /**
+     * Ordering and limit clauses; one row more than the page size is read to learn
+     * whether another page exists.
+     */
+    public String suffix(String keyColumn) {
+        if (!isPaged()) {
+            return "";
+        }
+        return " ORDER BY " + keyColumn + " LIMIT ?" + (offset > 0 ? " OFFSET ?" : "");
+    }
+
+    public int bind(PreparedStatement preparedStatement, int index) throws SQLException {
+        if (!isPaged()) {
+            return index;
+        }
+        preparedStatement.setInt(index++, pageSize + 1);
+        if (offset > 0) {
+            preparedStatement.setInt(index++, offset);
+        }
+        return index;
+    }
+}
@@ -0,0 +1,99 @@
+package ru.ctsg.idmcae.query;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.identityconnectors.framework.common.objects.AttributeInfo;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * The attributes a search returns: ATTRIBUTES_TO_GET, plus the schema's
+ * returned-by-default attributes when no explicit list is given (or when
+ * RETURN_DEFAULT_ATTRIBUTES asks for them). Uid and Name are always read.
+ */
+public final class Projection {
+
+    private final boolean membership;
+    private final String selectList;
+    private final RowMapper mapper;
+
+    private Projection(TableSchema schema, List<AttributeInfo> attributes, boolean membership) {
+        TableMapping table = schema.getTable();
+        this.membership = membership;
+
+        // the key and name are the first two columns; an attribute stored in either
+        // of them reads that column instead of selecting it twice
+        StringBuilder select = new StringBuilder()
+            .append(table.getKeyColumn())
+            .append(", ")
+            .append(table.getNameColumn());
+        int[] positions = new int[attributes.size()];
+        int next = 3;
+        for (int i = 0; i < attributes.size(); i++) {
+            String column = schema.column(attributes.get(i).getName());
+            if (column.equals(table.getKeyColumn())) {
+                positions[i] = 1;
+            } else if (column.equals(table.getNameColumn())) {
+                positions[i] = 2;
+            } else {
+                select.append(", ").append(column);
+                positions[i] = next++;
+            }
+        }
+        this.selectList = select.toString();
+        this.mapper = new RowMapper(table, attributes, positions, membership);
+    }
+
+    public static Projection of(TableSchema schema, OperationOptions options) {
+        String[] attributesToGet = options == null ? null : options.getAttributesToGet();
+        boolean returnDefaults = attributesToGet == null
+            || (options != null && Boolean.TRUE.equals(options.getReturnDefaultAttributes()));
+        Set<String> requested = attributesToGet == null
+            ? Set.of() : new HashSet<>(Arrays.asList(attributesToGet));
+
+        List<AttributeInfo> attributes = new ArrayList<>();
+        boolean membership = false;
+
+        for (AttributeInfo info : schema.getObjectClassInfo().getAttributeInfo()) {
+            String name = info.getName();
+            if (Uid.NAME.equals(name) || Name.NAME.equals(name)) {
+                continue;
+            }
+            if (!requested.contains(name) && !(returnDefaults && info.isReturnedByDefault())) {
+                continue;
+            }
+            if (schema.getTable().isMembershipAttribute(name)) {
+                membership = true;
+            } else if (schema.column(name) != null) {
+                attributes.add(info);
+            }
+        }
+        // a fixed column order keeps the SELECT text identical between searches
+        attributes.sort(Comparator.comparing(AttributeInfo::getName));
+        return new Projection(schema, attributes, membership);
+    }
+
+    public boolean includesMembership() {
+        return membership;
+    }
+
+    /**
+     * The key column, the name column, then the remaining attribute columns.
+     */
+    public String getSelectList() {
+        return selectList;
+    }
+
+    /**
+     * Maps rows selected with {@link #getSelectList()}.
+     */
+    public RowMapper getMapper() {
+        return mapper;
+    }
+}
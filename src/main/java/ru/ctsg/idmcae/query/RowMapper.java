@@ -0,0 +1,171 @@
+package ru.ctsg.idmcae.query;
+
+import java.math.BigDecimal;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.OffsetDateTime;
+import java.time.ZonedDateTime;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.AttributeInfo;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * Maps the rows of one {@link Projection} to connector objects. Column positions,
+ * readers and attribute names are fixed when the projection is built. Attributes of
+ * NULL columns are immutable and shared by all rows. Per row, only the values, their
+ * attributes, one array and the object itself are allocated, and no column is looked
+ * up by name.
+ */
+public final class RowMapper {
+
+    private enum Reader { STRING, BOOLEAN, LONG, DECIMAL, TIMESTAMP }
+
+    private final ObjectClass objectClass;
+    private final String[] names;
+    private final int[] positions;
+    private final Reader[] readers;
+    private final Attribute[] empty;
+    private final String membershipAttribute;
+    private final Attribute emptyMembership;
+    private final int width;
+
+    RowMapper(TableMapping table, List<AttributeInfo> attributes, int[] positions, boolean membership) {
+        this.objectClass = table.getObjectClass();
+        this.positions = positions;
+        this.names = new String[attributes.size()];
+        this.readers = new Reader[attributes.size()];
+        this.empty = new Attribute[attributes.size()];
+        for (int i = 0; i < attributes.size(); i++) {
+            AttributeInfo info = attributes.get(i);
+            names[i] = info.getName();
+            readers[i] = reader(info.getType());
+            empty[i] = AttributeBuilder.build(info.getName());
+        }
+        this.membershipAttribute = membership ? table.getMembershipAttribute() : null;
+        this.emptyMembership = membership ? AttributeBuilder.build(membershipAttribute, List.of()) : null;
+        // Uid, Name, the attributes and the membership slot
+        this.width = 2 + attributes.size() + (membership ? 1 : 0);
+    }
+
+    /**
+     * Maps the current row; a projection with memberships must use {@link #read} and
+     * {@link #setMembership} instead.
+     */
+    public ConnectorObject map(ResultSet resultSet) throws SQLException {
+        return toObject(read(resultSet));
+    }
+
+    /**
+     * The attributes of the current row, with the membership slot still empty.
+     */
+    public Attribute[] read(ResultSet resultSet) throws SQLException {
+        Attribute[] row = new Attribute[width];
+        row[0] = new Uid(resultSet.getString(1));
+        row[1] = new Name(resultSet.getString(2));
+        for (int i = 0; i < readers.length; i++) {
+            Object value = readValue(resultSet, positions[i], readers[i]);
+            row[i + 2] = value == null ? empty[i] : AttributeBuilder.build(names[i], value);
+        }
+        return row;
+    }
+
+    /**
+     * The key of a row returned by {@link #read}.
+     */
+    public String key(Attribute[] row) {
+        return ((Uid) row[0]).getUidValue();
+    }
+
+    public void setMembership(Attribute[] row, List<Object> values) {
+        row[width - 1] = values == null || values.isEmpty()
+            ? emptyMembership : AttributeBuilder.build(membershipAttribute, values);
+    }
+
+    public ConnectorObject toObject(Attribute[] row) {
+        return new ConnectorObject(objectClass, new AttributeRow(row));
+    }
+
+    private static Object readValue(ResultSet resultSet, int position, Reader reader) throws SQLException {
+        switch (reader) {
+            case BOOLEAN: {
+                boolean value = resultSet.getBoolean(position);
+                return resultSet.wasNull() ? null : value;
+            }
+            case LONG: {
+                long value = resultSet.getLong(position);
+                return resultSet.wasNull() ? null : value;
+            }
+            case DECIMAL:
+                return resultSet.getBigDecimal(position);
+            case TIMESTAMP: {
+                OffsetDateTime value = resultSet.getObject(position, OffsetDateTime.class);
+                return value == null ? null : value.toZonedDateTime();
+            }
+            default:
+                return resultSet.getString(position);
+        }
+    }
+
+    private static Reader reader(Class<?> type) {
+        if (Boolean.class.equals(type)) {
+            return Reader.BOOLEAN;
+        }
+        if (Long.class.equals(type)) {
+            return Reader.LONG;
+        }
+        if (BigDecimal.class.equals(type)) {
+            return Reader.DECIMAL;
+        }
+        if (ZonedDateTime.class.equals(type)) {
+            return Reader.TIMESTAMP;
+        }
+        return Reader.STRING;
+    }
+
+    /**
+     * A read-only set over the row array, exactly as large as the row; the attribute
+     * names of a row are distinct, so the array is a valid set as it is.
+     */
+    private static final class AttributeRow extends AbstractSet<Attribute> {
+
+        private final Attribute[] row;
+
+        AttributeRow(Attribute[] row) {
+            this.row = row;
+        }
+
+        @Override
+        public Iterator<Attribute> iterator() {
+            return new Iterator<Attribute>() {
+                private int next;
+
+                @Override
+                public boolean hasNext() {
+                    return next < row.length;
+                }
+
+                @Override
+                public Attribute next() {
+                    if (next >= row.length) {
+                        throw new NoSuchElementException();
+                    }
+                    return row[next++];
+                }
+            };
+        }
+
+        @Override
+        public int size() {
+            return row.length;
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package ru.ctsg.idmcae.query;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A WHERE clause fragment together with the values bound to its placeholders.
+ */
+public final class SqlFilter {
+
+    private final String clause;
+    private final List<Object> parameters;
+
+    public SqlFilter(String clause, List<Object> parameters) {
+        this.clause = clause;
+        this.parameters = Collections.unmodifiableList(new ArrayList<>(parameters));
+    }
+
+    public String getClause() {
+        return clause;
+    }
+
+    public List<Object> getParameters() {
+        return parameters;
+    }
+
+    /**
+     * The value of an exact {@code column = ?} comparison, as the translator writes it
+     * for an equality filter on that column; null for any other filter.
+     */
+    public Object equalityValue(String column) {
+        return parameters.size() == 1 && clause.equals(column + " = ?") ? parameters.get(0) : null;
+    }
+
+    public SqlFilter and(SqlFilter other) {
+        return combine("AND", other);
+    }
+
+    public SqlFilter or(SqlFilter other) {
+        return combine("OR", other);
+    }
+
+    public SqlFilter negate() {
+        return new SqlFilter("(" + clause + ") IS NOT TRUE", parameters);
+    }
+
+    private SqlFilter combine(String operator, SqlFilter other) {
+        List<Object> combined = new ArrayList<>(parameters.size() + other.parameters.size());
+        combined.addAll(parameters);
+        combined.addAll(other.parameters);
+        return new SqlFilter("(" + clause + ") " + operator + " (" + other.clause + ")", combined);
+    }
+
+    /**
+     * Binds the parameters starting at the given index and returns the next free index.
+     */
+    public int bind(PreparedStatement preparedStatement, int index) throws SQLException {
+        for (Object parameter : parameters) {
+            bindValue(preparedStatement, index++, parameter);
+        }
+        return index;
+    }
+
+    /**
+     * Strings are sent untyped so that PostgreSQL resolves them against the column
+     * they are compared with (bigint and uuid keys arrive from ConnId as strings).
+     */
+    public static void bindValue(PreparedStatement preparedStatement, int index, Object value) throws SQLException {
+        if (value == null) {
+            preparedStatement.setNull(index, Types.NULL);
+        } else if (value instanceof String) {
+            preparedStatement.setObject(index, value, Types.OTHER);
+        } else if (value instanceof ZonedDateTime) {
+            preparedStatement.setObject(index, ((ZonedDateTime) value).toOffsetDateTime());
+        } else {
+            preparedStatement.setObject(index, value);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return clause + " " + parameters;
+    }
+}
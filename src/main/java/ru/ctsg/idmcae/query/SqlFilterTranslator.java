@@ -0,0 +1,160 @@
+package ru.ctsg.idmcae.query;
+
+import java.util.List;
+
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.filter.AbstractFilterTranslator;
+import org.identityconnectors.framework.common.objects.filter.ComparableAttributeFilter;
+import org.identityconnectors.framework.common.objects.filter.ContainsAllValuesFilter;
+import org.identityconnectors.framework.common.objects.filter.ContainsFilter;
+import org.identityconnectors.framework.common.objects.filter.EndsWithFilter;
+import org.identityconnectors.framework.common.objects.filter.EqualsFilter;
+import org.identityconnectors.framework.common.objects.filter.EqualsIgnoreCaseFilter;
+import org.identityconnectors.framework.common.objects.filter.GreaterThanFilter;
+import org.identityconnectors.framework.common.objects.filter.GreaterThanOrEqualFilter;
+import org.identityconnectors.framework.common.objects.filter.LessThanFilter;
+import org.identityconnectors.framework.common.objects.filter.LessThanOrEqualFilter;
+import org.identityconnectors.framework.common.objects.filter.StartsWithFilter;
+import org.identityconnectors.framework.common.objects.filter.StringFilter;
+
+/**
+ * Translates ConnId filters into parameterized SQL predicates. Filters that cannot
+ * be expressed exactly are left untranslated (null), so the framework evaluates
+ * them in memory over a broader result set.
+ */
+public class SqlFilterTranslator extends AbstractFilterTranslator<SqlFilter> {
+
+    private final TableSchema schema;
+    private final TableMapping table;
+
+    public SqlFilterTranslator(TableSchema schema) {
+        this.schema = schema;
+        this.table = schema.getTable();
+    }
+
+    @Override
+    protected SqlFilter createAndExpression(SqlFilter leftExpression, SqlFilter rightExpression) {
+        return leftExpression.and(rightExpression);
+    }
+
+    @Override
+    protected SqlFilter createOrExpression(SqlFilter leftExpression, SqlFilter rightExpression) {
+        return leftExpression.or(rightExpression);
+    }
+
+    @Override
+    protected SqlFilter createEqualsExpression(EqualsFilter filter, boolean not) {
+        Attribute attribute = filter.getAttribute();
+        String column = schema.column(attribute.getName());
+        if (column == null) {
+            return null;
+        }
+
+        List<Object> values = attribute.getValue();
+        SqlFilter expression;
+        if (values == null || values.isEmpty()) {
+            expression = new SqlFilter(column + " IS NULL", List.of());
+        } else if (values.size() == 1 && values.get(0) != null) {
+            expression = new SqlFilter(column + " = ?", List.of(values.get(0)));
+        } else {
+            return null;
+        }
+        return negate(expression, not);
+    }
+
+    @Override
+    protected SqlFilter createEqualsIgnoreCaseExpression(EqualsIgnoreCaseFilter filter, boolean not) {
+        String column = textColumn(filter);
+        if (column == null || filter.getValue() == null) {
+            return null;
+        }
+        return negate(new SqlFilter("lower(" + column + ") = lower(?)", List.of(filter.getValue())), not);
+    }
+
+    @Override
+    protected SqlFilter createStartsWithExpression(StartsWithFilter filter, boolean not) {
+        return like(filter, "", "%", not);
+    }
+
+    @Override
+    protected SqlFilter createEndsWithExpression(EndsWithFilter filter, boolean not) {
+        return like(filter, "%", "", not);
+    }
+
+    @Override
+    protected SqlFilter createContainsExpression(ContainsFilter filter, boolean not) {
+        return like(filter, "%", "%", not);
+    }
+
+    @Override
+    protected SqlFilter createGreaterThanExpression(GreaterThanFilter filter, boolean not) {
+        return compare(filter, ">", not);
+    }
+
+    @Override
+    protected SqlFilter createGreaterThanOrEqualExpression(GreaterThanOrEqualFilter filter, boolean not) {
+        return compare(filter, ">=", not);
+    }
+
+    @Override
+    protected SqlFilter createLessThanExpression(LessThanFilter filter, boolean not) {
+        return compare(filter, "<", not);
+    }
+
+    @Override
+    protected SqlFilter createLessThanOrEqualExpression(LessThanOrEqualFilter filter, boolean not) {
+        return compare(filter, "<=", not);
+    }
+
+    @Override
+    protected SqlFilter createContainsAllValuesExpression(ContainsAllValuesFilter filter, boolean not) {
+        Attribute attribute = filter.getAttribute();
+        if (!table.isMembershipAttribute(attribute.getName())
+                || attribute.getValue() == null || attribute.getValue().isEmpty()) {
+            return null;
+        }
+
+        final String membership = table.getKeyColumn() + " IN (SELECT " + table.getMembershipOwnColumn()
+            + " FROM " + TableMapping.MEMBERSHIP_TABLE + " WHERE " + table.getMembershipOtherColumn() + " = ?)";
+
+        SqlFilter expression = null;
+        for (Object value : attribute.getValue()) {
+            if (value == null) {
+                return null;
+            }
+            SqlFilter member = new SqlFilter(membership, List.of(value.toString()));
+            expression = expression == null ? member : expression.and(member);
+        }
+        return negate(expression, not);
+    }
+
+    private SqlFilter compare(ComparableAttributeFilter filter, String operator, boolean not) {
+        String column = schema.column(filter.getName());
+        if (column == null || filter.getValue() == null) {
+            return null;
+        }
+        return negate(new SqlFilter(column + " " + operator + " ?", List.of(filter.getValue())), not);
+    }
+
+    private SqlFilter like(StringFilter filter, String prefix, String suffix, boolean not) {
+        String column = textColumn(filter);
+        if (column == null || filter.getValue() == null) {
+            return null;
+        }
+        String pattern = prefix + escapeLike(filter.getValue()) + suffix;
+        return negate(new SqlFilter(column + " LIKE ? ESCAPE '\\'", List.of(pattern)), not);
+    }
+
+    private String textColumn(StringFilter filter) {
+        String column = schema.column(filter.getName());
+        return column != null && schema.isTextColumn(column) ? column : null;
+    }
+
+    private static SqlFilter negate(SqlFilter expression, boolean not) {
+        return not ? expression.negate() : expression;
+    }
+
+    private static String escapeLike(String value) {
+        return value.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+}
@@ -0,0 +1,74 @@
+package ru.ctsg.idmcae.query;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Read-only transaction scope for large reads. The PostgreSQL driver only uses a
+ * server-side cursor (and fetches {@code fetchSize} rows per round trip) when
+ * autocommit is off and the statement is forward-only; otherwise it buffers the
+ * complete result in heap. A fetch size of 0 keeps the buffered behavior.
+ */
+public final class StreamingRead implements AutoCloseable {
+
+    /**
+     * Application name of the connector's read-only transactions while they are open;
+     * they cannot write, so LiveSync does not wait for them.
+     */
+    public static final String READER_APPLICATION = "ADLK reader";
+
+    private final Connection connection;
+    private final int fetchSize;
+    private final boolean autoCommit;
+    private final boolean readOnly;
+    private final boolean ownsTransaction;
+
+    public StreamingRead(Connection connection, int fetchSize) throws SQLException {
+        this.connection = connection;
+        this.fetchSize = Math.max(fetchSize, 0);
+        this.autoCommit = connection.getAutoCommit();
+        this.readOnly = connection.isReadOnly();
+        // inside a caller's transaction the cursor simply lives in that transaction
+        this.ownsTransaction = this.fetchSize > 0 && autoCommit;
+
+        if (ownsTransaction) {
+            // read-only must be set before the transaction starts
+            connection.setReadOnly(true);
+            connection.setAutoCommit(false);
+            markReader(connection);
+        }
+    }
+
+    /**
+     * Names the read-only transaction open on {@code connection} as the connector's
+     * reader; the name reverts when the transaction ends.
+     */
+    public static void markReader(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("SET LOCAL application_name = '" + READER_APPLICATION + "'");
+        }
+    }
+
+    public PreparedStatement prepareStatement(String sql) throws SQLException {
+        PreparedStatement preparedStatement =
+            connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        preparedStatement.setFetchSize(fetchSize);
+        return preparedStatement;
+    }
+
+    @Override
+    public void close() throws SQLException {
+        if (!ownsTransaction) {
+            return;
+        }
+        try {
+            connection.rollback();
+        } finally {
+            connection.setAutoCommit(autoCommit);
+            connection.setReadOnly(readOnly);
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package ru.ctsg.idmcae.query;
+
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+/**
+ * What the connector knows about a table regardless of its columns: the object class,
+ * the key, name and timestamp columns and the membership link. The columns themselves
+ * are introspected, see {@link TableSchema}.
+ */
+public enum TableMapping {
+
+    ACCOUNT(
+        ObjectClass.ACCOUNT,
+        "public.accounts",
+        "account_id",
+        "username",
+        "memberOf",
+        "account_id",
+        "permission_uid",
+        "last_modified_at"),
+
+    PERMISSION(
+        new ObjectClass("Permission"),
+        "public.permission",
+        "permission_uid",
+        "code",
+        "members",
+        "permission_uid",
+        "account_id",
+        "last_modified_at");
+
+    public static final String MEMBERSHIP_TABLE = "public.account_permissions";
+
+    private final ObjectClass objectClass;
+    private final String table;
+    private final String keyColumn;
+    private final String nameColumn;
+    private final String membershipAttribute;
+    private final String membershipOwnColumn;
+    private final String membershipOtherColumn;
+    private final String modifiedColumn;
+
+    TableMapping(
+        ObjectClass objectClass,
+        String table,
+        String keyColumn,
+        String nameColumn,
+        String membershipAttribute,
+        String membershipOwnColumn,
+        String membershipOtherColumn,
+        String modifiedColumn) {
+
+        this.objectClass = objectClass;
+        this.table = table;
+        this.keyColumn = keyColumn;
+        this.nameColumn = nameColumn;
+        this.membershipAttribute = membershipAttribute;
+        this.membershipOwnColumn = membershipOwnColumn;
+        this.membershipOtherColumn = membershipOtherColumn;
+        this.modifiedColumn = modifiedColumn;
+    }
+
+    public static TableMapping forObjectClass(ObjectClass objectClass) {
+        for (TableMapping mapping : values()) {
+            if (objectClass.is(mapping.getObjectClassName())) {
+                return mapping;
+            }
+        }
+        throw new IllegalArgumentException("Unsupported object class: " + objectClass);
+    }
+
+    /**
+     * Whether the connector may write the column; keys and timestamps are maintained
+     * by the database and the connector.
+     */
+    public boolean isWritableColumn(String column) {
+        return !column.equals(keyColumn) && !column.equals("created_at") && !column.equals(modifiedColumn);
+    }
+
+    public boolean isMembershipAttribute(String attributeName) {
+        return membershipAttribute.equals(attributeName);
+    }
+
+    public ObjectClass getObjectClass() {
+        return objectClass;
+    }
+
+    public String getObjectClassName() {
+        return objectClass.getObjectClassValue();
+    }
+
+    public String getTable() {
+        return table;
+    }
+
+    public String getKeyColumn() {
+        return keyColumn;
+    }
+
+    public String getNameColumn() {
+        return nameColumn;
+    }
+
+    public String getMembershipAttribute() {
+        return membershipAttribute;
+    }
+
+    public String getMembershipOwnColumn() {
+        return membershipOwnColumn;
+    }
+
+    public String getMembershipOtherColumn() {
+        return membershipOtherColumn;
+    }
+
+    /**
+     * The table on the other side of account_permissions.
+     */
+    public TableMapping getMembershipCounterpart() {
+        return this == ACCOUNT ? PERMISSION : ACCOUNT;
+    }
+
+    /**
+     * The column stamped with the time of the last change, or null if the table has none.
+     */
+    public String getModifiedColumn() {
+        return modifiedColumn;
+    }
+}
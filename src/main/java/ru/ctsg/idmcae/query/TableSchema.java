@@ -0,0 +1,66 @@
+package ru.ctsg.idmcae.query;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClassInfo;
+import org.identityconnectors.framework.common.objects.Uid;
+
+/**
+ * One table as found in the database: its columns, which of them hold text, and the
+ * object class built from them. Every column is an attribute of the same name.
+ */
+public final class TableSchema {
+
+    private final TableMapping table;
+    private final ObjectClassInfo objectClassInfo;
+    private final Set<String> columns;
+    private final Set<String> textColumns;
+
+    public TableSchema(TableMapping table, ObjectClassInfo objectClassInfo, Set<String> columns, Set<String> textColumns) {
+        this.table = table;
+        this.objectClassInfo = objectClassInfo;
+        this.columns = Collections.unmodifiableSet(new LinkedHashSet<>(columns));
+        this.textColumns = Collections.unmodifiableSet(new LinkedHashSet<>(textColumns));
+    }
+
+    /**
+     * Resolves a ConnId attribute name to its column, or returns null when the
+     * attribute is not stored as a plain column of this table.
+     */
+    public String column(String attributeName) {
+        if (Uid.NAME.equals(attributeName)) {
+            return table.getKeyColumn();
+        }
+        if (Name.NAME.equals(attributeName)) {
+            return table.getNameColumn();
+        }
+        return columns.contains(attributeName) ? attributeName : null;
+    }
+
+    /**
+     * Whether the column holds character data, so that case-insensitive and
+     * substring filters apply to it.
+     */
+    public boolean isTextColumn(String column) {
+        return textColumns.contains(column);
+    }
+
+    public boolean hasColumn(String column) {
+        return columns.contains(column);
+    }
+
+    public TableMapping getTable() {
+        return table;
+    }
+
+    public ObjectClassInfo getObjectClassInfo() {
+        return objectClassInfo;
+    }
+
+    public Set<String> getColumns() {
+        return columns;
+    }
+}
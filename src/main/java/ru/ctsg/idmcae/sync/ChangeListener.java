@@ -0,0 +1,371 @@
+package ru.ctsg.idmcae.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.postgresql.PGConnection;
+import org.postgresql.PGNotification;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Keeps a dedicated connection listening on {@value #CHANNEL}, fed by the triggers of
+ * {@code notify-triggers.sql}, and tells every LiveSync consumer whether anything it
+ * follows changed since its previous run.
+ *
+ * Inserts and updates only mark a consumer dirty; the timestamp streams then read the
+ * changed rows. Changes the streams cannot see (deleted rows, memberships removed or
+ * rewritten) are buffered by key, up to {@link #MAX_PENDING_KEYS} per consumer.
+ * While the connection is down or the triggers are missing, and right after listening
+ * starts, every consumer is dirty and its keys are incomplete, so nothing committed in
+ * the meantime is missed. The connection runs a keep-alive query every
+ * {@link #KEEPALIVE_MILLIS}, which also checks that the triggers are still there, and
+ * every {@link #FULL_POLL_RUNS}th run of a consumer polls regardless of notifications.
+ *
+ * A listener belongs to a shared connection pool, connects with the pool's settings
+ * and is stopped when the pool is closed. Consumers are identified by their sync
+ * token, so every sync task has its own subscription; one not drained for
+ * {@link #IDLE_MILLIS} is dropped.
+ */
+public final class ChangeListener {
+
+    private static final Log LOG = Log.getLog(ChangeListener.class);
+
+    static final String CHANNEL = "adlk_changes";
+
+    private static final String TRIGGERS = "notify-triggers.sql";
+    private static final String TRIGGER_COUNT =
+        "SELECT count(*) FROM pg_trigger WHERE tgname = 'adlk_notify_change' AND NOT tgisinternal";
+    private static final int POLL_MILLIS = 1000;
+    private static final long KEEPALIVE_MILLIS = 30_000;
+    private static final long RETRY_MILLIS = 5000;
+    private static final long TRIGGER_RETRY_MILLIS = 60_000;
+    private static final long IDLE_MILLIS = 3_600_000;
+    private static final int FULL_POLL_RUNS = 30;
+    private static final int MAX_PENDING_KEYS = 10_000;
+
+    private final String poolName;
+    private final String jdbcUrl;
+    private final String jdbcDriver;
+    private final Properties connectionProperties = new Properties();
+    private final ConcurrentMap<String, Subscription> subscriptions = new ConcurrentHashMap<>();
+    private final Thread thread;
+
+    private volatile boolean listening;
+    private volatile boolean stopped;
+
+    private ChangeListener(HikariDataSource dataSource) {
+        this.poolName = dataSource.getPoolName();
+        this.jdbcUrl = dataSource.getJdbcUrl();
+        this.jdbcDriver = dataSource.getDriverClassName();
+
+        connectionProperties.setProperty("user", dataSource.getUsername());
+        connectionProperties.setProperty("password", dataSource.getPassword());
+        connectionProperties.setProperty("ApplicationName", "ADLK change listener");
+        // a keep-alive query on a half-open connection fails instead of hanging
+        connectionProperties.setProperty("socketTimeout", Long.toString(KEEPALIVE_MILLIS / 1000));
+        connectionProperties.setProperty("tcpKeepAlive", "true");
+
+        this.thread = new Thread(this::run, "adlk-change-listener");
+        this.thread.setDaemon(true);
+    }
+
+    /**
+     * Starts listening with the settings of a pool; {@link #stop} it before the pool is closed.
+     */
+    public static ChangeListener start(HikariDataSource dataSource) {
+        ChangeListener listener = new ChangeListener(dataSource);
+        listener.thread.start();
+        return listener;
+    }
+
+    public void stop() {
+        stopped = true;
+        thread.interrupt();
+    }
+
+    /**
+     * The subscription of a LiveSync consumer. A new subscription starts dirty and
+     * with incomplete keys.
+     */
+    public Subscription subscribe(String consumer, Collection<ChangeStream> streams) {
+        long now = System.currentTimeMillis();
+        subscriptions.values().removeIf(subscription -> subscription.isIdle(now));
+        return subscriptions.computeIfAbsent(consumer, k -> new Subscription(EnumSet.copyOf(streams)));
+    }
+
+    private void run() {
+        while (!stopped) {
+            long retryMillis = RETRY_MILLIS;
+            try (Connection connection = connect()) {
+                if (installTriggers(connection)) {
+                    listen(connection);
+                } else {
+                    retryMillis = TRIGGER_RETRY_MILLIS;
+                    LOG.warn("Change notification triggers of connection pool {0} are missing, every LiveSync "
+                        + "run polls; apply {1} as the table owner", poolName, TRIGGERS);
+                }
+            } catch (SQLException | RuntimeException e) {
+                if (!stopped) {
+                    LOG.warn(e, "Change listener of connection pool {0} lost its connection, retrying in {1} ms",
+                        poolName, retryMillis);
+                }
+            } finally {
+                listening = false;
+                markAllIncomplete();
+            }
+
+            try {
+                Thread.sleep(retryMillis);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+
+    /*
+     * Returns when the listener is stopped or the triggers were dropped; throws when
+     * the connection fails, including the keep-alive query on a half-open one.
+     */
+    private void listen(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("LISTEN " + CHANNEL);
+        }
+
+        // whatever was committed before LISTEN took effect is unknown
+        listening = true;
+        markAllIncomplete();
+        LOG.info("Listening for changes on {0} for connection pool {1}", CHANNEL, poolName);
+
+        PGConnection pgConnection = connection.unwrap(PGConnection.class);
+        long keepAliveAt = System.currentTimeMillis() + KEEPALIVE_MILLIS;
+        while (!stopped) {
+            PGNotification[] notifications = pgConnection.getNotifications(POLL_MILLIS);
+            if (notifications != null) {
+                for (PGNotification notification : notifications) {
+                    dispatch(notification.getParameter());
+                }
+            }
+            if (System.currentTimeMillis() >= keepAliveAt) {
+                if (triggerCount(connection) != ChangeStream.values().length) {
+                    LOG.warn("Change notification triggers of connection pool {0} were dropped", poolName);
+                    return;
+                }
+                keepAliveAt = System.currentTimeMillis() + KEEPALIVE_MILLIS;
+            }
+        }
+    }
+
+    private Connection connect() throws SQLException {
+        try {
+            Driver driver = (Driver) Class.forName(jdbcDriver).getDeclaredConstructor().newInstance();
+            Connection connection = driver.connect(jdbcUrl, connectionProperties);
+            if (connection == null) {
+                throw new SQLException("Driver " + jdbcDriver + " does not accept " + jdbcUrl);
+            }
+            return connection;
+        } catch (ReflectiveOperationException e) {
+            throw new ConnectorException("Failed to load JDBC driver " + jdbcDriver, e);
+        }
+    }
+
+    private static int triggerCount(Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement();
+            ResultSet resultSet = statement.executeQuery(TRIGGER_COUNT)) {
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+
+    /*
+     * Whether every stream has its trigger, after installing them if they were not;
+     * installing needs to own the tables, which the connector's user usually does not.
+     */
+    private boolean installTriggers(Connection connection) throws SQLException {
+        if (triggerCount(connection) == ChangeStream.values().length) {
+            return true;
+        }
+
+        String script;
+        try (InputStream inputStream = ChangeListener.class.getResourceAsStream(TRIGGERS)) {
+            if (inputStream == null) {
+                throw new ConnectorException("Missing resource " + TRIGGERS);
+            }
+            script = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new ConnectorException("Failed to read " + TRIGGERS, e);
+        }
+
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(script);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            LOG.warn(e, "Failed to install change notification triggers");
+            return false;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        LOG.info("Installed change notification triggers");
+        return true;
+    }
+
+    private void dispatch(String payload) {
+        // <stream>:<operation>:<key>
+        ChangeStream stream = payload.length() > 4 ? ChangeStream.forId(payload.charAt(0)) : null;
+        if (stream == null || payload.charAt(1) != ':' || payload.charAt(3) != ':') {
+            LOG.warn("Ignoring unexpected notification {0}", payload);
+            return;
+        }
+
+        char operation = payload.charAt(2);
+        String key = payload.substring(4);
+        for (Subscription subscription : subscriptions.values()) {
+            subscription.offer(stream, operation, key);
+        }
+    }
+
+    private void markAllIncomplete() {
+        for (Subscription subscription : subscriptions.values()) {
+            subscription.markIncomplete();
+        }
+    }
+
+    public final class Subscription {
+
+        private final Set<ChangeStream> streams;
+        private Map<ChangeStream, Set<String>> keys = new EnumMap<>(ChangeStream.class);
+        private int pendingKeys;
+        private boolean overflowed;
+        private boolean complete;
+        private boolean dirty = true;
+        private int quietRuns;
+        private long drainedAt = System.currentTimeMillis();
+
+        private Subscription(Set<ChangeStream> streams) {
+            this.streams = streams;
+        }
+
+        private synchronized void offer(ChangeStream stream, char operation, String key) {
+            if (!streams.contains(stream)) {
+                return;
+            }
+            dirty = true;
+
+            boolean untracked = operation == 'D' || (!stream.isEntityStream() && operation == 'U');
+            if (!untracked) {
+                return;
+            }
+            if (pendingKeys >= MAX_PENDING_KEYS) {
+                if (!overflowed) {
+                    LOG.warn("More than {0} unsynchronized deletions buffered, dropping further ones", MAX_PENDING_KEYS);
+                }
+                overflowed = true;
+                complete = false;
+                return;
+            }
+            if (keys.computeIfAbsent(stream, s -> new LinkedHashSet<>()).add(key)) {
+                pendingKeys++;
+            }
+        }
+
+        /**
+         * Takes the changes since the previous drain, or returns null if there were none.
+         * Every run must end with {@link #complete}.
+         */
+        public synchronized Changes drain() {
+            drainedAt = System.currentTimeMillis();
+            if (!dirty && listening && ++quietRuns < FULL_POLL_RUNS) {
+                return null;
+            }
+
+            // a poll nothing asked for also looks for deletions the notifications may have lost
+            Changes changes = new Changes(keys, complete && dirty);
+            keys = new EnumMap<>(ChangeStream.class);
+            pendingKeys = 0;
+            overflowed = false;
+            complete = listening;
+            dirty = false;
+            quietRuns = 0;
+            return changes;
+        }
+
+        /**
+         * Returns the keys of {@code changes} (null if nothing was drained) that were not
+         * delivered; unless the run {@code finished}, the subscription stays dirty.
+         */
+        public synchronized void complete(Changes changes, boolean finished) {
+            if (changes == null) {
+                dirty |= !finished;
+                return;
+            }
+            for (Map.Entry<ChangeStream, Set<String>> entry : changes.keys.entrySet()) {
+                for (String key : entry.getValue()) {
+                    if (keys.computeIfAbsent(entry.getKey(), s -> new LinkedHashSet<>()).add(key)) {
+                        pendingKeys++;
+                    }
+                }
+            }
+            complete &= changes.complete || finished;
+            dirty |= !finished || pendingKeys > 0;
+        }
+
+        public synchronized void markDirty() {
+            dirty = true;
+        }
+
+        private synchronized void markIncomplete() {
+            dirty = true;
+            complete = false;
+        }
+
+        private synchronized boolean isIdle(long now) {
+            return now - drainedAt > IDLE_MILLIS;
+        }
+    }
+
+    /**
+     * Changes a subscription collected: keys per stream the timestamp streams cannot
+     * see. Delivered keys are to be removed from {@link #keys}.
+     */
+    public static final class Changes {
+
+        private final Map<ChangeStream, Set<String>> keys;
+        private final boolean complete;
+
+        private Changes(Map<ChangeStream, Set<String>> keys, boolean complete) {
+            this.keys = keys;
+            this.complete = complete;
+        }
+
+        public Set<String> keys(ChangeStream stream) {
+            return keys.getOrDefault(stream, Set.of());
+        }
+
+        /**
+         * Whether the keys hold every deletion since the previous run; if not, deletions
+         * must be found another way.
+         */
+        public boolean isComplete() {
+            return complete;
+        }
+    }
+}
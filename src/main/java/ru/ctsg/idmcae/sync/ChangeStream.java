@@ -0,0 +1,119 @@
+package ru.ctsg.idmcae.sync;
+
+import java.util.List;
+
+import org.identityconnectors.framework.common.objects.ObjectClass;
+
+import ru.ctsg.idmcae.query.TableMapping;
+
+/**
+ * A table LiveSync follows, ordered by (change timestamp, key). Every stream keeps its
+ * own watermark in the sync token. Membership rows are reported as changes of the
+ * account they belong to, since they change its memberOf.
+ */
+public enum ChangeStream {
+
+    ACCOUNTS('a', TableMapping.ACCOUNT, "public.accounts", "last_modified_at", "account_id"),
+
+    PERMISSIONS('p', TableMapping.PERMISSION, "public.permission", "last_modified_at", "permission_uid"),
+
+    MEMBERSHIPS('m', TableMapping.ACCOUNT, TableMapping.MEMBERSHIP_TABLE, "created_at", "account_id");
+
+    private final char id;
+    private final TableMapping target;
+    private final String from;
+    private final String timestampColumn;
+    private final String keyColumn;
+
+    ChangeStream(char id, TableMapping target, String from, String timestampColumn, String keyColumn) {
+        this.id = id;
+        this.target = target;
+        this.from = from;
+        this.timestampColumn = timestampColumn;
+        this.keyColumn = keyColumn;
+    }
+
+    public static List<ChangeStream> forObjectClass(ObjectClass objectClass) {
+        if (objectClass.is(ObjectClass.ALL_NAME)) {
+            return List.of(ACCOUNTS, PERMISSIONS, MEMBERSHIPS);
+        }
+        if (objectClass.is(ObjectClass.ACCOUNT_NAME)) {
+            return List.of(ACCOUNTS, MEMBERSHIPS);
+        }
+        if (objectClass.is(TableMapping.PERMISSION.getObjectClassName())) {
+            return List.of(PERMISSIONS);
+        }
+        throw new IllegalArgumentException("Unsupported object class: " + objectClass);
+    }
+
+    static ChangeStream forId(char id) {
+        for (ChangeStream stream : values()) {
+            if (stream.id == id) {
+                return stream;
+            }
+        }
+        return null;
+    }
+
+    char getId() {
+        return id;
+    }
+
+    /**
+     * The table whose objects this stream reports.
+     */
+    public TableMapping getTarget() {
+        return target;
+    }
+
+    /**
+     * The column ordering the stream, stamped by the database on every change.
+     */
+    public String getTimestampColumn() {
+        return timestampColumn;
+    }
+
+    /**
+     * Whether the stream follows the target table itself (and deletions can be detected on it).
+     */
+    public boolean isEntityStream() {
+        return this != MEMBERSHIPS;
+    }
+
+    /**
+     * Changes after a watermark (two placeholders, one without a key) and before the
+     * horizon placeholder, limited by the last placeholder.
+     */
+    public String changesQuery(boolean afterWatermark, boolean withKey) {
+        String after = "";
+        if (afterWatermark) {
+            after = withKey
+                ? "(" + timestampColumn + ", " + keyColumn + ") > (?, ?) AND "
+                : timestampColumn + " > ? AND ";
+        }
+        return "SELECT " + timestampColumn + " AS changed_at, " + keyColumn + " AS key "
+            + "FROM " + from + " "
+            + "WHERE " + after + timestampColumn + " < ? "
+            + "ORDER BY " + timestampColumn + ", " + keyColumn + " "
+            + "LIMIT ?";
+    }
+
+    /**
+     * The newest change before the horizon placeholder.
+     */
+    public String latestQuery() {
+        return "SELECT " + timestampColumn + " AS changed_at, " + keyColumn + " AS key "
+            + "FROM " + from + " "
+            + "WHERE " + timestampColumn + " < ? "
+            + "ORDER BY " + timestampColumn + " DESC, " + keyColumn + " DESC "
+            + "LIMIT 1";
+    }
+
+    /**
+     * Whether there are changes at or after the horizon placeholder, which a run
+     * ending at that horizon has not seen yet.
+     */
+    public String pendingQuery() {
+        return "SELECT EXISTS (SELECT 1 FROM " + from + " WHERE " + timestampColumn + " >= ?)";
+    }
+}
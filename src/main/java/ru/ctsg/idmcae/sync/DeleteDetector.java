@@ -0,0 +1,545 @@
+package ru.ctsg.idmcae.sync;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+import ru.ctsg.idmcae.query.StreamingRead;
+import ru.ctsg.idmcae.query.TableMapping;
+
+/**
+ * Finds rows that disappeared since a consumer's previous run without rereading the table.
+ *
+ * The known keys are kept in memory as primitive arrays, split into key ranges of
+ * roughly {@code rangeSize} keys, each with its key count and the sum of a 32 bit
+ * hash of its keys. A run asks the database for the same two aggregates per range in
+ * one grouped query ({@code width_bucket} over the range boundaries) and only rereads
+ * the keys of ranges whose aggregates differ. The cost of a run is one aggregate scan
+ * plus work proportional to the number of changed ranges.
+ *
+ * There is one detector per sync token consumer and table. Its state is numbered by
+ * generations that travel in the consumer's token: a run reads the state of the
+ * token's generation and leaves the next one, so a run whose token was not kept is
+ * simply repeated. The ranges are also written to {@link DeleteDetectors#STATE_TABLE}
+ * when it is available, a run changing only the rows of changed ranges, so that the
+ * first run after a restart finds the deletions made while the connector was down.
+ * Without any state to compare with, a run only records a baseline.
+ */
+public final class DeleteDetector {
+
+    private static final Log LOG = Log.getLog(DeleteDetector.class);
+
+    private static final String STATE_TABLE = DeleteDetectors.STATE_TABLE;
+    private static final String STATE_OF = " WHERE consumer = ? AND table_name = ?";
+
+    private final DeleteDetectors detectors;
+    private final String consumer;
+    private final TableMapping table;
+    private final int rangeSize;
+    private final String hash;
+
+    private KeyFormat keyFormat;
+    private String keyTypeName;
+
+    // the ranges of generation, and of the generation before it
+    private long generation = -1;
+    private List<IdRange> ranges;
+    private long previousGeneration = -1;
+    private List<IdRange> previous;
+
+    private volatile long usedAt = System.currentTimeMillis();
+
+    DeleteDetector(DeleteDetectors detectors, String consumer, TableMapping table, int rangeSize) {
+        this.detectors = detectors;
+        this.consumer = consumer;
+        this.table = table;
+        this.rangeSize = rangeSize;
+        this.hash = "('x' || substr(md5(" + table.getKeyColumn() + "::text), 1, 8))::bit(32)::int";
+    }
+
+    boolean isIdle(long now, long idleMillis) {
+        return now - usedAt > idleMillis;
+    }
+
+    /**
+     * Returns the keys deleted since the state of {@code tokenGeneration}, the detection
+     * generation of the consumer's token, and leaves the state of the generation after it.
+     */
+    public synchronized List<String> detect(long tokenGeneration, Connection connection, int fetchSize)
+        throws SQLException {
+
+        usedAt = System.currentTimeMillis();
+        boolean persistent = detectors.isPersistent(connection);
+        List<IdRange> known = state(tokenGeneration, persistent, connection);
+
+        if (known == null) {
+            if (tokenGeneration > 0) {
+                LOG.warn("No delete detection state of generation {0} for {1}, deletions since are not reported",
+                    tokenGeneration, table.getTable());
+            }
+            List<IdRange> baseline = baseline(connection, fetchSize);
+            if (persistent) {
+                save(tokenGeneration, List.of(), baseline, true, connection);
+            }
+            remember(tokenGeneration, null, baseline);
+            return List.of();
+        }
+
+        Map<Integer, long[]> aggregates = aggregates(known, connection);
+        List<String> deleted = new ArrayList<>();
+        List<IdRange> refreshed = new ArrayList<>(known.size());
+        List<IdRange> replaced = new ArrayList<>();
+        List<IdRange> added = new ArrayList<>();
+
+        for (int i = 0; i < known.size(); i++) {
+            IdRange range = known.get(i);
+            long[] aggregate = aggregates.getOrDefault(i, new long[] {0, 0});
+            if (aggregate[0] == range.size() && aggregate[1] == range.hashSum) {
+                refreshed.add(range);
+                continue;
+            }
+
+            replaced.add(range);
+            IdRange upper = i + 1 < known.size() ? known.get(i + 1) : null;
+            IdRange current = reload(connection, i == 0 ? null : range, upper);
+
+            Set<String> present = new HashSet<>(current.size() * 2);
+            for (int k = 0; k < current.size(); k++) {
+                present.add(current.key(k));
+            }
+            for (int k = 0; k < range.size(); k++) {
+                String key = range.key(k);
+                if (!present.contains(key)) {
+                    deleted.add(key);
+                }
+            }
+
+            // an emptied range is dropped; its predecessor now reaches up to the next boundary
+            if (current.size() > 0 || i == 0) {
+                List<IdRange> parts = current.split(rangeSize);
+                refreshed.addAll(parts);
+                added.addAll(parts);
+            }
+        }
+
+        if (persistent) {
+            save(tokenGeneration, replaced, added, false, connection);
+        }
+        remember(tokenGeneration, known, refreshed);
+        LOG.ok("Delete detection on {0} for {1}: {2} of {3} ranges changed, {4} deleted",
+            table.getTable(), consumer, replaced.size(), refreshed.size(), deleted.size());
+        return deleted;
+    }
+
+    private void remember(long tokenGeneration, List<IdRange> known, List<IdRange> next) {
+        previousGeneration = known == null ? -1 : tokenGeneration;
+        previous = known;
+        generation = tokenGeneration + 1;
+        ranges = next;
+    }
+
+    /*
+     * The ranges of a generation: from memory when this detector ran from or to it,
+     * else from the state table; null if there are none.
+     */
+    private List<IdRange> state(long tokenGeneration, boolean persistent, Connection connection) throws SQLException {
+        if (ranges != null && generation == tokenGeneration) {
+            return ranges;
+        }
+        if (previous != null && previousGeneration == tokenGeneration) {
+            return previous;
+        }
+        if (!persistent || tokenGeneration == 0) {
+            return null;
+        }
+
+        readKeyType(connection);
+        List<IdRange> loaded = new ArrayList<>();
+        String sql = "SELECT keys, hashes FROM " + STATE_TABLE + STATE_OF
+            + " AND valid_from <= ? AND (valid_to IS NULL OR valid_to > ?)";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, consumer);
+            preparedStatement.setString(2, table.getTable());
+            preparedStatement.setLong(3, tokenGeneration);
+            preparedStatement.setLong(4, tokenGeneration);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    loaded.add(IdRange.unpack(keyFormat, resultSet.getBytes(1), resultSet.getBytes(2)));
+                }
+            }
+        }
+        if (loaded.isEmpty()) {
+            return null;
+        }
+        loaded.sort(IdRange.BY_LOWER_BOUND);
+        LOG.info("Loaded delete detection state of generation {0} for {1}: {2} ranges",
+            tokenGeneration, table.getTable(), loaded.size());
+        return loaded;
+    }
+
+    /*
+     * Moves the stored state from generation g to g + 1 in one transaction: undoes a
+     * run from g whose token was not kept, drops what no generation from g on needs,
+     * closes the replaced ranges and adds their successors.
+     */
+    private void save(long tokenGeneration, List<IdRange> replaced, List<IdRange> added, boolean baseline,
+        Connection connection) throws SQLException {
+
+        long next = tokenGeneration + 1;
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            if (baseline) {
+                update("DELETE FROM " + STATE_TABLE + STATE_OF, connection);
+            } else {
+                update("DELETE FROM " + STATE_TABLE + STATE_OF + " AND valid_from > ?", connection, tokenGeneration);
+                update("UPDATE " + STATE_TABLE + " SET valid_to = NULL" + STATE_OF + " AND valid_to > ?",
+                    connection, tokenGeneration);
+                update("DELETE FROM " + STATE_TABLE + STATE_OF + " AND valid_to <= ?", connection, tokenGeneration);
+
+                String close = "UPDATE " + STATE_TABLE + " SET valid_to = ?" + STATE_OF
+                    + " AND valid_to IS NULL AND lower_bound = ?";
+                try (PreparedStatement preparedStatement = connection.prepareStatement(close)) {
+                    for (IdRange range : replaced) {
+                        preparedStatement.setLong(1, next);
+                        preparedStatement.setString(2, consumer);
+                        preparedStatement.setString(3, table.getTable());
+                        preparedStatement.setString(4, range.lowerBound());
+                        preparedStatement.addBatch();
+                    }
+                    preparedStatement.executeBatch();
+                }
+            }
+
+            String insert = "INSERT INTO " + STATE_TABLE
+                + " (consumer, table_name, valid_from, lower_bound, keys, hashes) VALUES (?, ?, ?, ?, ?, ?)";
+            try (PreparedStatement preparedStatement = connection.prepareStatement(insert)) {
+                for (IdRange range : added) {
+                    preparedStatement.setString(1, consumer);
+                    preparedStatement.setString(2, table.getTable());
+                    preparedStatement.setLong(3, next);
+                    preparedStatement.setString(4, range.lowerBound());
+                    preparedStatement.setBytes(5, range.packKeys());
+                    preparedStatement.setBytes(6, range.packHashes());
+                    preparedStatement.addBatch();
+                }
+                preparedStatement.executeBatch();
+            }
+
+            // at most daily, and then the state of consumers gone for a month is dropped
+            int touched = update("UPDATE " + STATE_TABLE + " SET touched_at = now()" + STATE_OF
+                + " AND touched_at < now() - interval '1 day'", connection);
+            if (touched > 0 || baseline) {
+                try (Statement statement = connection.createStatement()) {
+                    statement.executeUpdate("DELETE FROM " + STATE_TABLE + " WHERE touched_at < now() - interval '30 days'");
+                }
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    private int update(String sql, Connection connection, long... generations) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            preparedStatement.setString(1, consumer);
+            preparedStatement.setString(2, table.getTable());
+            for (int i = 0; i < generations.length; i++) {
+                preparedStatement.setLong(3 + i, generations[i]);
+            }
+            return preparedStatement.executeUpdate();
+        }
+    }
+
+    private void readKeyType(Connection connection) throws SQLException {
+        String sql = "SELECT " + table.getKeyColumn() + " FROM " + table.getTable() + " LIMIT 0";
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            keyTypeName = resultSet.getMetaData().getColumnTypeName(1);
+            keyFormat = KeyFormat.of(keyTypeName);
+        }
+    }
+
+    private List<IdRange> baseline(Connection connection, int fetchSize) throws SQLException {
+        final String sql = "SELECT " + table.getKeyColumn() + ", " + hash + " FROM " + table.getTable()
+            + " ORDER BY " + table.getKeyColumn();
+
+        List<IdRange> baseline = new ArrayList<>();
+
+        try (StreamingRead streamingRead = new StreamingRead(connection, fetchSize);
+            PreparedStatement preparedStatement = streamingRead.prepareStatement(sql);
+            ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            keyTypeName = resultSet.getMetaData().getColumnTypeName(1);
+            keyFormat = KeyFormat.of(keyTypeName);
+
+            IdRange range = new IdRange(keyFormat, rangeSize);
+            while (resultSet.next()) {
+                if (range.size() == rangeSize) {
+                    baseline.add(range);
+                    range = new IdRange(keyFormat, rangeSize);
+                }
+                range.add(resultSet.getString(1), resultSet.getInt(2));
+            }
+            baseline.add(range);
+        }
+
+        LOG.info("Delete detection baseline for {0}: {1} ranges", table.getTable(), baseline.size());
+        return baseline;
+    }
+
+    private Map<Integer, long[]> aggregates(List<IdRange> ranges, Connection connection) throws SQLException {
+        String bucket = ranges.size() > 1 ? "width_bucket(" + table.getKeyColumn() + ", ?)" : "0";
+        String sql = "SELECT " + bucket + " AS bucket, count(*), COALESCE(sum(" + hash + "), 0) "
+            + "FROM " + table.getTable() + " GROUP BY 1";
+
+        Map<Integer, long[]> aggregates = new HashMap<>();
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            if (ranges.size() > 1) {
+                Object[] thresholds = new Object[ranges.size() - 1];
+                for (int i = 1; i < ranges.size(); i++) {
+                    thresholds[i - 1] = keyFormat.toJdbc(ranges.get(i).lowerBound());
+                }
+                preparedStatement.setArray(1, connection.createArrayOf(keyTypeName, thresholds));
+            }
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    aggregates.put(resultSet.getInt(1), new long[] {resultSet.getLong(2), resultSet.getLong(3)});
+                }
+            }
+        }
+        return aggregates;
+    }
+
+    private IdRange reload(Connection connection, IdRange lower, IdRange upper) throws SQLException {
+        String key = table.getKeyColumn();
+        List<String> conditions = new ArrayList<>(2);
+        if (lower != null) {
+            conditions.add(key + " >= ?");
+        }
+        if (upper != null) {
+            conditions.add(key + " < ?");
+        }
+
+        String sql = "SELECT " + key + ", " + hash + " FROM " + table.getTable()
+            + (conditions.isEmpty() ? "" : " WHERE " + String.join(" AND ", conditions))
+            + " ORDER BY " + key;
+
+        IdRange range = new IdRange(keyFormat, rangeSize);
+
+        try (PreparedStatement preparedStatement = connection.prepareStatement(sql)) {
+            int index = 1;
+            if (lower != null) {
+                preparedStatement.setObject(index++, keyFormat.toJdbc(lower.lowerBound()));
+            }
+            if (upper != null) {
+                preparedStatement.setObject(index, keyFormat.toJdbc(upper.lowerBound()));
+            }
+
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    range.add(resultSet.getString(1), resultSet.getInt(2));
+                }
+            }
+        }
+        return range;
+    }
+
+    /**
+     * Keys packed into long words: one per integer key, two per uuid.
+     */
+    private enum KeyFormat {
+
+        INTEGER(1) {
+            @Override
+            void write(String key, long[] words, int offset) {
+                words[offset] = Long.parseLong(key);
+            }
+
+            @Override
+            String read(long[] words, int offset) {
+                return Long.toString(words[offset]);
+            }
+
+            @Override
+            Object toJdbc(String key) {
+                return Long.valueOf(key);
+            }
+
+            @Override
+            int compare(long[] words, long[] otherWords) {
+                return Long.compare(words[0], otherWords[0]);
+            }
+        },
+
+        UUID(2) {
+            @Override
+            void write(String key, long[] words, int offset) {
+                java.util.UUID uuid = java.util.UUID.fromString(key);
+                words[offset] = uuid.getMostSignificantBits();
+                words[offset + 1] = uuid.getLeastSignificantBits();
+            }
+
+            @Override
+            String read(long[] words, int offset) {
+                return new java.util.UUID(words[offset], words[offset + 1]).toString();
+            }
+
+            @Override
+            Object toJdbc(String key) {
+                return java.util.UUID.fromString(key);
+            }
+
+            // PostgreSQL compares uuids bytewise
+            @Override
+            int compare(long[] words, long[] otherWords) {
+                int order = Long.compareUnsigned(words[0], otherWords[0]);
+                return order != 0 ? order : Long.compareUnsigned(words[1], otherWords[1]);
+            }
+        };
+
+        private final int width;
+
+        KeyFormat(int width) {
+            this.width = width;
+        }
+
+        static KeyFormat of(String typeName) {
+            switch (typeName) {
+                case "int2":
+                case "int4":
+                case "int8":
+                case "serial":
+                case "bigserial":
+                    return INTEGER;
+                case "uuid":
+                    return UUID;
+                default:
+                    throw new ConnectorException("Delete detection needs an integer or uuid key, found " + typeName);
+            }
+        }
+
+        abstract void write(String key, long[] words, int offset);
+
+        abstract String read(long[] words, int offset);
+
+        abstract Object toJdbc(String key);
+
+        // of the first keys of two word arrays
+        abstract int compare(long[] words, long[] otherWords);
+    }
+
+    private static final class IdRange {
+
+        // an empty range only occurs as the first one
+        static final Comparator<IdRange> BY_LOWER_BOUND = (range, other) -> range.size == 0 || other.size == 0
+            ? Boolean.compare(other.size == 0, range.size == 0)
+            : range.format.compare(range.words, other.words);
+
+        private final KeyFormat format;
+        private long[] words;
+        private int[] hashes;
+        private int size;
+        private long hashSum;
+
+        IdRange(KeyFormat format, int capacity) {
+            this.format = format;
+            this.words = new long[Math.max(capacity, 1) * format.width];
+            this.hashes = new int[Math.max(capacity, 1)];
+        }
+
+        void add(String key, int hash) {
+            if (size == hashes.length) {
+                words = Arrays.copyOf(words, words.length * 2);
+                hashes = Arrays.copyOf(hashes, hashes.length * 2);
+            }
+            format.write(key, words, size * format.width);
+            hashes[size] = hash;
+            size++;
+            hashSum += hash;
+        }
+
+        int size() {
+            return size;
+        }
+
+        String key(int index) {
+            return format.read(words, index * format.width);
+        }
+
+        String lowerBound() {
+            return size == 0 ? "" : key(0);
+        }
+
+        byte[] packKeys() {
+            ByteBuffer buffer = ByteBuffer.allocate(size * format.width * Long.BYTES);
+            buffer.asLongBuffer().put(words, 0, size * format.width);
+            return buffer.array();
+        }
+
+        byte[] packHashes() {
+            ByteBuffer buffer = ByteBuffer.allocate(size * Integer.BYTES);
+            buffer.asIntBuffer().put(hashes, 0, size);
+            return buffer.array();
+        }
+
+        static IdRange unpack(KeyFormat format, byte[] keys, byte[] hashes) {
+            int size = hashes.length / Integer.BYTES;
+            if (keys.length != size * format.width * Long.BYTES) {
+                throw new ConnectorException("Delete detection state does not match the key type " + format);
+            }
+            IdRange range = new IdRange(format, size);
+            ByteBuffer.wrap(keys).asLongBuffer().get(range.words, 0, size * format.width);
+            ByteBuffer.wrap(hashes).asIntBuffer().get(range.hashes, 0, size);
+            range.size = size;
+            for (int i = 0; i < size; i++) {
+                range.hashSum += range.hashes[i];
+            }
+            return range;
+        }
+
+        /**
+         * New keys accumulate in the last range, so a range that outgrew twice the
+         * range size is cut back into ranges of {@code rangeSize} keys.
+         */
+        List<IdRange> split(int rangeSize) {
+            if (size <= rangeSize * 2) {
+                return List.of(this);
+            }
+
+            List<IdRange> parts = new ArrayList<>(size / rangeSize + 1);
+            for (int from = 0; from < size; from += rangeSize) {
+                int to = Math.min(from + rangeSize, size);
+                IdRange part = new IdRange(format, to - from);
+                System.arraycopy(words, from * format.width, part.words, 0, (to - from) * format.width);
+                System.arraycopy(hashes, from, part.hashes, 0, to - from);
+                part.size = to - from;
+                for (int i = from; i < to; i++) {
+                    part.hashSum += hashes[i];
+                }
+                parts.add(part);
+            }
+            return parts;
+        }
+    }
+}
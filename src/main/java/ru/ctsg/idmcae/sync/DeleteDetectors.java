@@ -0,0 +1,93 @@
+package ru.ctsg.idmcae.sync;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.identityconnectors.common.logging.Log;
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+import ru.ctsg.idmcae.query.TableMapping;
+
+/**
+ * The delete detectors of a shared connection pool, one per sync token consumer and
+ * table. Their state is kept in {@value #STATE_TABLE}, created from
+ * {@code delete-detection.sql} on first use, so that it survives a restart; without
+ * the table, and the right to create it, it is kept in memory only. A detector not
+ * used for {@link #IDLE_MILLIS} is dropped from memory.
+ */
+public final class DeleteDetectors {
+
+    private static final Log LOG = Log.getLog(DeleteDetectors.class);
+
+    static final String STATE_TABLE = "public.adlk_delete_detection";
+
+    private static final String SCRIPT = "delete-detection.sql";
+    private static final long IDLE_MILLIS = 3_600_000;
+
+    private final ConcurrentMap<String, DeleteDetector> detectors = new ConcurrentHashMap<>();
+
+    private Boolean persistent;
+
+    public DeleteDetector forConsumer(String consumer, TableMapping table, int rangeSize) {
+        long now = System.currentTimeMillis();
+        detectors.values().removeIf(detector -> detector.isIdle(now, IDLE_MILLIS));
+        return detectors.computeIfAbsent(consumer + '|' + table.getTable(),
+            k -> new DeleteDetector(this, consumer, table, rangeSize));
+    }
+
+    /**
+     * Whether detector state goes to {@value #STATE_TABLE}; decided once per pool.
+     */
+    synchronized boolean isPersistent(Connection connection) throws SQLException {
+        if (persistent == null) {
+            persistent = exists(connection) || create(connection);
+        }
+        return persistent;
+    }
+
+    private static boolean exists(Connection connection) throws SQLException {
+        try (PreparedStatement preparedStatement = connection.prepareStatement("SELECT to_regclass(?) IS NOT NULL")) {
+            preparedStatement.setString(1, STATE_TABLE);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getBoolean(1);
+            }
+        }
+    }
+
+    private static boolean create(Connection connection) throws SQLException {
+        String script;
+        try (InputStream inputStream = DeleteDetectors.class.getResourceAsStream(SCRIPT)) {
+            if (inputStream == null) {
+                throw new ConnectorException("Missing resource " + SCRIPT);
+            }
+            script = new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new ConnectorException("Failed to read " + SCRIPT, e);
+        }
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(script);
+            connection.commit();
+        } catch (SQLException e) {
+            connection.rollback();
+            LOG.warn(e, "Failed to create {0}; delete detection state is kept in memory only and a restart "
+                + "loses the deletions made until the next run, apply {1} to keep it", STATE_TABLE, SCRIPT);
+            return false;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        LOG.info("Created {0}", STATE_TABLE);
+        return true;
+    }
+}
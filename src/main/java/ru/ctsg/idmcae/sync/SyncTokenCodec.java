@@ -0,0 +1,250 @@
+package ru.ctsg.idmcae.sync;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.OptionalDataException;
+import java.security.SecureRandom;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+
+/**
+ * Text form of LiveSync positions. Version 1 held a single {@link SyncWatermark}:
+ * {@code <version>:<epoch micros, base 36>[:<key>]}, e.g. {@code 1:hdb5mdw8ao:4711}.
+ * The key goes last, so it may contain any character.
+ *
+ * A sync position over several {@link ChangeStream change streams} was written as version 2,
+ * one entry per stream separated by commas: {@code 2:ahdb5mdw8ao:4711,phdb5mdw8ap}, where
+ * the first character of an entry names the stream. In keys of a position {@code %} and
+ * {@code ,} are percent-escaped.
+ *
+ * Version 3 adds the id of the consumer the token was handed to, so that state kept
+ * for a sync task between its runs is found again, and the generation of its delete
+ * detection state when there is one: {@code 3:k2v9x0c1.5:ahdb5mdw8ao:4711}. Every
+ * token without an id starts a new consumer. Only version 3 is written; tokens of
+ * versions 1 and 2 are still read.
+ *
+ * Tokens written by earlier versions (a Base64 encoded, Java-serialized Timestamp) are
+ * still accepted so that stored tokens migrate on the next sync; they are read through
+ * a deserialization filter that admits nothing but Timestamp and String.
+ */
+public final class SyncTokenCodec {
+
+    private static final char VERSION_1 = '1';
+    private static final char VERSION_2 = '2';
+    private static final char VERSION_3 = '3';
+    private static final char SEPARATOR = ':';
+    private static final char STREAM_SEPARATOR = ',';
+    private static final char GENERATION_SEPARATOR = '.';
+    private static final int RADIX = 36;
+    private static final SecureRandom CONSUMERS = new SecureRandom();
+
+    // Base64 of the Java serialization stream magic 0xACED0005
+    private static final String LEGACY_PREFIX = "rO0AB";
+    private static final ObjectInputFilter LEGACY_FILTER = ObjectInputFilter.Config.createFilter(
+        "maxbytes=512;maxdepth=2;java.sql.Timestamp;java.util.Date;java.lang.String;!*");
+
+    private SyncTokenCodec() {
+    }
+
+    public static SyncWatermark decode(String token) {
+        if (token == null || token.isEmpty()) {
+            throw new ConnectorException("Empty sync token");
+        }
+        if (token.startsWith(LEGACY_PREFIX)) {
+            return decodeLegacy(token);
+        }
+        if (token.length() < 3 || token.charAt(0) != VERSION_1 || token.charAt(1) != SEPARATOR) {
+            throw new ConnectorException("Unsupported sync token: " + token);
+        }
+
+        int end = token.indexOf(SEPARATOR, 2);
+        try {
+            long micros = Long.parseLong(token, 2, end < 0 ? token.length() : end, RADIX);
+            return new SyncWatermark(fromEpochMicros(micros), end < 0 ? null : token.substring(end + 1));
+        } catch (NumberFormatException e) {
+            throw new ConnectorException("Malformed sync token: " + token, e);
+        }
+    }
+
+    public static String encode(String consumer, long generation, Map<ChangeStream, SyncWatermark> position) {
+        StringBuilder token = new StringBuilder(24 + position.size() * 24)
+            .append(VERSION_3)
+            .append(SEPARATOR)
+            .append(consumer);
+        if (generation > 0) {
+            token.append(GENERATION_SEPARATOR).append(Long.toString(generation, RADIX));
+        }
+        token.append(SEPARATOR);
+        appendPosition(position, token);
+        return token.toString();
+    }
+
+    /**
+     * A new consumer id.
+     */
+    public static String newConsumer() {
+        return Long.toString(CONSUMERS.nextLong() & Long.MAX_VALUE, RADIX);
+    }
+
+    /**
+     * The consumer id of a version 3 token, null for any other.
+     */
+    public static String decodeConsumer(String token) {
+        String consumer = consumerPart(token);
+        if (consumer == null) {
+            return null;
+        }
+        int generation = consumer.indexOf(GENERATION_SEPARATOR);
+        return generation < 0 ? consumer : consumer.substring(0, generation);
+    }
+
+    /**
+     * The delete detection generation of a version 3 token, 0 for any other.
+     */
+    public static long decodeGeneration(String token) {
+        String consumer = consumerPart(token);
+        int generation = consumer == null ? -1 : consumer.indexOf(GENERATION_SEPARATOR);
+        if (generation < 0) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(consumer, generation + 1, consumer.length(), RADIX);
+        } catch (NumberFormatException e) {
+            throw new ConnectorException("Malformed sync token: " + token, e);
+        }
+    }
+
+    // <consumer>[.<generation>] of a version 3 token
+    private static String consumerPart(String token) {
+        if (token == null || token.length() < 2 || token.charAt(0) != VERSION_3 || token.charAt(1) != SEPARATOR) {
+            return null;
+        }
+        int end = token.indexOf(SEPARATOR, 2);
+        if (end <= 2) {
+            throw new ConnectorException("Malformed sync token: " + token);
+        }
+        return token.substring(2, end);
+    }
+
+    private static void appendPosition(Map<ChangeStream, SyncWatermark> position, StringBuilder token) {
+        boolean first = true;
+        for (Map.Entry<ChangeStream, SyncWatermark> entry : position.entrySet()) {
+            if (!first) {
+                token.append(STREAM_SEPARATOR);
+            }
+            first = false;
+
+            SyncWatermark watermark = entry.getValue();
+            token.append(entry.getKey().getId())
+                .append(Long.toString(toEpochMicros(watermark.getTimestamp()), RADIX));
+            if (watermark.getKey() != null) {
+                token.append(SEPARATOR);
+                escape(watermark.getKey(), token);
+            }
+        }
+    }
+
+    /**
+     * Reads a position; a single-watermark token (version 1 or legacy) becomes the
+     * position of {@code primary}. The consumer part of a version 3 token is skipped.
+     */
+    public static Map<ChangeStream, SyncWatermark> decodePosition(String token, ChangeStream primary) {
+        Map<ChangeStream, SyncWatermark> position = new EnumMap<>(ChangeStream.class);
+        String consumer = consumerPart(token);
+        if (consumer == null
+            && (token == null || token.length() < 2 || token.charAt(0) != VERSION_2 || token.charAt(1) != SEPARATOR)) {
+            position.put(primary, decode(token));
+            return position;
+        }
+
+        int start = consumer == null ? 2 : consumer.length() + 3;
+        while (start < token.length()) {
+            int end = token.indexOf(STREAM_SEPARATOR, start);
+            if (end < 0) {
+                end = token.length();
+            }
+
+            ChangeStream stream = ChangeStream.forId(token.charAt(start));
+            if (stream == null || end - start < 2) {
+                throw new ConnectorException("Malformed sync token: " + token);
+            }
+
+            int keyStart = token.indexOf(SEPARATOR, start);
+            int microsEnd = keyStart < 0 || keyStart > end ? end : keyStart;
+            try {
+                long micros = Long.parseLong(token, start + 1, microsEnd, RADIX);
+                String key = microsEnd == end ? null : unescape(token.substring(microsEnd + 1, end));
+                position.put(stream, new SyncWatermark(fromEpochMicros(micros), key));
+            } catch (NumberFormatException e) {
+                throw new ConnectorException("Malformed sync token: " + token, e);
+            }
+            start = end + 1;
+        }
+        return position;
+    }
+
+    static long toEpochMicros(Timestamp timestamp) {
+        return Math.floorDiv(timestamp.getTime(), 1000L) * 1_000_000L + timestamp.getNanos() / 1000;
+    }
+
+    static Timestamp fromEpochMicros(long micros) {
+        Timestamp timestamp = new Timestamp(Math.floorDiv(micros, 1_000_000L) * 1000L);
+        timestamp.setNanos((int) Math.floorMod(micros, 1_000_000L) * 1000);
+        return timestamp;
+    }
+
+    private static void escape(String key, StringBuilder token) {
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '%') {
+                token.append("%25");
+            } else if (c == STREAM_SEPARATOR) {
+                token.append("%2C");
+            } else {
+                token.append(c);
+            }
+        }
+    }
+
+    private static String unescape(String key) {
+        if (key.indexOf('%') < 0) {
+            return key;
+        }
+        StringBuilder result = new StringBuilder(key.length());
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            if (c == '%' && i + 2 < key.length()) {
+                result.append((char) Integer.parseInt(key, i + 1, i + 3, 16));
+                i += 2;
+            } else {
+                result.append(c);
+            }
+        }
+        return result.toString();
+    }
+
+    private static SyncWatermark decodeLegacy(String token) {
+        try (ObjectInputStream objectInputStream =
+                new ObjectInputStream(new ByteArrayInputStream(Base64.getDecoder().decode(token)))) {
+            objectInputStream.setObjectInputFilter(LEGACY_FILTER);
+
+            Timestamp timestamp = (Timestamp) objectInputStream.readObject();
+            String key = null;
+            try {
+                key = (String) objectInputStream.readObject();
+            } catch (EOFException | OptionalDataException e) {
+                // the oldest tokens hold only the timestamp
+            }
+            return new SyncWatermark(timestamp, key);
+
+        } catch (Exception e) {
+            throw new ConnectorException("Failed to decode legacy sync token", e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package ru.ctsg.idmcae.sync;
+
+import java.sql.Timestamp;
+import java.util.Objects;
+
+/**
+ * Position in a change stream ordered by (last_modified_at, key). The key breaks
+ * ties between rows that share a timestamp; it is null for watermarks that only
+ * carry a timestamp (tokens issued before keys were tracked, or an empty table).
+ */
+public final class SyncWatermark {
+
+    private final Timestamp timestamp;
+    private final String key;
+
+    public SyncWatermark(Timestamp timestamp, String key) {
+        this.timestamp = Objects.requireNonNull(timestamp, "timestamp");
+        this.key = key;
+    }
+
+    public Timestamp getTimestamp() {
+        return timestamp;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SyncWatermark)) {
+            return false;
+        }
+        SyncWatermark other = (SyncWatermark) o;
+        return timestamp.equals(other.timestamp) && Objects.equals(key, other.key);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(timestamp, key);
+    }
+
+    @Override
+    public String toString() {
+        return timestamp + (key == null ? "" : "/" + key);
+    }
+}
@@ -0,0 +1,54 @@
+-- Tables of the ADLK database as the connector expects them. The load harness creates
+-- them with --create-schema; the generated data is removed by --reset.
+
+CREATE TABLE IF NOT EXISTS public.accounts (
+    account_id       bigserial PRIMARY KEY,
+    username         varchar(128) NOT NULL UNIQUE,
+    full_name        varchar(256),
+    email            varchar(256),
+    is_active        boolean NOT NULL DEFAULT true,
+    created_at       timestamptz NOT NULL DEFAULT now(),
+    last_modified_at timestamptz NOT NULL DEFAULT now()
+);
+
+CREATE TABLE IF NOT EXISTS public.permission (
+    permission_uid   uuid PRIMARY KEY DEFAULT gen_random_uuid(),
+    code             varchar(128) NOT NULL UNIQUE,
+    display_name     varchar(256),
+    category         varchar(128),
+    created_at       timestamptz NOT NULL DEFAULT now(),
+    last_modified_at timestamptz NOT NULL DEFAULT now()
+);
+
+CREATE TABLE IF NOT EXISTS public.account_permissions (
+    account_id     bigint NOT NULL REFERENCES public.accounts ON DELETE CASCADE,
+    permission_uid uuid NOT NULL REFERENCES public.permission ON DELETE CASCADE,
+    created_at     timestamptz NOT NULL DEFAULT now(),
+    PRIMARY KEY (account_id, permission_uid)
+);
+
+-- The connector stamps its own writes; this keeps LiveSync seeing everyone else's.
+-- CURRENT_TIMESTAMP is the start of the transaction, as in the connector's statements.
+CREATE OR REPLACE FUNCTION public.adlk_touch_modified() RETURNS trigger
+LANGUAGE plpgsql AS $$
+BEGIN
+    NEW.last_modified_at := CURRENT_TIMESTAMP;
+    RETURN NEW;
+END
+$$;
+
+DROP TRIGGER IF EXISTS adlk_touch_modified ON public.accounts;
+CREATE TRIGGER adlk_touch_modified
+    BEFORE UPDATE ON public.accounts
+    FOR EACH ROW EXECUTE FUNCTION public.adlk_touch_modified();
+
+DROP TRIGGER IF EXISTS adlk_touch_modified ON public.permission;
+CREATE TRIGGER adlk_touch_modified
+    BEFORE UPDATE ON public.permission
+    FOR EACH ROW EXECUTE FUNCTION public.adlk_touch_modified();
+
+-- LiveSync reads each stream in (timestamp, key) order
+CREATE INDEX IF NOT EXISTS accounts_modified ON public.accounts (last_modified_at, account_id);
+CREATE INDEX IF NOT EXISTS permission_modified ON public.permission (last_modified_at, permission_uid);
+CREATE INDEX IF NOT EXISTS account_permissions_created ON public.account_permissions (created_at, account_id);
+CREATE INDEX IF NOT EXISTS account_permissions_permission ON public.account_permissions (permission_uid);
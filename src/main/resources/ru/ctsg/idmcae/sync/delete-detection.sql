@@ -0,0 +1,18 @@
+-- Key ranges of the LiveSync delete detectors, used when syncDetectDeletes is enabled.
+-- One row per range of one consumer (sync token) and table, valid from one detection
+-- generation up to, not including, valid_to; keys and hashes are packed big-endian
+-- (keys as 64 bit words, two per uuid, hashes as 32 bit ints). Created by the connector
+-- when its user may; otherwise create it and grant the user SELECT, INSERT, UPDATE and
+-- DELETE on it.
+
+CREATE TABLE IF NOT EXISTS public.adlk_delete_detection (
+    consumer    text        NOT NULL,
+    table_name  text        NOT NULL,
+    valid_from  bigint      NOT NULL,
+    valid_to    bigint,
+    lower_bound text        NOT NULL,
+    keys        bytea       NOT NULL,
+    hashes      bytea       NOT NULL,
+    touched_at  timestamptz NOT NULL DEFAULT now(),
+    PRIMARY KEY (consumer, table_name, valid_from, lower_bound)
+);
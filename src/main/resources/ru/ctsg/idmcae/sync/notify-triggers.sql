@@ -0,0 +1,35 @@
+-- Row triggers that announce changes on the adlk_changes channel, used by LiveSync
+-- when syncNotifications is enabled. Payload: <stream>:<operation>:<key>, e.g. a:U:4711,
+-- where the stream is a (accounts), p (permission) or m (account_permissions, keyed by
+-- account) and the operation is I, U or D. Notifications are sent at commit.
+
+CREATE OR REPLACE FUNCTION public.adlk_notify_change() RETURNS trigger
+LANGUAGE plpgsql AS $$
+DECLARE
+    changed record;
+BEGIN
+    IF TG_OP = 'DELETE' THEN
+        changed := OLD;
+    ELSE
+        changed := NEW;
+    END IF;
+    PERFORM pg_notify('adlk_changes',
+        TG_ARGV[0] || ':' || left(TG_OP, 1) || ':' || (to_jsonb(changed) ->> TG_ARGV[1]));
+    RETURN NULL;
+END
+$$;
+
+DROP TRIGGER IF EXISTS adlk_notify_change ON public.accounts;
+CREATE TRIGGER adlk_notify_change
+    AFTER INSERT OR UPDATE OR DELETE ON public.accounts
+    FOR EACH ROW EXECUTE FUNCTION public.adlk_notify_change('a', 'account_id');
+
+DROP TRIGGER IF EXISTS adlk_notify_change ON public.permission;
+CREATE TRIGGER adlk_notify_change
+    AFTER INSERT OR UPDATE OR DELETE ON public.permission
+    FOR EACH ROW EXECUTE FUNCTION public.adlk_notify_change('p', 'permission_uid');
+
+DROP TRIGGER IF EXISTS adlk_notify_change ON public.account_permissions;
+CREATE TRIGGER adlk_notify_change
+    AFTER INSERT OR UPDATE OR DELETE ON public.account_permissions
+    FOR EACH ROW EXECUTE FUNCTION public.adlk_notify_change('m', 'account_id');
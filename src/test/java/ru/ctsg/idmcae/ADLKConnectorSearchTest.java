@@ -0,0 +1,196 @@
+package ru.ctsg.idmcae;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.identityconnectors.framework.api.operations.SearchApiOp;
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.OperationOptionInfo;
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.identityconnectors.framework.common.objects.SearchResult;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.identityconnectors.framework.spi.SearchResultsHandler;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import ru.ctsg.idmcae.query.SqlFilter;
+
+/**
+ * Searches through the connector with filters pushed down and keyset paging, and the
+ * search options its schema declares.
+ * Runs against PostgreSQL, see {@link TestDatabase}.
+ */
+public class ADLKConnectorSearchTest {
+
+    // user001 .. user250, every tenth without an email, keys 1 .. 250
+    private static final int ACCOUNTS = 250;
+
+    private HikariDataSource dataSource;
+    private ADLKConnector connector;
+
+    @BeforeClass
+    public void setUp() throws SQLException {
+        dataSource = TestDatabase.open("connector-search-test");
+        try (Connection connection = dataSource.getConnection()) {
+            TestDatabase.reset(connection);
+            TestDatabase.execute(connection, "INSERT INTO public.accounts (username, email) "
+                + "SELECT 'user' || lpad(g::text, 3, '0'), "
+                + "CASE WHEN g % 10 <> 0 THEN 'user' || g || '@example.org' END "
+                + "FROM generate_series(1, " + ACCOUNTS + ") g");
+            TestDatabase.execute(connection, "INSERT INTO public.accounts (username) VALUES ('a_b'), ('axb')");
+        }
+
+        connector = new ADLKConnector();
+        connector.init(TestDatabase.configuration(dataSource));
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() {
+        if (connector != null) {
+            connector.dispose();
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Test
+    public void schemaDeclaresTheSearchOptions() {
+        Set<String> options = new HashSet<>();
+        for (OperationOptionInfo info : connector.schema().getSupportedOptionsByOperation(SearchApiOp.class)) {
+            options.add(info.getName());
+        }
+
+        assertTrue(options.containsAll(Set.of(
+            OperationOptions.OP_PAGE_SIZE,
+            OperationOptions.OP_PAGED_RESULTS_COOKIE,
+            OperationOptions.OP_PAGED_RESULTS_OFFSET,
+            OperationOptions.OP_ATTRIBUTES_TO_GET,
+            OperationOptions.OP_RETURN_DEFAULT_ATTRIBUTES)), options.toString());
+    }
+
+    @Test
+    public void pagesFollowTheCookie() {
+        Filter users = FilterBuilder.startsWith(new Name("user"));
+
+        Page first = search(users, paged(100, null, null));
+        assertEquals(first.uids.size(), 100);
+        assertEquals(first.uids.get(0), "1");
+        assertEquals(first.result.getPagedResultsCookie(), "100");
+
+        Page second = search(users, paged(100, first.result.getPagedResultsCookie(), null));
+        assertEquals(second.uids.get(0), "101");
+        assertEquals(second.result.getPagedResultsCookie(), "200");
+
+        Page last = search(users, paged(100, second.result.getPagedResultsCookie(), null));
+        assertEquals(last.uids.size(), 50);
+        assertEquals(last.uids.get(49), "250");
+        assertNull(last.result.getPagedResultsCookie());
+    }
+
+    @Test
+    public void fullLastPageHasNoCookie() {
+        Page page = search(FilterBuilder.startsWith(new Name("user1")), paged(100, null, null));
+
+        assertEquals(page.uids.size(), 100);
+        assertNull(page.result.getPagedResultsCookie());
+    }
+
+    @Test
+    public void offsetAppliesToTheFirstPageOnly() {
+        Page first = search(null, paged(10, null, 11));
+        assertEquals(first.uids.get(0), "11");
+        assertEquals(first.result.getPagedResultsCookie(), "20");
+
+        Page second = search(null, paged(10, first.result.getPagedResultsCookie(), 11));
+        assertEquals(second.uids.get(0), "21");
+    }
+
+    @Test
+    public void filteredPagesCoverEveryMatchOnce() {
+        Filter filter = FilterBuilder.startsWith(new Name("user1"));
+        List<String> names = new ArrayList<>();
+        String cookie = null;
+        int pages = 0;
+        do {
+            Page page = search(filter, paged(30, cookie, null));
+            names.addAll(page.names);
+            cookie = page.result.getPagedResultsCookie();
+            pages++;
+        } while (cookie != null);
+
+        assertEquals(pages, 4);
+        assertEquals(names.size(), 100);
+        assertEquals(names.get(0), "user100");
+        assertEquals(names.get(99), "user199");
+    }
+
+    @Test
+    public void negationMatchesMissingValues() {
+        Filter filter = FilterBuilder.not(FilterBuilder.equalTo(AttributeBuilder.build("email", "user1@example.org")));
+
+        // everyone but user001, including the 25 users and two others without an email
+        assertEquals(search(filter, null).uids.size(), ACCOUNTS + 2 - 1);
+    }
+
+    @Test
+    public void likeWildcardsAreLiteral() {
+        Page page = search(FilterBuilder.startsWith(new Name("a_")), null);
+
+        assertEquals(page.names, List.of("a_b"));
+    }
+
+    private static OperationOptions paged(int pageSize, String cookie, Integer offset) {
+        return new OperationOptionsBuilder()
+            .setPageSize(pageSize)
+            .setPagedResultsCookie(cookie)
+            .setPagedResultsOffset(offset)
+            .build();
+    }
+
+    private Page search(Filter filter, OperationOptions options) {
+        List<SqlFilter> queries = filter == null
+            ? List.of()
+            : connector.createFilterTranslator(ObjectClass.ACCOUNT, options).translate(filter);
+        assertTrue(queries.size() <= 1, "the filter is translated into one query");
+
+        Page page = new Page();
+        connector.executeQuery(ObjectClass.ACCOUNT, queries.isEmpty() ? null : queries.get(0), page, options);
+        return page;
+    }
+
+    private static final class Page implements SearchResultsHandler {
+
+        private final List<String> uids = new ArrayList<>();
+        private final List<String> names = new ArrayList<>();
+        private SearchResult result;
+
+        @Override
+        public boolean handle(ConnectorObject connectorObject) {
+            uids.add(connectorObject.getUid().getUidValue());
+            names.add(connectorObject.getName().getNameValue());
+            return true;
+        }
+
+        @Override
+        public void handleResult(SearchResult result) {
+            this.result = result;
+        }
+    }
+}
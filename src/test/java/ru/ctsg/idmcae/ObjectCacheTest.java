@@ -0,0 +1,269 @@
+package ru.ctsg.idmcae;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.expectThrows;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.identityconnectors.framework.common.objects.ConnectorObject;
+import org.identityconnectors.framework.common.objects.ConnectorObjectBuilder;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import ru.ctsg.idmcae.query.TableMapping;
+
+public class ObjectCacheTest {
+
+    private static final String PROJECTION = "account_id,username";
+    private static final long TTL_MILLIS = 60_000;
+
+    private ExecutorService executor;
+
+    @BeforeClass
+    public void setUp() {
+        executor = Executors.newFixedThreadPool(2);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void hitsAfterTheFirstRead() {
+        ObjectCache cache = new ObjectCache(10, TTL_MILLIS);
+        Loader loader = new Loader(account("42"));
+
+        ConnectorObject first = cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader);
+
+        assertSame(cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader), first);
+        assertEquals(loader.calls.get(), 1);
+    }
+
+    @Test
+    public void uidsInAnotherFormHit() {
+        ObjectCache cache = new ObjectCache(10, TTL_MILLIS);
+        Loader loader = new Loader(account("42"));
+
+        cache.get(TableMapping.ACCOUNT, "00042", PROJECTION, loader);
+        cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader);
+
+        assertEquals(loader.calls.get(), 1);
+    }
+
+    @Test
+    public void otherProjectionsAndTablesMiss() {
+        ObjectCache cache = new ObjectCache(10, TTL_MILLIS);
+        Loader loader = new Loader(account("42"));
+
+        cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader);
+        cache.get(TableMapping.ACCOUNT, "42", PROJECTION + ",email", loader);
+        cache.get(TableMapping.PERMISSION, "42", PROJECTION, loader);
+
+        assertEquals(loader.calls.get(), 3);
+    }
+
+    @Test
+    public void missingObjectsAreNotCached() {
+        ObjectCache cache = new ObjectCache(10, TTL_MILLIS);
+        Loader loader = new Loader(null);
+
+        assertNull(cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader));
+        assertNull(cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader));
+
+        assertEquals(loader.calls.get(), 2);
+    }
+
+    @Test
+    public void concurrentLookupsShareOneRead() throws Exception {
+        ObjectCache cache = new ObjectCache(10, TTL_MILLIS);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ConnectorObject object = account("42");
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<ConnectorObject> loader = () -> {
+            calls.incrementAndGet();
+            started.countDown();
+            await(release);
+            return object;
+        };
+
+        Future<ConnectorObject> first = executor.submit(() -> cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader));
+        await(started);
+        Future<ConnectorObject> second = executor.submit(() -> cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader));
+        Thread.sleep(200);
+
+        // waiting for the first read instead of running its own
+        assertFalse(second.isDone());
+        assertEquals(calls.get(), 1);
+
+        release.countDown();
+        assertSame(first.get(10, TimeUnit.SECONDS), object);
+        assertSame(second.get(10, TimeUnit.SECONDS), object);
+        assertEquals(calls.get(), 1);
+    }
+
+    @Test
+    public void failedReadsReachTheWaiters() throws Exception {
+        ObjectCache cache = new ObjectCache(10, TTL_MILLIS);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Supplier<ConnectorObject> loader = () -> {
+            started.countDown();
+            await(release);
+            throw new IllegalStateException("read failed");
+        };
+
+        Future<ConnectorObject> first = executor.submit(() -> cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader));
+        await(started);
+        Future<ConnectorObject> second = executor.submit(() -> cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader));
+        Thread.sleep(200);
+        release.countDown();
+
+        for (Future<ConnectorObject> result : List.of(first, second)) {
+            ExecutionException e = expectThrows(ExecutionException.class, () -> result.get(10, TimeUnit.SECONDS));
+            assertEquals(e.getCause().getMessage(), "read failed");
+        }
+    }
+
+    @Test
+    public void invalidationDuringAReadIsNotStored() {
+        ObjectCache cache = new ObjectCache(10, TTL_MILLIS);
+        AtomicInteger calls = new AtomicInteger();
+        // a commit lands while the read is running
+        Supplier<ConnectorObject> loader = () -> {
+            if (calls.incrementAndGet() == 1) {
+                cache.invalidate(TableMapping.ACCOUNT, "0042");
+            }
+            return account("42");
+        };
+
+        assertEquals(cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader).getUid().getUidValue(), "42");
+        cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader);
+        cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader);
+
+        assertEquals(calls.get(), 2);
+    }
+
+    @Test
+    public void tableInvalidationDuringAReadIsNotStored() {
+        ObjectCache cache = new ObjectCache(10, TTL_MILLIS);
+        AtomicInteger calls = new AtomicInteger();
+        Supplier<ConnectorObject> loader = () -> {
+            if (calls.incrementAndGet() == 1) {
+                cache.invalidateAll(TableMapping.ACCOUNT);
+            }
+            return account("42");
+        };
+
+        cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader);
+        cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader);
+
+        assertEquals(calls.get(), 2);
+    }
+
+    @Test
+    public void invalidationDropsTheEntry() {
+        ObjectCache cache = new ObjectCache(10, TTL_MILLIS);
+        Loader loader = new Loader(account("42"));
+
+        cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader);
+        cache.invalidate(TableMapping.ACCOUNT, "42");
+        cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader);
+
+        assertEquals(loader.calls.get(), 2);
+    }
+
+    @Test
+    public void entriesExpireAfterTheTtl() throws InterruptedException {
+        ObjectCache cache = new ObjectCache(10, 50);
+        Loader loader = new Loader(account("42"));
+
+        cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader);
+        Thread.sleep(100);
+        cache.get(TableMapping.ACCOUNT, "42", PROJECTION, loader);
+
+        assertEquals(loader.calls.get(), 2);
+    }
+
+    @Test
+    public void leastRecentlyUsedGoesFirst() {
+        ObjectCache cache = new ObjectCache(2, TTL_MILLIS);
+        Loader loader = new Loader(account("1"));
+
+        cache.get(TableMapping.ACCOUNT, "1", PROJECTION, loader);
+        cache.get(TableMapping.ACCOUNT, "2", PROJECTION, loader);
+        cache.get(TableMapping.ACCOUNT, "1", PROJECTION, loader);
+        cache.get(TableMapping.ACCOUNT, "3", PROJECTION, loader);
+        assertEquals(loader.calls.get(), 3);
+
+        cache.get(TableMapping.ACCOUNT, "1", PROJECTION, loader);
+        assertEquals(loader.calls.get(), 3);
+        cache.get(TableMapping.ACCOUNT, "2", PROJECTION, loader);
+        assertEquals(loader.calls.get(), 4);
+    }
+
+    @Test
+    public void canonicalIntegers() {
+        assertEquals(ObjectCache.canonical("00042"), "42");
+        assertEquals(ObjectCache.canonical("+42"), "42");
+        assertEquals(ObjectCache.canonical(" 42 "), "42");
+        assertEquals(ObjectCache.canonical("-7"), "-7");
+    }
+
+    @Test
+    public void canonicalUuids() {
+        String canonical = "abcdef01-2345-6789-abcd-ef0123456789";
+
+        assertEquals(ObjectCache.canonical("{ABCDEF01-2345-6789-ABCD-EF0123456789}"), canonical);
+        assertEquals(ObjectCache.canonical("ABCDEF0123456789ABCDEF0123456789"), canonical);
+        assertEquals(ObjectCache.canonical(canonical), canonical);
+    }
+
+    @Test
+    public void otherUidsAreUnchanged() {
+        assertEquals(ObjectCache.canonical("jdoe"), "jdoe");
+        assertEquals(ObjectCache.canonical("99999999999999999999"), "99999999999999999999");
+        assertEquals(ObjectCache.canonical("abcdef01-2345-6789-abcd-ef012345678g"), "abcdef01-2345-6789-abcd-ef012345678g");
+    }
+
+    private static ConnectorObject account(String uid) {
+        return new ConnectorObjectBuilder().setUid(uid).setName("user" + uid).build();
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Loader implements Supplier<ConnectorObject> {
+
+        private final ConnectorObject object;
+        private final AtomicInteger calls = new AtomicInteger();
+
+        Loader(ConnectorObject object) {
+            this.object = object;
+        }
+
+        @Override
+        public ConnectorObject get() {
+            calls.incrementAndGet();
+            return object;
+        }
+    }
+}
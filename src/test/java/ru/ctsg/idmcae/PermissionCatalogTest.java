@@ -0,0 +1,116 @@
+package ru.ctsg.idmcae;
+
+import static org.testng.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import ru.ctsg.idmcae.builders.SchemaDefinition;
+import ru.ctsg.idmcae.query.Projection;
+import ru.ctsg.idmcae.query.TableMapping;
+
+/**
+ * Incremental refreshes of the permission catalog after changes made behind its back.
+ * Runs against PostgreSQL, see {@link TestDatabase}.
+ */
+public class PermissionCatalogTest {
+
+    private static final long COMMIT_LAG = 5000;
+
+    private HikariDataSource dataSource;
+    private Connection connection;
+    private SchemaDefinition definition;
+    private Projection projection;
+    private PermissionCatalog catalog;
+
+    @BeforeClass
+    public void setUp() throws SQLException {
+        dataSource = TestDatabase.open("permission-catalog-test");
+        connection = dataSource.getConnection();
+        definition = new SchemaCache(dataSource, 600_000).get();
+        projection = Projection.of(definition.table(TableMapping.PERMISSION), null);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws SQLException {
+        if (connection != null) {
+            connection.close();
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @BeforeMethod
+    public void resetTables() throws SQLException {
+        TestDatabase.reset(connection);
+        TestDatabase.execute(connection, "INSERT INTO public.permission (code) VALUES ('a'), ('b'), ('c')");
+
+        ADLKConfiguration configuration = TestDatabase.configuration(dataSource);
+        // refreshed only when a test expires the catalog
+        configuration.setPermissionCatalogRefresh(600_000);
+        configuration.setSyncCommitLag(COMMIT_LAG);
+        catalog = new PermissionCatalog(dataSource, configuration);
+        assertEquals(codes(), Set.of("a", "b", "c"));
+    }
+
+    @Test
+    public void refreshReloadsAfterADelete() throws SQLException {
+        TestDatabase.execute(connection, "DELETE FROM public.permission WHERE code = 'b'");
+        assertEquals(codes(), Set.of("a", "b", "c"), "served from the snapshot until it is refreshed");
+
+        catalog.expire();
+        assertEquals(codes(), Set.of("a", "c"));
+    }
+
+    @Test
+    public void refreshReloadsWhenAnInsertHidesADelete() throws SQLException {
+        // the row count stays the same
+        TestDatabase.execute(connection, "DELETE FROM public.permission WHERE code = 'b'");
+        TestDatabase.execute(connection, "INSERT INTO public.permission (code) VALUES ('d')");
+
+        catalog.expire();
+        assertEquals(codes(), Set.of("a", "c", "d"));
+    }
+
+    @Test
+    public void refreshServesAnInsertWithinTheCommitLag() throws SQLException {
+        // committed after the last refresh, but stamped before the newest change it saw
+        TestDatabase.execute(connection, "INSERT INTO public.permission (code, last_modified_at) "
+            + "SELECT 'late', max(last_modified_at) - make_interval(secs => " + COMMIT_LAG / 2000.0 + ") "
+            + "FROM public.permission");
+
+        catalog.expire();
+        assertEquals(codes(), Set.of("a", "b", "c", "late"));
+    }
+
+    @Test
+    public void refreshServesAnInsertWithinTheCommitLagBesideADelete() throws SQLException {
+        // the row count stays the same, so only the changes read since the watermark show the delete
+        TestDatabase.execute(connection, "DELETE FROM public.permission WHERE code = 'b'");
+        TestDatabase.execute(connection, "INSERT INTO public.permission (code, last_modified_at) "
+            + "SELECT 'late', max(last_modified_at) - make_interval(secs => " + COMMIT_LAG / 2000.0 + ") "
+            + "FROM public.permission");
+
+        catalog.expire();
+        assertEquals(codes(), Set.of("a", "c", "late"));
+    }
+
+    private Set<String> codes() {
+        Set<String> codes = new TreeSet<>();
+        catalog.search(definition, null, projection, null, object -> {
+            codes.add(object.getName().getNameValue());
+            return true;
+        });
+        return codes;
+    }
+}
@@ -0,0 +1,109 @@
+package ru.ctsg.idmcae;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.identityconnectors.common.security.GuardedString;
+import org.testcontainers.DockerClientFactory;
+import org.testcontainers.containers.PostgreSQLContainer;
+import org.testng.SkipException;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * The PostgreSQL database of the tests that need one: the database named by
+ * {@code -Dadlk.test.jdbcUrl} (with {@code adlk.test.user} and {@code adlk.test.password})
+ * if given, else a container started once per run when Docker is available. Without
+ * either the tests are skipped. The user must own the tables, which are created from
+ * {@code schema.sql}.
+ */
+public final class TestDatabase {
+
+    private static final String IMAGE = "postgres:16-alpine";
+
+    private static PostgreSQLContainer<?> container;
+    private static boolean created;
+
+    private TestDatabase() {
+    }
+
+    /**
+     * A pool on the test database with the tables in place; close it after the tests.
+     */
+    public static synchronized HikariDataSource open(String poolName) throws SQLException {
+        HikariConfig config = new HikariConfig();
+        String jdbcUrl = System.getProperty("adlk.test.jdbcUrl");
+        if (jdbcUrl != null) {
+            config.setJdbcUrl(jdbcUrl);
+            config.setUsername(System.getProperty("adlk.test.user", "postgres"));
+            config.setPassword(System.getProperty("adlk.test.password", ""));
+        } else {
+            PostgreSQLContainer<?> postgres = container();
+            config.setJdbcUrl(postgres.getJdbcUrl());
+            config.setUsername(postgres.getUsername());
+            config.setPassword(postgres.getPassword());
+        }
+        config.setDriverClassName("org.postgresql.Driver");
+        config.setPoolName(poolName);
+        config.setMaximumPoolSize(4);
+
+        HikariDataSource dataSource = new HikariDataSource(config);
+        if (!created) {
+            try (Connection connection = dataSource.getConnection()) {
+                execute(connection, script());
+            }
+            created = true;
+        }
+        return dataSource;
+    }
+
+    /**
+     * A connector configuration for the database of {@code dataSource}.
+     */
+    public static ADLKConfiguration configuration(HikariDataSource dataSource) {
+        ADLKConfiguration configuration = new ADLKConfiguration();
+        configuration.setJdbcUrl(dataSource.getJdbcUrl());
+        configuration.setJdbcDriver("org.postgresql.Driver");
+        configuration.setJdbcUser(dataSource.getUsername());
+        configuration.setJdbcPassword(new GuardedString(dataSource.getPassword().toCharArray()));
+        return configuration;
+    }
+
+    /**
+     * Empties the tables and restarts the account keys at 1.
+     */
+    public static void reset(Connection connection) throws SQLException {
+        execute(connection, "TRUNCATE public.account_permissions, public.accounts, public.permission RESTART IDENTITY");
+    }
+
+    public static void execute(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute(sql);
+        }
+    }
+
+    private static PostgreSQLContainer<?> container() {
+        if (container == null) {
+            if (!DockerClientFactory.instance().isDockerAvailable()) {
+                throw new SkipException("Neither -Dadlk.test.jdbcUrl nor Docker is available");
+            }
+            PostgreSQLContainer<?> postgres = new PostgreSQLContainer<>(IMAGE);
+            postgres.start();
+            container = postgres;
+        }
+        return container;
+    }
+
+    private static String script() {
+        try (InputStream inputStream = TestDatabase.class.getResourceAsStream("schema.sql")) {
+            return new String(inputStream.readAllBytes(), StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read schema.sql", e);
+        }
+    }
+}
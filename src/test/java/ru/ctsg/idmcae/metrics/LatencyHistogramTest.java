@@ -0,0 +1,108 @@
+package ru.ctsg.idmcae.metrics;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.Test;
+
+public class LatencyHistogramTest {
+
+    private static final double DELTA = 1e-9;
+
+    @Test
+    public void emptyHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(histogram.getCount(), 0);
+        assertEquals(histogram.getMeanMillis(), 0, DELTA);
+        assertEquals(histogram.getMaxMillis(), 0, DELTA);
+        assertEquals(histogram.getPercentileMillis(0.99), 0, DELTA);
+    }
+
+    @Test
+    public void countMeanMaxAndTotal() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_000);
+        histogram.record(3_000_000);
+
+        assertEquals(histogram.getCount(), 2);
+        assertEquals(histogram.getMeanMillis(), 2, DELTA);
+        assertEquals(histogram.getMaxMillis(), 3, DELTA);
+        assertEquals(histogram.getTotalMillis(), 4, DELTA);
+    }
+
+    @Test
+    public void percentilesAreBucketUpperBounds() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        // 90 recordings of 100 us, in [64, 128) us, and 10 of 10 ms, in [8192, 16384) us
+        for (int i = 0; i < 90; i++) {
+            histogram.record(100_000);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(10_000_000);
+        }
+
+        assertEquals(histogram.getPercentileMillis(0.5), 0.128, DELTA);
+        assertEquals(histogram.getPercentileMillis(0.9), 0.128, DELTA);
+        // capped by the largest recording
+        assertEquals(histogram.getPercentileMillis(0.91), 10, DELTA);
+        assertEquals(histogram.getPercentileMillis(1), 10, DELTA);
+    }
+
+    @Test
+    public void percentileOverstatesByAtMostTwice() {
+        long[] durations = {1_500, 70_000, 999_999, 1_000_000, 123_456_789, 5_000_000_000L};
+        for (long nanos : durations) {
+            LatencyHistogram single = new LatencyHistogram();
+            single.record(nanos);
+            single.record(nanos * 2);
+
+            double p50 = single.getPercentileMillis(0.5);
+            assertTrue(p50 >= nanos / 1e6 && p50 <= 2 * nanos / 1e6, nanos + " ns: " + p50 + " ms");
+        }
+    }
+
+    @Test
+    public void subMicrosecondAndHugeDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(0);
+        histogram.record(400);
+
+        assertEquals(histogram.getPercentileMillis(1), 0.0004, DELTA);
+
+        // beyond the last bucket
+        histogram.record(Long.MAX_VALUE / 2);
+        assertEquals(histogram.getPercentileMillis(1), histogram.getMaxMillis(), DELTA);
+    }
+
+    @Test
+    public void concurrentRecordingLosesNothing() throws Exception {
+        LatencyHistogram histogram = new LatencyHistogram();
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 4; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 100_000; i++) {
+                        histogram.record(1_000);
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(histogram.getCount(), 400_000);
+        assertEquals(histogram.getTotalMillis(), 400, DELTA);
+        assertEquals(histogram.getPercentileMillis(1), 0.001, DELTA);
+    }
+}
@@ -0,0 +1,242 @@
+package ru.ctsg.idmcae.processing;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.identityconnectors.framework.common.exceptions.OperationTimeoutException;
+import org.identityconnectors.framework.common.objects.Attribute;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import ru.ctsg.idmcae.ADLKConfiguration;
+import ru.ctsg.idmcae.ADLKConnector;
+import ru.ctsg.idmcae.TestDatabase;
+
+/**
+ * Concurrent creates through connector instances that share a pool, as ConnId runs
+ * them. Runs against PostgreSQL, see {@link TestDatabase}.
+ */
+public class GroupCommitTest {
+
+    private static final int CALLERS = 16;
+
+    private HikariDataSource dataSource;
+    private Connection connection;
+    private ExecutorService executor;
+    private final List<ADLKConnector> connectors = new ArrayList<>();
+
+    @BeforeClass
+    public void setUp() throws SQLException {
+        dataSource = TestDatabase.open("group-commit-test");
+        connection = dataSource.getConnection();
+        executor = Executors.newFixedThreadPool(CALLERS);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws SQLException {
+        if (executor != null) {
+            executor.shutdownNow();
+        }
+        if (connection != null) {
+            connection.close();
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @BeforeMethod
+    public void resetTables() throws SQLException {
+        TestDatabase.reset(connection);
+    }
+
+    @AfterMethod(alwaysRun = true)
+    public void disposeConnectors() {
+        for (ADLKConnector connector : connectors) {
+            connector.dispose();
+        }
+        connectors.clear();
+    }
+
+    @Test
+    public void onlyTheDuplicateFailsInABatch() throws Exception {
+        TestDatabase.execute(connection, "INSERT INTO public.accounts (username) VALUES ('taken')");
+        List<String> usernames = new ArrayList<>();
+        for (int i = 1; i < CALLERS; i++) {
+            usernames.add("user" + i);
+        }
+        usernames.add(CALLERS / 2, "taken");
+
+        // one window for all callers, so the batch fails and is retried row by row
+        List<Future<Uid>> results = createConcurrently(usernames, 2000, 100);
+
+        Map<String, String> created = new HashMap<>();
+        for (int i = 0; i < usernames.size(); i++) {
+            String username = usernames.get(i);
+            try {
+                Uid uid = results.get(i).get(30, TimeUnit.SECONDS);
+                assertTrue(created.put(uid.getUidValue(), username) == null, "Uid handed out twice: " + uid);
+            } catch (ExecutionException e) {
+                assertEquals(username, "taken", e.getCause().toString());
+                assertTrue(e.getCause() instanceof ConnectorException, e.getCause().toString());
+            }
+        }
+
+        assertEquals(created.size(), CALLERS - 1);
+        assertEquals(created, accounts(created.keySet()));
+    }
+
+    @Test
+    public void fullBatchDoesNotWaitForTheWindow() throws Exception {
+        List<String> usernames = new ArrayList<>();
+        for (int i = 1; i <= CALLERS; i++) {
+            usernames.add("user" + i);
+        }
+
+        long start = System.nanoTime();
+        List<Future<Uid>> results = createConcurrently(usernames, 600_000, CALLERS);
+        Set<String> uids = new HashSet<>();
+        for (Future<Uid> result : results) {
+            uids.add(result.get(60, TimeUnit.SECONDS).getUidValue());
+        }
+
+        assertEquals(uids.size(), CALLERS);
+        assertTrue(TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - start) < 60);
+    }
+
+    @Test
+    public void loneCreateCommitsAfterTheWindow() {
+        ADLKConnector connector = connector(200, 100);
+
+        long start = System.nanoTime();
+        Uid uid = create(connector, "alone");
+
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 150);
+        assertEquals(accounts(Set.of(uid.getUidValue())), Map.of(uid.getUidValue(), "alone"));
+    }
+
+    @Test
+    public void followersTimeOutWhileTheLeaderIsBlocked() throws Exception {
+        ADLKConnector leader = connector(300, 100);
+        ADLKConnector[] followers = {connector(300, 100), connector(300, 100), connector(300, 100)};
+
+        // an uncommitted row with the leader's username blocks the batch on the unique index
+        try (Connection blocker = dataSource.getConnection()) {
+            blocker.setAutoCommit(false);
+            TestDatabase.execute(blocker, "INSERT INTO public.accounts (username) VALUES ('leader')");
+
+            Future<Uid> leading = executor.submit(() -> create(leader, "leader"));
+            Thread.sleep(100);
+            List<Future<Uid>> following = new ArrayList<>();
+            for (int i = 0; i < followers.length; i++) {
+                ADLKConnector follower = followers[i];
+                String username = "follower" + i;
+                following.add(executor.submit(() -> create(follower, username)));
+            }
+
+            // the window plus twice the connection timeout
+            for (Future<Uid> result : following) {
+                try {
+                    result.get(30, TimeUnit.SECONDS);
+                    fail("A follower returned while the leader was blocked");
+                } catch (ExecutionException e) {
+                    assertTrue(e.getCause() instanceof OperationTimeoutException, e.getCause().toString());
+                }
+            }
+            blocker.rollback();
+
+            leading.get(30, TimeUnit.SECONDS);
+        }
+
+        // the rows of the timed-out followers were committed with the leader's
+        try (PreparedStatement preparedStatement =
+                connection.prepareStatement("SELECT count(*) FROM public.accounts");
+            ResultSet resultSet = preparedStatement.executeQuery()) {
+
+            resultSet.next();
+            assertEquals(resultSet.getInt(1), 1 + followers.length);
+        }
+    }
+
+    private ADLKConnector connector(long window, int batchSize) {
+        ADLKConfiguration configuration = TestDatabase.configuration(dataSource);
+        configuration.setGroupCommit(true);
+        configuration.setGroupCommitWindow(window);
+        configuration.setGroupCommitBatchSize(batchSize);
+        configuration.setMaxPoolSize(4);
+        configuration.setMinIdle(0);
+        configuration.setConnectionTimeout(1000);
+        configuration.setValidationTimeout(250);
+        ADLKConnector connector = new ADLKConnector();
+        connector.init(configuration);
+        // the schema is read once per pool, outside the timed part of the tests
+        connector.schema();
+        connectors.add(connector);
+        return connector;
+    }
+
+    // one connector instance per caller, all released at once
+    private List<Future<Uid>> createConcurrently(List<String> usernames, long window, int batchSize) {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<Uid>> results = new ArrayList<>();
+        for (String username : usernames) {
+            ADLKConnector connector = connector(window, batchSize);
+            results.add(executor.submit(() -> {
+                start.await();
+                return create(connector, username);
+            }));
+        }
+        start.countDown();
+        return results;
+    }
+
+    private static Uid create(ADLKConnector connector, String username) {
+        Set<Attribute> attributes = Set.of(new Name(username));
+        return connector.create(ObjectClass.ACCOUNT, attributes, null);
+    }
+
+    // username by account_id of the given accounts
+    private Map<String, String> accounts(Set<String> uids) {
+        Map<String, String> accounts = new HashMap<>();
+        try (PreparedStatement preparedStatement = connection.prepareStatement(
+                "SELECT account_id, username FROM public.accounts WHERE account_id::text = ANY(?)")) {
+
+            preparedStatement.setArray(1, connection.createArrayOf("text", uids.toArray()));
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                while (resultSet.next()) {
+                    accounts.put(resultSet.getString(1), resultSet.getString(2));
+                }
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        return accounts;
+    }
+}
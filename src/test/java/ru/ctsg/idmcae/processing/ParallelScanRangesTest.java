@@ -0,0 +1,59 @@
+package ru.ctsg.idmcae.processing;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import ru.ctsg.idmcae.query.SqlFilter;
+
+public class ParallelScanRangesTest {
+
+    @Test
+    public void equalSlicesWithTheLastOpenAbove() {
+        List<SqlFilter> ranges = ParallelScan.ranges("id", 1, 100, 4);
+
+        assertEquals(ranges.size(), 4);
+        assertRange(ranges.get(0), 1L, 26L);
+        assertRange(ranges.get(1), 26L, 51L);
+        assertRange(ranges.get(2), 51L, 76L);
+        assertEquals(ranges.get(3).getClause(), "id >= ?");
+        assertEquals(ranges.get(3).getParameters(), List.of(76L));
+    }
+
+    @Test
+    public void noMoreSlicesThanKeys() {
+        assertEquals(ParallelScan.ranges("id", 7, 9, 8).size(), 3);
+        assertEquals(ParallelScan.ranges("id", 7, 7, 8).size(), 1);
+    }
+
+    @Test
+    public void negativeKeys() {
+        List<SqlFilter> ranges = ParallelScan.ranges("id", -10, 9, 2);
+
+        assertRange(ranges.get(0), -10L, 0L);
+        assertEquals(ranges.get(1).getParameters(), List.of(0L));
+    }
+
+    @Test
+    public void widestSpanThatFits() {
+        List<SqlFilter> ranges = ParallelScan.ranges("id", 0, Long.MAX_VALUE - 1, 2);
+
+        assertEquals(ranges.size(), 2);
+        assertRange(ranges.get(0), 0L, 1L << 62);
+    }
+
+    @Test
+    public void spansBeyondALongAreNotSplit() {
+        assertNull(ParallelScan.ranges("id", Long.MIN_VALUE, Long.MAX_VALUE, 4));
+        assertNull(ParallelScan.ranges("id", -1, Long.MAX_VALUE, 4));
+        assertNull(ParallelScan.ranges("id", Long.MIN_VALUE, 0, 4));
+    }
+
+    private static void assertRange(SqlFilter range, long lower, long upper) {
+        assertEquals(range.getClause(), "id >= ? AND id < ?");
+        assertEquals(range.getParameters(), List.of(lower, upper));
+    }
+}
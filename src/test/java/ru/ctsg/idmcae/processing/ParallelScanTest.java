@@ -0,0 +1,145 @@
+package ru.ctsg.idmcae.processing;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.identityconnectors.framework.common.objects.ObjectClass;
+import org.identityconnectors.framework.common.objects.ResultsHandler;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import ru.ctsg.idmcae.ADLKConfiguration;
+import ru.ctsg.idmcae.ADLKConnector;
+import ru.ctsg.idmcae.TestDatabase;
+import ru.ctsg.idmcae.query.StreamingRead;
+
+/**
+ * A full account search split into key ranges against the same search read serially.
+ * Runs against PostgreSQL, see {@link TestDatabase}.
+ */
+public class ParallelScanTest {
+
+    private static final int ACCOUNTS = 5000;
+    private static final int PARTITIONS = 4;
+
+    private HikariDataSource dataSource;
+    private ADLKConnector serial;
+    private ADLKConnector parallel;
+
+    @BeforeClass
+    public void setUp() throws SQLException {
+        dataSource = TestDatabase.open("parallel-scan-test");
+        try (Connection connection = dataSource.getConnection()) {
+            TestDatabase.reset(connection);
+            TestDatabase.execute(connection, "INSERT INTO public.accounts (username) "
+                + "SELECT 'user' || g FROM generate_series(1, " + ACCOUNTS + ") g");
+            // uneven ranges
+            TestDatabase.execute(connection, "DELETE FROM public.accounts WHERE account_id BETWEEN 100 AND 1400");
+        }
+
+        serial = connector(1);
+        parallel = connector(PARTITIONS);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() {
+        if (serial != null) {
+            serial.dispose();
+        }
+        if (parallel != null) {
+            parallel.dispose();
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Test
+    public void partitionsReturnWhatASerialScanReturns() {
+        List<String> expected = search(serial, object -> true);
+        List<String> actual = search(parallel, object -> true);
+
+        assertEquals(new HashSet<>(actual).size(), actual.size(), "duplicates");
+        assertEquals(new HashSet<>(actual), new HashSet<>(expected));
+    }
+
+    @Test
+    public void rowsCommittedDuringTheScanAreNotSeen() {
+        Set<String> before = new HashSet<>(search(serial, object -> true));
+        int[] readers = {-1};
+
+        List<String> actual = search(parallel, object -> {
+            if (readers[0] < 0) {
+                // above the max key, where the last range is open, and into a gap of another range
+                execute("INSERT INTO public.accounts (username) VALUES ('late1'), ('late2')");
+                execute("INSERT INTO public.accounts (account_id, username) VALUES (500, 'late3')");
+                readers[0] = readers();
+            }
+            return true;
+        });
+
+        try {
+            assertEquals(new HashSet<>(actual).size(), actual.size(), "duplicates");
+            assertEquals(new HashSet<>(actual), before);
+            // the operation's connection and at least one partition, all on the snapshot
+            assertTrue(readers[0] > 1, "readers: " + readers[0]);
+        } finally {
+            execute("DELETE FROM public.accounts WHERE username LIKE 'late%'");
+        }
+    }
+
+    private ADLKConnector connector(int partitions) {
+        ADLKConfiguration configuration = TestDatabase.configuration(dataSource);
+        configuration.setParallelScanPartitions(partitions);
+        configuration.setMaxPoolSize(2 * PARTITIONS + 2);
+        // a queue of a few rows per partition keeps every partition open while the handler runs
+        configuration.setFetchSize(50);
+        ADLKConnector connector = new ADLKConnector();
+        connector.init(configuration);
+        return connector;
+    }
+
+    private static List<String> search(ADLKConnector connector, ResultsHandler handler) {
+        List<String> uids = new ArrayList<>();
+        connector.executeQuery(ObjectClass.ACCOUNT, null, object -> {
+            uids.add(object.getUid().getUidValue());
+            return handler.handle(object);
+        }, null);
+        return uids;
+    }
+
+    private int readers() {
+        try (Connection connection = dataSource.getConnection();
+            PreparedStatement preparedStatement = connection.prepareStatement(
+                "SELECT count(*) FROM pg_stat_activity WHERE application_name = ?")) {
+
+            preparedStatement.setString(1, StreamingRead.READER_APPLICATION);
+            try (ResultSet resultSet = preparedStatement.executeQuery()) {
+                resultSet.next();
+                return resultSet.getInt(1);
+            }
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void execute(String sql) {
+        try (Connection connection = dataSource.getConnection()) {
+            TestDatabase.execute(connection, sql);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package ru.ctsg.idmcae.query;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.identityconnectors.framework.common.objects.OperationOptions;
+import org.identityconnectors.framework.common.objects.OperationOptionsBuilder;
+import org.testng.annotations.Test;
+
+public class PagingTest {
+
+    private static final SqlFilter ACTIVE = new SqlFilter("is_active = ?", List.of(true));
+
+    @Test
+    public void withoutPageSizeNothingIsPaged() throws SQLException {
+        Paging paging = Paging.from(new OperationOptionsBuilder().setPagedResultsCookie("4711").build());
+
+        assertFalse(paging.isPaged());
+        assertNull(paging.getCookie());
+        assertSame(paging.restrict(ACTIVE, "account_id"), ACTIVE);
+        assertEquals(paging.suffix("account_id"), "");
+        assertEquals(bind(paging), List.of());
+        assertFalse(Paging.from(null).isPaged());
+    }
+
+    @Test
+    public void firstPageReadsOneRowMore() throws SQLException {
+        Paging paging = Paging.from(new OperationOptionsBuilder().setPageSize(50).build());
+
+        assertTrue(paging.isPaged());
+        assertEquals(paging.getOffset(), 0);
+        assertNull(paging.restrict(null, "account_id"));
+        assertEquals(paging.suffix("account_id"), " ORDER BY account_id LIMIT ?");
+        assertEquals(bind(paging), List.of(51));
+    }
+
+    @Test
+    public void offsetIsOneBasedAndOnlyForTheFirstPage() throws SQLException {
+        Paging first = Paging.from(new OperationOptionsBuilder().setPageSize(50).setPagedResultsOffset(101).build());
+
+        assertEquals(first.getOffset(), 100);
+        assertEquals(first.suffix("account_id"), " ORDER BY account_id LIMIT ? OFFSET ?");
+        assertEquals(bind(first), List.of(51, 100));
+
+        Paging next = Paging.from(new OperationOptionsBuilder()
+            .setPageSize(50).setPagedResultsOffset(101).setPagedResultsCookie("4711").build());
+
+        assertEquals(next.getOffset(), 0);
+        assertEquals(bind(next), List.of(51));
+    }
+
+    @Test
+    public void cookieStartsThePageAfterItsKey() {
+        Paging paging = Paging.from(new OperationOptionsBuilder().setPageSize(50).setPagedResultsCookie("4711").build());
+
+        assertEquals(paging.getCookie(), "4711");
+
+        SqlFilter alone = paging.restrict(null, "account_id");
+        assertEquals(alone.getClause(), "account_id > ?");
+        assertEquals(alone.getParameters(), List.of("4711"));
+
+        SqlFilter combined = paging.restrict(ACTIVE, "account_id");
+        assertEquals(combined.getClause(), "(is_active = ?) AND (account_id > ?)");
+        assertEquals(combined.getParameters(), List.of(true, "4711"));
+    }
+
+    @Test
+    public void emptyCookieIsTheFirstPage() {
+        OperationOptions options = new OperationOptionsBuilder()
+            .setPageSize(50).setPagedResultsOffset(11).setPagedResultsCookie("").build();
+        Paging paging = Paging.from(options);
+
+        assertNull(paging.getCookie());
+        assertEquals(paging.getOffset(), 10);
+    }
+
+    // the values bound after a WHERE clause with two parameters
+    private static List<Object> bind(Paging paging) throws SQLException {
+        List<Object> bound = new ArrayList<>();
+        PreparedStatement preparedStatement = (PreparedStatement) Proxy.newProxyInstance(
+            PagingTest.class.getClassLoader(), new Class<?>[] {PreparedStatement.class}, (proxy, method, args) -> {
+                if (method.getName().equals("setInt")) {
+                    assertEquals(args[0], 3 + bound.size());
+                    bound.add(args[1]);
+                    return null;
+                }
+                throw new UnsupportedOperationException(method.getName());
+            });
+        assertEquals(paging.bind(preparedStatement, 3), 3 + bound.size());
+        return bound;
+    }
+}
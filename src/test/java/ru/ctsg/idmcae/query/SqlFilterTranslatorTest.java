@@ -0,0 +1,144 @@
+package ru.ctsg.idmcae.query;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.List;
+import java.util.Set;
+
+import org.identityconnectors.framework.common.objects.AttributeBuilder;
+import org.identityconnectors.framework.common.objects.Name;
+import org.identityconnectors.framework.common.objects.Uid;
+import org.identityconnectors.framework.common.objects.filter.Filter;
+import org.identityconnectors.framework.common.objects.filter.FilterBuilder;
+import org.testng.annotations.Test;
+
+public class SqlFilterTranslatorTest {
+
+    private final SqlFilterTranslator translator = new SqlFilterTranslator(new TableSchema(TableMapping.ACCOUNT, null,
+        Set.of("account_id", "username", "full_name", "email", "is_active", "created_at", "last_modified_at"),
+        Set.of("username", "full_name", "email")));
+
+    @Test
+    public void equalsOnUidAndNameUsesKeyAndNameColumns() {
+        assertTranslated(FilterBuilder.equalTo(new Uid("4711")), "account_id = ?", "4711");
+        assertTranslated(FilterBuilder.equalTo(new Name("jdoe")), "username = ?", "jdoe");
+    }
+
+    @Test
+    public void negationKeepsRowsWhereTheComparisonIsNull() {
+        assertTranslated(FilterBuilder.not(FilterBuilder.equalTo(AttributeBuilder.build("email", "a@example.org"))),
+            "(email = ?) IS NOT TRUE", "a@example.org");
+        assertTranslated(FilterBuilder.not(FilterBuilder.greaterThan(AttributeBuilder.build("account_id", 10L))),
+            "(account_id > ?) IS NOT TRUE", 10L);
+    }
+
+    @Test
+    public void negatedConjunctionBecomesDisjunctionOfNegations() {
+        Filter filter = FilterBuilder.not(FilterBuilder.and(
+            FilterBuilder.equalTo(AttributeBuilder.build("email", "a@example.org")),
+            FilterBuilder.equalTo(AttributeBuilder.build("is_active", true))));
+
+        assertTranslated(filter, "((email = ?) IS NOT TRUE) OR ((is_active = ?) IS NOT TRUE)", "a@example.org", true);
+    }
+
+    @Test
+    public void equalsWithoutValueIsNull() {
+        assertTranslated(FilterBuilder.equalTo(AttributeBuilder.build("email")), "email IS NULL");
+        assertTranslated(FilterBuilder.not(FilterBuilder.equalTo(AttributeBuilder.build("email"))),
+            "(email IS NULL) IS NOT TRUE");
+    }
+
+    @Test
+    public void equalsWithNullOrSeveralValuesIsLeftToTheFramework() {
+        assertUntranslated(FilterBuilder.equalTo(AttributeBuilder.build("email", (Object) null)));
+        assertUntranslated(FilterBuilder.equalTo(AttributeBuilder.build("email", "a@example.org", "b@example.org")));
+    }
+
+    @Test
+    public void likePatternsEscapeWildcardsAndTheEscapeCharacter() {
+        assertTranslated(FilterBuilder.startsWith(AttributeBuilder.build("email", "50%_off\\")),
+            "email LIKE ? ESCAPE '\\'", "50\\%\\_off\\\\%");
+        assertTranslated(FilterBuilder.endsWith(AttributeBuilder.build("email", "@example.org")),
+            "email LIKE ? ESCAPE '\\'", "%@example.org");
+        assertTranslated(FilterBuilder.contains(AttributeBuilder.build("full_name", "_")),
+            "full_name LIKE ? ESCAPE '\\'", "%\\_%");
+    }
+
+    @Test
+    public void textFiltersOnOtherColumnsAreLeftToTheFramework() {
+        assertUntranslated(FilterBuilder.startsWith(AttributeBuilder.build("created_at", "2024")));
+        assertUntranslated(FilterBuilder.equalsIgnoreCase(AttributeBuilder.build("is_active", "TRUE")));
+    }
+
+    @Test
+    public void equalsIgnoreCaseComparesLowerCase() {
+        assertTranslated(FilterBuilder.equalsIgnoreCase(new Name("JDoe")), "lower(username) = lower(?)", "JDoe");
+    }
+
+    @Test
+    public void comparisons() {
+        assertTranslated(FilterBuilder.greaterThanOrEqualTo(AttributeBuilder.build("account_id", 5L)),
+            "account_id >= ?", 5L);
+        assertTranslated(FilterBuilder.lessThan(AttributeBuilder.build("account_id", 5L)), "account_id < ?", 5L);
+    }
+
+    @Test
+    public void unknownAttributesAreLeftToTheFramework() {
+        assertUntranslated(FilterBuilder.equalTo(AttributeBuilder.build("nickname", "jd")));
+    }
+
+    @Test
+    public void conjunctionKeepsTheTranslatablePart() {
+        Filter filter = FilterBuilder.and(
+            FilterBuilder.equalTo(new Name("jdoe")),
+            FilterBuilder.equalTo(AttributeBuilder.build("nickname", "jd")));
+
+        assertTranslated(filter, "username = ?", "jdoe");
+    }
+
+    @Test
+    public void disjunctionWithAnUntranslatablePartIsLeftToTheFramework() {
+        assertUntranslated(FilterBuilder.or(
+            FilterBuilder.equalTo(new Name("jdoe")),
+            FilterBuilder.equalTo(AttributeBuilder.build("nickname", "jd"))));
+    }
+
+    @Test
+    public void disjunctionIsOneQuery() {
+        Filter filter = FilterBuilder.or(FilterBuilder.equalTo(new Name("a")), FilterBuilder.equalTo(new Name("b")));
+
+        assertTranslated(filter, "(username = ?) OR (username = ?)", "a", "b");
+    }
+
+    @Test
+    public void membershipRequiresEveryPermission() {
+        String member = "account_id IN (SELECT account_id FROM public.account_permissions WHERE permission_uid = ?)";
+
+        assertTranslated(FilterBuilder.containsAllValues(AttributeBuilder.build("memberOf", "p1", "p2")),
+            "(" + member + ") AND (" + member + ")", "p1", "p2");
+        assertUntranslated(FilterBuilder.containsAllValues(AttributeBuilder.build("memberOf")));
+    }
+
+    @Test
+    public void equalityValueOnlyForExactComparisons() {
+        assertEquals(translate(FilterBuilder.equalTo(new Uid("4711"))).equalityValue("account_id"), "4711");
+        assertNull(translate(FilterBuilder.not(FilterBuilder.equalTo(new Uid("4711")))).equalityValue("account_id"));
+    }
+
+    private SqlFilter translate(Filter filter) {
+        List<SqlFilter> translated = translator.translate(filter);
+        assertEquals(translated.size(), 1, "translations of " + filter);
+        return translated.get(0);
+    }
+
+    private void assertTranslated(Filter filter, String clause, Object... parameters) {
+        SqlFilter translated = translate(filter);
+        assertEquals(translated.getClause(), clause);
+        assertEquals(translated.getParameters(), List.of(parameters));
+    }
+
+    private void assertUntranslated(Filter filter) {
+        assertEquals(translator.translate(filter), List.of());
+    }
+}
@@ -0,0 +1,218 @@
+package ru.ctsg.idmcae.sync;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Predicate;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import ru.ctsg.idmcae.TestDatabase;
+
+/**
+ * Runs against PostgreSQL, see {@link TestDatabase}.
+ */
+public class ChangeListenerTest {
+
+    private static final long TIMEOUT_MILLIS = 30_000;
+
+    private HikariDataSource dataSource;
+    private ChangeListener listener;
+
+    @BeforeClass
+    public void setUp() throws SQLException {
+        dataSource = TestDatabase.open("change-listener-test");
+        listener = ChangeListener.start(dataSource);
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() {
+        if (listener != null) {
+            listener.stop();
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @Test
+    public void installsTheTriggers() throws SQLException {
+        quiet(subscribe(ChangeStream.ACCOUNTS));
+
+        try (Connection connection = dataSource.getConnection();
+            Statement statement = connection.createStatement();
+            ResultSet resultSet = statement.executeQuery(
+                "SELECT count(*) FROM pg_trigger WHERE tgname = 'adlk_notify_change' AND NOT tgisinternal")) {
+
+            resultSet.next();
+            assertEquals(resultSet.getInt(1), ChangeStream.values().length);
+        }
+    }
+
+    @Test
+    public void newSubscriptionPollsWithIncompleteKeys() {
+        ChangeListener.Subscription subscription = subscribe(ChangeStream.ACCOUNTS);
+
+        ChangeListener.Changes changes = subscription.drain();
+        subscription.complete(changes, true);
+
+        assertTrue(changes != null && !changes.isComplete());
+    }
+
+    @Test
+    public void deletionsAreDeliveredByKey() throws SQLException {
+        ChangeListener.Subscription subscription = quiet(subscribe(ChangeStream.ACCOUNTS));
+
+        String key = Long.toString(insertAndDeleteAccount());
+
+        ChangeListener.Changes changes =
+            await(subscription, drained -> drained.keys(ChangeStream.ACCOUNTS).contains(key));
+        assertTrue(changes.isComplete());
+    }
+
+    @Test
+    public void updatesOnlyMarkDirty() throws SQLException {
+        long account = insertAccount();
+        ChangeListener.Subscription subscription = quiet(subscribe(ChangeStream.ACCOUNTS));
+
+        execute("UPDATE public.accounts SET full_name = 'Renamed' WHERE account_id = " + account);
+
+        ChangeListener.Changes changes = await(subscription, drained -> true);
+        assertEquals(changes.keys(ChangeStream.ACCOUNTS), Set.of());
+    }
+
+    @Test
+    public void removedMembershipsAreDeliveredByAccount() throws SQLException {
+        long account = insertAccount();
+        String permission = UUID.randomUUID().toString();
+        execute("INSERT INTO public.permission (permission_uid, code) VALUES ('"
+            + permission + "', 'P-" + permission + "')");
+        execute("INSERT INTO public.account_permissions (account_id, permission_uid) VALUES ("
+            + account + ", '" + permission + "')");
+        ChangeListener.Subscription subscription = quiet(subscribe(ChangeStream.ACCOUNTS, ChangeStream.MEMBERSHIPS));
+
+        execute("DELETE FROM public.account_permissions WHERE account_id = " + account);
+
+        await(subscription, drained -> drained.keys(ChangeStream.MEMBERSHIPS).contains(Long.toString(account)));
+    }
+
+    @Test
+    public void changesOfOtherStreamsAreIgnored() throws SQLException {
+        ChangeListener.Subscription subscription = quiet(subscribe(ChangeStream.PERMISSIONS));
+        ChangeListener.Subscription marker = quiet(subscribe(ChangeStream.ACCOUNTS));
+
+        insertAndDeleteAccount();
+        // notifications are dispatched in commit order, so the first one has reached every subscription
+        String last = Long.toString(insertAndDeleteAccount());
+        await(marker, drained -> drained.keys(ChangeStream.ACCOUNTS).contains(last));
+
+        assertNull(subscription.drain());
+    }
+
+    @Test
+    public void undeliveredKeysAreKept() throws SQLException {
+        ChangeListener.Subscription subscription = quiet(subscribe(ChangeStream.ACCOUNTS));
+
+        String key = Long.toString(insertAndDeleteAccount());
+
+        ChangeListener.Changes changes =
+            await(subscription, drained -> drained.keys(ChangeStream.ACCOUNTS).contains(key), false);
+        subscription.complete(changes, false);
+
+        ChangeListener.Changes again = subscription.drain();
+        subscription.complete(again, true);
+        assertTrue(again != null && again.keys(ChangeStream.ACCOUNTS).contains(key));
+    }
+
+    private ChangeListener.Subscription subscribe(ChangeStream... streams) {
+        return listener.subscribe("test-" + UUID.randomUUID(), EnumSet.of(streams[0], streams));
+    }
+
+    /*
+     * Drains the subscription until it has nothing to report, which it only does
+     * once the listener is listening.
+     */
+    private static ChangeListener.Subscription quiet(ChangeListener.Subscription subscription) {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            ChangeListener.Changes changes = subscription.drain();
+            subscription.complete(changes, true);
+            if (changes == null) {
+                return subscription;
+            }
+            pause(deadline, "the listener to start");
+        }
+    }
+
+    private static ChangeListener.Changes await(
+        ChangeListener.Subscription subscription, Predicate<ChangeListener.Changes> expected) {
+
+        return await(subscription, expected, true);
+    }
+
+    // the first drained changes that match; they are completed unless told otherwise
+    private static ChangeListener.Changes await(
+        ChangeListener.Subscription subscription, Predicate<ChangeListener.Changes> expected, boolean complete) {
+
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (true) {
+            ChangeListener.Changes changes = subscription.drain();
+            boolean matched = changes != null && expected.test(changes);
+            if (!matched || complete) {
+                subscription.complete(changes, true);
+            }
+            if (matched) {
+                return changes;
+            }
+            pause(deadline, "the notification");
+        }
+    }
+
+    private static void pause(long deadline, String what) {
+        if (System.currentTimeMillis() > deadline) {
+            fail("Timed out waiting for " + what);
+        }
+        try {
+            Thread.sleep(50);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            fail("Interrupted waiting for " + what);
+        }
+    }
+
+    private long insertAccount() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+            Statement statement = connection.createStatement();
+            ResultSet resultSet = statement.executeQuery("INSERT INTO public.accounts (username) "
+                + "VALUES ('user-' || gen_random_uuid()) RETURNING account_id")) {
+
+            resultSet.next();
+            return resultSet.getLong(1);
+        }
+    }
+
+    private long insertAndDeleteAccount() throws SQLException {
+        long account = insertAccount();
+        execute("DELETE FROM public.accounts WHERE account_id = " + account);
+        return account;
+    }
+
+    private void execute(String sql) throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            TestDatabase.execute(connection, sql);
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package ru.ctsg.idmcae.sync;
+
+import static org.testng.Assert.assertEquals;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import ru.ctsg.idmcae.TestDatabase;
+import ru.ctsg.idmcae.query.TableMapping;
+
+/**
+ * Runs against PostgreSQL, see {@link TestDatabase}.
+ */
+public class DeleteDetectorTest {
+
+    private static final int ACCOUNTS = 1000;
+    private static final int RANGE_SIZE = 100;
+    private static final int FETCH_SIZE = 250;
+
+    private HikariDataSource dataSource;
+    private Connection connection;
+
+    @BeforeClass
+    public void setUp() throws SQLException {
+        dataSource = TestDatabase.open("delete-detector-test");
+        connection = dataSource.getConnection();
+    }
+
+    @AfterClass(alwaysRun = true)
+    public void tearDown() throws SQLException {
+        if (connection != null) {
+            connection.close();
+        }
+        if (dataSource != null) {
+            dataSource.close();
+        }
+    }
+
+    @BeforeMethod
+    public void resetTables() throws SQLException {
+        TestDatabase.reset(connection);
+        TestDatabase.execute(connection, "DROP TABLE IF EXISTS " + DeleteDetectors.STATE_TABLE);
+        TestDatabase.execute(connection, "INSERT INTO public.accounts (username) "
+            + "SELECT 'user' || g FROM generate_series(1, " + ACCOUNTS + ") g");
+    }
+
+    @Test
+    public void firstRunRecordsABaseline() throws SQLException {
+        DeleteDetector detector = detector(new DeleteDetectors(), "first");
+
+        assertEquals(detector.detect(0, connection, FETCH_SIZE), List.of());
+    }
+
+    @Test
+    public void reportsDeletedKeysOnce() throws SQLException {
+        DeleteDetector detector = detector(new DeleteDetectors(), "once");
+        detector.detect(0, connection, FETCH_SIZE);
+
+        delete("account_id IN (1, 500, 1000)");
+
+        assertEquals(detected(detector, 1), List.of("1", "1000", "500"));
+        assertEquals(detected(detector, 2), List.of());
+    }
+
+    @Test
+    public void insertedAndUpdatedRowsAreNotDeletions() throws SQLException {
+        DeleteDetector detector = detector(new DeleteDetectors(), "inserts");
+        detector.detect(0, connection, FETCH_SIZE);
+
+        TestDatabase.execute(connection, "INSERT INTO public.accounts (username) "
+            + "SELECT 'new' || g FROM generate_series(1, 300) g");
+        TestDatabase.execute(connection, "UPDATE public.accounts SET full_name = 'Renamed' WHERE account_id < 50");
+        delete("account_id = 250");
+
+        assertEquals(detected(detector, 1), List.of("250"));
+    }
+
+    @Test
+    public void emptiedRangesAreReported() throws SQLException {
+        DeleteDetector detector = detector(new DeleteDetectors(), "emptied");
+        detector.detect(0, connection, FETCH_SIZE);
+
+        delete("account_id BETWEEN 101 AND 300");
+
+        assertEquals(detected(detector, 1).size(), 200);
+        delete("account_id = 301");
+        assertEquals(detected(detector, 2), List.of("301"));
+    }
+
+    @Test
+    public void runWhoseTokenWasNotKeptIsRepeated() throws SQLException {
+        DeleteDetector detector = detector(new DeleteDetectors(), "repeat");
+        detector.detect(0, connection, FETCH_SIZE);
+        delete("account_id = 7");
+
+        assertEquals(detected(detector, 1), List.of("7"));
+        // midPoint did not store the token of generation 2 and runs from generation 1 again
+        delete("account_id = 8");
+        assertEquals(detected(detector, 1), List.of("7", "8"));
+    }
+
+    @Test
+    public void stateSurvivesARestart() throws SQLException {
+        detector(new DeleteDetectors(), "restart").detect(0, connection, FETCH_SIZE);
+        delete("account_id IN (3, 900)");
+
+        DeleteDetector restarted = detector(new DeleteDetectors(), "restart");
+
+        assertEquals(detected(restarted, 1), List.of("3", "900"));
+    }
+
+    @Test
+    public void restartedRunWhoseTokenWasNotKeptIsRepeated() throws SQLException {
+        DeleteDetector detector = detector(new DeleteDetectors(), "restart-repeat");
+        detector.detect(0, connection, FETCH_SIZE);
+        delete("account_id = 42");
+        detector.detect(1, connection, FETCH_SIZE);
+        delete("account_id = 43");
+
+        DeleteDetector restarted = detector(new DeleteDetectors(), "restart-repeat");
+
+        assertEquals(detected(restarted, 1), List.of("42", "43"));
+        assertEquals(detected(restarted, 2), List.of());
+    }
+
+    @Test
+    public void consumersAreIndependent() throws SQLException {
+        DeleteDetectors detectors = new DeleteDetectors();
+        DeleteDetector first = detector(detectors, "first-consumer");
+        first.detect(0, connection, FETCH_SIZE);
+        delete("account_id = 10");
+
+        DeleteDetector second = detector(detectors, "second-consumer");
+        second.detect(0, connection, FETCH_SIZE);
+        delete("account_id = 20");
+
+        assertEquals(detected(first, 1), List.of("10", "20"));
+        assertEquals(detected(second, 1), List.of("20"));
+    }
+
+    private static DeleteDetector detector(DeleteDetectors detectors, String consumer) {
+        return detectors.forConsumer(consumer, TableMapping.ACCOUNT, RANGE_SIZE);
+    }
+
+    // sorted as strings
+    private List<String> detected(DeleteDetector detector, long generation) throws SQLException {
+        List<String> deleted = new ArrayList<>(detector.detect(generation, connection, FETCH_SIZE));
+        deleted.sort(null);
+        return deleted;
+    }
+
+    private void delete(String condition) throws SQLException {
+        TestDatabase.execute(connection, "DELETE FROM public.accounts WHERE " + condition);
+    }
+}
@@ -0,0 +1,176 @@
+package ru.ctsg.idmcae.sync;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertThrows;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.EnumMap;
+import java.util.Map;
+
+import org.identityconnectors.framework.common.exceptions.ConnectorException;
+import org.testng.annotations.Test;
+
+public class SyncTokenCodecTest {
+
+    @Test
+    public void version3RoundTrip() {
+        Map<ChangeStream, SyncWatermark> position = position();
+        String consumer = SyncTokenCodec.newConsumer();
+
+        String token = SyncTokenCodec.encode(consumer, 42, position);
+
+        assertTrue(token.startsWith("3:" + consumer + ".16:"), token);
+        assertEquals(SyncTokenCodec.decodeConsumer(token), consumer);
+        assertEquals(SyncTokenCodec.decodeGeneration(token), 42);
+        assertEquals(SyncTokenCodec.decodePosition(token, ChangeStream.ACCOUNTS), position);
+    }
+
+    @Test
+    public void version3WithoutGeneration() {
+        Map<ChangeStream, SyncWatermark> position = position();
+
+        String token = SyncTokenCodec.encode("k2v9x0c1", 0, position);
+
+        assertTrue(token.startsWith("3:k2v9x0c1:"), token);
+        assertEquals(SyncTokenCodec.decodeConsumer(token), "k2v9x0c1");
+        assertEquals(SyncTokenCodec.decodeGeneration(token), 0);
+        assertEquals(SyncTokenCodec.decodePosition(token, ChangeStream.ACCOUNTS), position);
+    }
+
+    @Test
+    public void version3WithoutKeys() {
+        Map<ChangeStream, SyncWatermark> position = new EnumMap<>(ChangeStream.class);
+        position.put(ChangeStream.ACCOUNTS, new SyncWatermark(timestamp("2024-03-01T12:30:45.5Z"), null));
+        position.put(ChangeStream.MEMBERSHIPS, new SyncWatermark(timestamp("2024-03-01T12:30:46Z"), null));
+
+        assertEquals(roundTrip(position), position);
+    }
+
+    @Test
+    public void version3OfAnEmptyPosition() {
+        Map<ChangeStream, SyncWatermark> empty = new EnumMap<>(ChangeStream.class);
+
+        assertEquals(roundTrip(empty), empty);
+    }
+
+    @Test
+    public void timestampsKeepMicrosecondsOnly() {
+        Timestamp precise = timestamp("2024-03-01T12:30:45.123456789Z");
+
+        Timestamp decoded = roundTrip(Map.of(ChangeStream.ACCOUNTS, new SyncWatermark(precise, null)))
+            .get(ChangeStream.ACCOUNTS).getTimestamp();
+
+        assertEquals(decoded, timestamp("2024-03-01T12:30:45.123456Z"));
+    }
+
+    @Test
+    public void timestampsBeforeTheEpoch() {
+        Map<ChangeStream, SyncWatermark> position =
+            Map.of(ChangeStream.ACCOUNTS, new SyncWatermark(timestamp("1969-12-31T23:59:59.999999Z"), "1"));
+
+        assertEquals(roundTrip(position), position);
+    }
+
+    @Test
+    public void version1Tokens() {
+        assertEquals(SyncTokenCodec.decode("1:gtw7urmidc:4711"),
+            new SyncWatermark(timestamp("2024-03-01T12:30:45.123456Z"), "4711"));
+        assertEquals(SyncTokenCodec.decode("1:gtw7urjv40:a:b,c%d"),
+            new SyncWatermark(timestamp("2024-03-01T12:30:45Z"), "a:b,c%d"));
+        assertEquals(SyncTokenCodec.decode("1:gtw7urukww"),
+            new SyncWatermark(timestamp("2024-03-01T12:30:45.5Z"), null));
+        assertEquals(SyncTokenCodec.decode("1:-1:1"),
+            new SyncWatermark(timestamp("1969-12-31T23:59:59.999999Z"), "1"));
+    }
+
+    @Test
+    public void version2Tokens() {
+        String token = "2:agtw7urjv41:4711,pgtw7us5aps:0f8fad5b-d9cb-469f-a165-70867728950e,mgtw7usqqbk:a%2Cb%25c:d";
+
+        assertEquals(SyncTokenCodec.decodePosition(token, ChangeStream.ACCOUNTS), position());
+        assertNull(SyncTokenCodec.decodeConsumer(token));
+        assertEquals(SyncTokenCodec.decodeGeneration(token), 0);
+        assertEquals(SyncTokenCodec.decodePosition("2:", ChangeStream.ACCOUNTS), Map.of());
+    }
+
+    @Test
+    public void consumersDiffer() {
+        assertNotEquals(SyncTokenCodec.newConsumer(), SyncTokenCodec.newConsumer());
+    }
+
+    @Test
+    public void singleWatermarkTokensBecomeThePrimaryStream() {
+        SyncWatermark watermark = new SyncWatermark(timestamp("2024-03-01T12:30:45Z"), "p-1");
+
+        Map<ChangeStream, SyncWatermark> position =
+            SyncTokenCodec.decodePosition("1:gtw7urjv40:p-1", ChangeStream.PERMISSIONS);
+
+        assertEquals(position, Map.of(ChangeStream.PERMISSIONS, watermark));
+    }
+
+    @Test
+    public void legacyTokens() throws IOException {
+        Timestamp timestamp = timestamp("2023-11-05T08:00:00.25Z");
+
+        assertEquals(SyncTokenCodec.decode(legacy(timestamp)), new SyncWatermark(timestamp, null));
+        assertEquals(SyncTokenCodec.decode(legacy(timestamp, "4711")), new SyncWatermark(timestamp, "4711"));
+        assertEquals(SyncTokenCodec.decodePosition(legacy(timestamp), ChangeStream.ACCOUNTS),
+            Map.of(ChangeStream.ACCOUNTS, new SyncWatermark(timestamp, null)));
+        assertNull(SyncTokenCodec.decodeConsumer(legacy(timestamp)));
+    }
+
+    @Test
+    public void legacyTokensOfOtherClassesAreRejected() throws IOException {
+        String token = legacy(new ArrayList<>());
+
+        assertThrows(ConnectorException.class, () -> SyncTokenCodec.decode(token));
+    }
+
+    @Test
+    public void malformedTokensAreRejected() {
+        for (String token : new String[] {"", "1:", "1:not base 36!", "9:abc", "2:x1", "2:a", "3::a1", "3:k.!:a1"}) {
+            assertThrows(ConnectorException.class, () -> {
+                SyncTokenCodec.decodeGeneration(token);
+                SyncTokenCodec.decodePosition(token, ChangeStream.ACCOUNTS);
+            });
+        }
+    }
+
+    private static Map<ChangeStream, SyncWatermark> position() {
+        Map<ChangeStream, SyncWatermark> position = new EnumMap<>(ChangeStream.class);
+        position.put(ChangeStream.ACCOUNTS, new SyncWatermark(timestamp("2024-03-01T12:30:45.000001Z"), "4711"));
+        position.put(ChangeStream.PERMISSIONS, new SyncWatermark(timestamp("2024-03-01T12:30:46Z"),
+            "0f8fad5b-d9cb-469f-a165-70867728950e"));
+        position.put(ChangeStream.MEMBERSHIPS, new SyncWatermark(timestamp("2024-03-01T12:30:47Z"), "a,b%c:d"));
+        return position;
+    }
+
+    private static Map<ChangeStream, SyncWatermark> roundTrip(Map<ChangeStream, SyncWatermark> position) {
+        return SyncTokenCodec.decodePosition(
+            SyncTokenCodec.encode(SyncTokenCodec.newConsumer(), 0, position), ChangeStream.ACCOUNTS);
+    }
+
+    private static Timestamp timestamp(String instant) {
+        return Timestamp.from(Instant.parse(instant));
+    }
+
+    // as written by earlier versions of the connector
+    private static String legacy(Object... objects) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(bytes)) {
+            for (Object object : objects) {
+                objectOutputStream.writeObject(object);
+            }
+        }
+        return Base64.getEncoder().encodeToString(bytes.toByteArray());
+    }
+}